@@ -11,14 +11,15 @@
 #  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
 #  or implied. See the License for the specific language governing
 #  permissions and limitations under the License.
+from http import HTTPStatus
 from typing import List, Optional
 
 from flask import request
 from flask.json import jsonify
-from werkzeug.exceptions import BadRequest
+from werkzeug.exceptions import BadRequest, HTTPException
 
 from src.constants import ENV
-from src.exceptions import NoFaceFoundError
+from src.exceptions import ImageReadLibraryError, NoFaceFoundError
 from src.services.facescan.plugins import base, managers
 from src.services.facescan.scanner.facescanners import scanner
 from src.services.flask_.constants import ARG
@@ -26,6 +27,10 @@ from src.services.flask_.needs_attached_file import needs_attached_file
 from src.services.imgtools.read_img import read_img
 from src.services.utils.pyutils import Constants
 import base64
+import binascii
+import logging
+
+logger = logging.getLogger(__name__)
 
 
 def endpoints(app):
@@ -59,6 +64,40 @@ def endpoints(app):
         faces = _limit(faces, request.values.get(ARG.LIMIT))
         return jsonify(plugins_versions=plugins_versions, result=faces)
 
+    @app.route('/find_faces_base64_batch', methods=['POST'])
+    def find_faces_base64_batch_post():
+        detector = managers.plugin_manager.detector
+        face_plugins = managers.plugin_manager.filter_face_plugins(
+            _get_face_plugin_names()
+        )
+        det_prob_threshold = _get_det_prob_threshold()
+        limit = request.values.get(ARG.LIMIT)
+
+        files = _get_batch_files()
+        results = [None] * len(files)
+        imgs = {}
+        for i, file in enumerate(files):
+            try:
+                imgs[i] = read_img(_b64decode(file))
+            except Exception as e:
+                results[i] = _error_result(e)
+
+        faces = detector.batch(
+            imgs=list(imgs.values()),
+            det_prob_threshold=det_prob_threshold,
+            face_plugins=face_plugins
+        )
+        for i, img_faces in zip(imgs.keys(), faces):
+            if isinstance(img_faces, Exception):
+                results[i] = _error_result(img_faces)
+                continue
+            try:
+                results[i] = dict(result=_limit(img_faces, limit))
+            except HTTPException as e:
+                results[i] = _error_result(e)
+        plugins_versions = {p.slug: str(p) for p in [detector] + face_plugins}
+        return jsonify(plugins_versions=plugins_versions, results=results)
+
     @app.route('/find_faces', methods=['POST'])
     @needs_attached_file
     def find_faces_post():
@@ -104,6 +143,30 @@ def _get_face_plugin_names() -> Optional[List[str]]:
     ]
 
 
+def _get_batch_files() -> List[str]:
+    body = request.get_json(silent=True)
+    files = body.get('files') if isinstance(body, dict) else None
+    if not isinstance(files, list) or not all(isinstance(file, str) for file in files):
+        raise BadRequest('Request body must be a JSON object with a list of base64 encoded images in "files"')
+    return files
+
+
+def _b64decode(file: str) -> bytes:
+    try:
+        return base64.b64decode(file)
+    except binascii.Error as e:
+        raise ImageReadLibraryError from e
+
+
+def _error_result(e: Exception) -> dict:
+    """ Error of a single image in a batch, the same as it would be returned for this image alone """
+    if isinstance(e, HTTPException):
+        return dict(status=e.code, message=str(e))
+    msg = f"{e.__class__.__name__}{f': {str(e)}' if str(e) else ''}"
+    logger.critical(msg, exc_info=ENV.IS_DEV_ENV)
+    return dict(status=HTTPStatus.INTERNAL_SERVER_ERROR, message=msg)
+
+
 def _limit(faces: List, limit: str = None) -> List:
     """
     >>> _limit([1, 2, 3], None)
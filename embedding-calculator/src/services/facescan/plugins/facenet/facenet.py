@@ -132,6 +132,9 @@ class Calculator(mixins.CalculatorMixin, base.BasePlugin):
     def calc_embedding(self, face_img: Array3D) -> Array3D:
         return self._calculate_embeddings([face_img])[0]
 
+    def calc_embeddings(self, face_imgs: List[Array3D]) -> List[Array3D]:
+        return list(self._calculate_embeddings(face_imgs))
+
     @cached_property
     def _embedding_calculator(self):
         with tf1.Graph().as_default() as graph:
@@ -17,7 +17,7 @@ import numpy as np
 from time import time, sleep
 from abc import ABC, abstractmethod
 from contextlib import contextmanager
-from typing import List, Tuple
+from typing import List, Tuple, Union
 
 from src.services.dto.bounding_box import BoundingBoxDTO
 from src.services.dto import plugin_result
@@ -48,6 +48,56 @@ class FaceDetectorMixin(ABC):
             self._apply_face_plugins(face, face_plugins)
         return faces
 
+    def batch(self, imgs: List[Array3D], det_prob_threshold: float = None,
+              face_plugins: Tuple[base.BasePlugin] = ()) -> List[Union[List[plugin_result.FaceDTO], Exception]]:
+        """
+        Same as calling it for each image, but embeddings of all the faces are calculated at once.
+        An error of an image is returned in place of its faces, it does not fail the other images.
+        """
+        results = []
+        for img in imgs:
+            try:
+                results.append(self._fetch_faces(img, det_prob_threshold))
+            except Exception as e:
+                results.append(e)
+        detected = [i for i, result in enumerate(results) if not isinstance(result, Exception)]
+
+        calculator = next((p for p in face_plugins if isinstance(p, CalculatorMixin)), None)
+        if calculator:
+            try:
+                self._calc_embeddings(calculator, [face for i in detected for face in results[i]])
+            except Exception:
+                # the face which fails the batch is not known, so only its image has to fail
+                for i in detected:
+                    try:
+                        self._calc_embeddings(calculator, results[i])
+                    except Exception as e:
+                        results[i] = e
+
+        other_plugins = tuple(p for p in face_plugins if p is not calculator)
+        for i in detected:
+            if isinstance(results[i], Exception):
+                continue
+            try:
+                for face in results[i]:
+                    self._apply_face_plugins(face, other_plugins)
+            except Exception as e:
+                results[i] = e
+        return results
+
+    @staticmethod
+    def _calc_embeddings(calculator: 'CalculatorMixin', faces: List[plugin_result.FaceDTO]):
+        if not faces:
+            return
+        try:
+            with elapsed_time_contextmanager() as get_elapsed_time:
+                embeddings = calculator.calc_embeddings([face._face_img for face in faces])
+        except Exception as e:
+            raise exceptions.PluginError(f'{calculator} error - {e}')
+        for face, embedding in zip(faces, embeddings):
+            face._plugins_dto.append(plugin_result.EmbeddingDTO(embedding=embedding))
+            face.execution_time[calculator.slug] = get_elapsed_time() // len(faces)
+
     def _fetch_faces(self, img: Array3D, det_prob_threshold: float = None):
         with elapsed_time_contextmanager() as get_elapsed_time:
             boxes = self.find_faces(img, det_prob_threshold)
@@ -101,6 +151,10 @@ class CalculatorMixin(ABC):
         """ Calculate embedding of a given face """
         raise NotImplementedError
 
+    def calc_embeddings(self, face_imgs: List[Array3D]) -> List[Array3D]:
+        """ Calculate embeddings of the given faces, plugins override it to run the model on them as one batch """
+        return [self.calc_embedding(face_img) for face_img in face_imgs]
+
 
 class LandmarksDetectorMixin:
     slug = "landmarks"
@@ -0,0 +1,64 @@
+#  Copyright (c) 2020 the original author or authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#       https://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+#  or implied. See the License for the specific language governing
+#  permissions and limitations under the License.
+
+import base64
+from http import HTTPStatus
+
+import pytest
+
+from sample_images import IMG_DIR
+from src._endpoints import endpoints
+from src.exceptions import ImageReadLibraryError, NoFaceFoundError
+
+ENDPOINT = '/find_faces_base64_batch'
+
+
+def _base64(img_name: str) -> str:
+    return base64.b64encode((IMG_DIR / img_name).read_bytes()).decode()
+
+
+@pytest.fixture
+def client():
+    from src.app import create_app
+    return create_app(endpoints).test_client()
+
+
+@pytest.mark.parametrize('body', [None, [], {}, {'files': 'file'}, {'files': [1]}])
+def test__given_malformed_body__when_requesting_batch__then_returns_400(client, body):
+    res = client.post(ENDPOINT, json=body)
+
+    assert res.status_code == HTTPStatus.BAD_REQUEST
+
+
+@pytest.mark.integration
+def test__given_valid_undecodable_and_no_face_imgs__when_requesting_batch__then_returns_result_of_each_img(client):
+    files = [
+        _base64('001_A.jpg'),
+        base64.b64encode(b'not an image').decode(),
+        'not base64',
+        _base64('017_0.jpg'),
+    ]
+
+    res = client.post(f'{ENDPOINT}?face_plugins=calculator', json=dict(files=files))
+
+    assert res.status_code == HTTPStatus.OK, res.json
+    results = res.json['results']
+    assert len(results) == 4
+    assert len(results[0]['result']) == 1
+    assert len(results[0]['result'][0]['embedding']) > 0
+    for result in results[1:3]:
+        assert result['status'] == HTTPStatus.BAD_REQUEST
+        assert result['message'] == f'400 Bad Request: {ImageReadLibraryError.description}'
+    assert results[3]['status'] == HTTPStatus.BAD_REQUEST
+    assert results[3]['message'] == f'400 Bad Request: {NoFaceFoundError.description}'
@@ -0,0 +1,26 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the node as out of service until the collections are preloaded, included into the readiness group,
+ * so that the node does not take traffic before that.
+ */
+@Component
+@RequiredArgsConstructor
+public class EmbeddingCacheHealthIndicator implements HealthIndicator {
+
+    private final EmbeddingCachePreloader embeddingCachePreloader;
+
+    @Override
+    public Health health() {
+        final Health.Builder builder = embeddingCachePreloader.isFinished() ? Health.up() : Health.outOfService();
+
+        return builder.withDetail("preloaded", embeddingCachePreloader.getPreloadedCount())
+                      .withDetail("total", embeddingCachePreloader.getTotalCount())
+                      .build();
+    }
+}
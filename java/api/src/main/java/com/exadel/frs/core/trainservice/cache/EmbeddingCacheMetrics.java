@@ -0,0 +1,43 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes hits, misses, load durations, evictions (count and weight) of the embedding cache, tagged with
+ * {@code cache=embeddings}, and the memory it occupies against its budget.
+ */
+@Component
+@RequiredArgsConstructor
+public class EmbeddingCacheMetrics implements MeterBinder {
+
+    private static final String CACHE_NAME = "embeddings";
+
+    private final EmbeddingCacheProvider embeddingCacheProvider;
+    private final EmbeddingCacheProperties embeddingCacheProperties;
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        val cache = embeddingCacheProvider.getCache();
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+
+        val tags = Tags.of("cache", CACHE_NAME);
+        Gauge.builder("cache.memory.used", embeddingCacheProvider, EmbeddingCacheProvider::getMemoryUsage)
+             .tags(tags)
+             .baseUnit("bytes")
+             .description("Estimated memory, occupied by the cached collections")
+             .register(registry);
+        Gauge.builder("cache.memory.max", embeddingCacheProperties, properties -> properties.getMaxMemory().toBytes())
+             .tags(tags)
+             .baseUnit("bytes")
+             .description("Memory budget of the cached collections")
+             .register(registry);
+    }
+}
@@ -0,0 +1,129 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import com.exadel.frs.commonservice.entity.Model;
+import com.exadel.frs.commonservice.entity.ModelRequestCountProjection;
+import com.exadel.frs.commonservice.enums.ModelType;
+import com.exadel.frs.commonservice.repository.ModelRepository;
+import com.exadel.frs.commonservice.repository.ModelStatisticRepository;
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Loads collections of the configured and the most requested models on startup, so that first requests do not pay
+ * for the load. Until all of them are loaded (or failed to), the node is reported as not ready to take traffic,
+ * see {@link EmbeddingCacheHealthIndicator}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmbeddingCachePreloader {
+
+    private final EmbeddingCacheProvider embeddingCacheProvider;
+    private final ModelRepository modelRepository;
+    private final ModelStatisticRepository modelStatisticRepository;
+    private final EmbeddingCacheProperties embeddingCacheProperties;
+
+    private final AtomicInteger preloadedCount = new AtomicInteger();
+    private volatile int totalCount;
+    private volatile boolean finished;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        preload();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public int getPreloadedCount() {
+        return preloadedCount.get();
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    CompletableFuture<Void> preload() {
+        val properties = embeddingCacheProperties.getPreload();
+        if (!properties.isEnabled()) {
+            finished = true;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final List<String> apiKeys;
+        try {
+            apiKeys = getApiKeysToPreload();
+        } catch (RuntimeException e) {
+            log.error("Could not find models to preload", e);
+            finished = true;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        totalCount = apiKeys.size();
+        log.info("Preloading embeddings of {} models", totalCount);
+
+        // queue is FIFO, so the most requested models are loaded first
+        val executor = Executors.newFixedThreadPool(Math.max(properties.getConcurrency(), 1), runnable -> {
+            val thread = new Thread(runnable, "embedding-cache-preloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val futures = apiKeys.stream()
+                             .map(apiKey -> CompletableFuture.runAsync(() -> preload(apiKey), executor))
+                             .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(futures)
+                                .whenComplete((result, e) -> {
+                                    executor.shutdown();
+                                    finished = true;
+                                    log.info("Embeddings of {} of {} models are preloaded", preloadedCount.get(), totalCount);
+                                });
+    }
+
+    private void preload(final String apiKey) {
+        try {
+            val start = System.currentTimeMillis();
+            embeddingCacheProvider.preload(apiKey);
+            preloadedCount.incrementAndGet();
+            log.debug("Embeddings of {} are preloaded in {} ms", apiKey, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            // the collection is loaded on the first request then, as usual
+            log.error("Could not preload embeddings of {}", apiKey, e);
+        }
+    }
+
+    private List<String> getApiKeysToPreload() {
+        val properties = embeddingCacheProperties.getPreload();
+        val requestCounts = modelStatisticRepository
+                .getRequestCountsSince(LocalDateTime.now().minus(properties.getStatisticPeriod()))
+                .stream()
+                .collect(Collectors.toMap(ModelRequestCountProjection::getModelId, ModelRequestCountProjection::getRequestCount));
+
+        val apiKeys = new LinkedHashSet<>(properties.getApiKeys());
+        modelRepository.findAllByType(ModelType.RECOGNITION)
+                       .stream()
+                       .filter(model -> requestCounts.getOrDefault(model.getId(), 0L) > 0)
+                       .sorted(Comparator.comparing((Function<Model, Long>) model -> requestCounts.get(model.getId())).reversed())
+                       .limit(properties.getMaxModels())
+                       .forEach(model -> apiKeys.add(model.getApiKey()));
+
+        return new ArrayList<>(apiKeys);
+    }
+}
@@ -3,76 +3,510 @@ package com.exadel.frs.core.trainservice.cache;
 import com.exadel.frs.core.trainservice.dto.CacheActionDto;
 import com.exadel.frs.core.trainservice.service.EmbeddingService;
 import com.exadel.frs.core.trainservice.service.NotificationSenderService;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import lombok.RequiredArgsConstructor;
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static com.exadel.frs.core.trainservice.system.global.Constants.SERVER_UUID;
 
+/**
+ * Caches collections within the memory budget. Collections are weighted by their estimated footprint (embeddings
+ * matrices, projections and attached indexes), so one huge collection takes the place of many small ones.
+ * Which collection is evicted is decided by the W-TinyLFU policy, by how frequently and recently it was requested.
+ */
 @Component
 @Slf4j
-@RequiredArgsConstructor
 public class EmbeddingCacheProvider {
 
-    private static final long CACHE_EXPIRATION = 60 * 60 * 24L;
-    private static final long CACHE_MAXIMUM_SIZE = 10;
+    // weight is int, so collections are weighted in kilobytes
+    private static final int WEIGHT_UNIT_SHIFT = 10;
+    // notification payload is limited to 8000 bytes
+    private static final int MAX_DELTA_EMBEDDINGS = 100;
 
     private final EmbeddingService embeddingService;
 
     private final NotificationSenderService notificationSenderService;
 
-    private static final Cache<String, EmbeddingCollection> cache =
-            CacheBuilder.newBuilder()
-                    .expireAfterAccess(CACHE_EXPIRATION, TimeUnit.SECONDS)
-                    .maximumSize(CACHE_MAXIMUM_SIZE)
-                    .build();
+    private final EmbeddingCacheProperties embeddingCacheProperties;
+
+    private final EmbeddingSnapshotStore embeddingSnapshotStore;
+
+    // loads are made outside of the cache, so they are recorded explicitly
+    private final StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    private final Cache<String, EmbeddingCollection> cache;
+
+    // loads in progress, concurrent callers of a missing collection wait for the same load
+    private final Map<String, CompletableFuture<EmbeddingCollection>> loads = new ConcurrentHashMap<>();
+
+    // collections, changed on other nodes, are reloaded one by one, each one at most once per a queued change
+    private final Set<String> scheduledReloads = ConcurrentHashMap.newKeySet();
+    private volatile String reloading;
+
+    // changes of each collection, sent by this node, and the last change received from each other node
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final Map<String, Long> receivedSequences = new ConcurrentHashMap<>();
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "embedding-cache-reloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // collections with too many removed (dead) rows are compacted one by one
+    private final Set<String> scheduledCompactions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "embedding-cache-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // indexes of the collections are built one by one, the first searches are not blocked by them
+    private final ExecutorService indexBuilder = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "embedding-index-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EmbeddingCacheProvider(final EmbeddingService embeddingService,
+                                  final NotificationSenderService notificationSenderService,
+                                  final EmbeddingCacheProperties embeddingCacheProperties,
+                                  final EmbeddingSnapshotStore embeddingSnapshotStore) {
+        this.embeddingService = embeddingService;
+        this.notificationSenderService = notificationSenderService;
+        this.embeddingCacheProperties = embeddingCacheProperties;
+        this.embeddingSnapshotStore = embeddingSnapshotStore;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterAccess(embeddingCacheProperties.getExpireAfterAccess().toMillis(), TimeUnit.MILLISECONDS)
+                .maximumWeight(embeddingCacheProperties.getMaxMemory().toBytes() >> WEIGHT_UNIT_SHIFT)
+                .weigher((String apiKey, EmbeddingCollection collection) -> weigh(collection))
+                .removalListener((String apiKey, EmbeddingCollection collection, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        log.info("Embeddings of {} are evicted from the cache ({})", apiKey, cause);
+                    }
+                })
+                .recordStats(() -> statsCounter)
+                .build();
+    }
 
     public EmbeddingCollection getOrLoad(final String apiKey) {
 
         var result = cache.getIfPresent(apiKey);
 
         if (result == null) {
-            result = embeddingService.doWithEnhancedEmbeddingProjectionStream(apiKey, EmbeddingCollection::from);
+            result = loadOnce(apiKey);
+        }
 
-            cache.put(apiKey, result);
+        return result;
+    }
 
-            notifyCacheEvent("UPDATE", apiKey);
+    /**
+     * Applies the change to the cached collection (if it is cached) and sends it to other nodes.
+     *
+     * @param consumer applies the change to the local collection
+     * @param delta    the same change, applied by other nodes to their collections
+     */
+    public void ifPresent(String apiKey, Consumer<EmbeddingCollection> consumer, EmbeddingDelta delta) {
+        // collections are changed through this method, it is not a request, so it is not counted as a hit or a miss
+        var cached = cache.asMap().get(apiKey);
+        if (cached == null) {
+            // load in progress could miss the change
+            abandonLoad(apiKey);
         }
 
-        return result;
+        // changes are applied and numbered at once, so that other nodes apply them in the same order as this one
+        var outbox = outboxes.computeIfAbsent(apiKey, key -> new Outbox());
+        synchronized (outbox) {
+            Optional.ofNullable(cached)
+                    .ifPresent(collection -> {
+                        consumer.accept(collection);
+                        updateWeight(apiKey, collection);
+                        compactIfNeeded(apiKey, collection);
+
+                        if (apiKey.equals(reloading)) {
+                            // reload in progress could miss the change and replace the changed collection
+                            scheduleReload(apiKey);
+                        }
+                    });
+
+            outbox.pending.add(toCacheAction(apiKey, delta, outbox));
+        }
+
+        // notifications are sent outside of the lock, in the order they are queued
+        send(outbox);
     }
 
-    public void ifPresent(String apiKey, Consumer<EmbeddingCollection> consumer) {
-        Optional.ofNullable(cache.getIfPresent(apiKey))
-                .ifPresent(consumer);
+    /**
+     * Returns index, attached to the collection. If it is not built yet, it is built in background (once), and
+     * {@code null} is returned, callers fall back to the exact scoring meanwhile. Memory of the built index is
+     * accounted as a part of the collection.
+     */
+    public <T extends EmbeddingIndex> T getIndex(final String apiKey, final EmbeddingCollection collection,
+                                                 final String name, final Function<EmbeddingSnapshot, T> factory) {
+        final T index = collection.getIndex(name);
+        if (index == null && collection.startIndexBuild(name)) {
+            indexBuilder.execute(() -> buildIndex(apiKey, collection, name, factory));
+        }
 
-        EmbeddingCollection dd = cache.getIfPresent(apiKey);
-        notifyCacheEvent("UPDATE", apiKey);
+        return index;
     }
 
     public void invalidate(final String apiKey) {
+        abandonLoad(apiKey);
         cache.invalidate(apiKey);
+        embeddingSnapshotStore.delete(apiKey);
         notifyCacheEvent("DELETE", apiKey);
     }
 
 
+    /**
+     * Loads collection into the local cache, if it is not there yet. Other nodes are not notified, nothing is changed.
+     */
+    public void preload(final String apiKey) {
+        if (!cache.asMap().containsKey(apiKey)) {
+            loadOnce(apiKey);
+        }
+    }
+
+    /**
+     * Reloads collection, changed on another node. If serving stale collections is enabled, the cached collection
+     * keeps being served while it is reloaded in background, and changes queued while it waits are reloaded once.
+     */
     public void receivePutOnCache(String apiKey) {
-        var result = embeddingService.doWithEnhancedEmbeddingProjectionStream(apiKey, EmbeddingCollection::from);
+        abandonLoad(apiKey);
+
+        if (embeddingCacheProperties.isServeStale() && cache.asMap().containsKey(apiKey)) {
+            scheduleReload(apiKey);
+
+            return;
+        }
+
+        var result = load(apiKey);
         cache.put(apiKey, result);
     }
 
+    @PreDestroy
+    void shutdown() {
+        reloader.shutdownNow();
+        compactor.shutdownNow();
+        indexBuilder.shutdownNow();
+    }
+
+    /**
+     * Applies the change, made on another node, to the cached collection. Changes of each node are numbered,
+     * if some of them are missed, the collection is reloaded instead.
+     */
+    public void receiveDelta(final CacheActionDto action) {
+        var apiKey = action.getApiKey();
+        var origin = action.getServerUUID() + "/" + apiKey;
+        var sequence = action.getSequence();
+        var previous = receivedSequences.get(origin);
+
+        if (previous != null && sequence <= previous) {
+            // sent before the change, which caused the reload, so it is already reloaded
+            return;
+        }
+        receivedSequences.put(origin, sequence);
+
+        var collection = cache.asMap().get(apiKey);
+        if (collection == null) {
+            // load in progress could miss the change
+            abandonLoad(apiKey);
+            return;
+        }
+
+        if (previous != null && sequence != previous + 1) {
+            log.warn("{} changes of {} are missed, the collection is reloaded", sequence - previous - 1, apiKey);
+            receivePutOnCache(apiKey);
+            return;
+        }
+
+        try {
+            applyDelta(apiKey, collection, EmbeddingDelta.of(
+                    action.getEmbeddingIds(),
+                    action.getRemovedSubjectName(),
+                    action.getOldSubjectName(),
+                    action.getNewSubjectName()
+            ));
+        } catch (RuntimeException e) {
+            log.error("Could not apply change of {}, the collection is invalidated", apiKey, e);
+            receiveInvalidateCache(apiKey);
+        }
+    }
+
+    private void applyDelta(final String apiKey, final EmbeddingCollection collection, final EmbeddingDelta delta) {
+        if (delta.getOldSubjectName() != null) {
+            collection.updateSubjectName(delta.getOldSubjectName(), delta.getNewSubjectName());
+        }
+        if (delta.getRemovedSubjectName() != null) {
+            collection.removeEmbeddingsBySubjectName(delta.getRemovedSubjectName());
+        }
+        if (!delta.getEmbeddingIds().isEmpty()) {
+            collection.refreshEmbeddings(
+                    delta.getEmbeddingIds(),
+                    embeddingService.getEnhancedEmbeddings(apiKey, delta.getEmbeddingIds())
+            );
+        }
+
+        updateWeight(apiKey, collection);
+        compactIfNeeded(apiKey, collection);
+        if (apiKey.equals(reloading)) {
+            scheduleReload(apiKey);
+        }
+    }
+
+    /**
+     * Loads collection, concurrent callers wait for the same load instead of loading it once again.
+     */
+    private EmbeddingCollection loadOnce(final String apiKey) {
+        var load = new CompletableFuture<EmbeddingCollection>();
+        var inProgress = loads.putIfAbsent(apiKey, load);
+        if (inProgress != null) {
+            return await(inProgress);
+        }
+
+        try {
+            var result = load(apiKey);
+            // load is abandoned if the collection was changed meanwhile, then the result is not cached
+            if (loads.remove(apiKey, load)) {
+                cache.put(apiKey, result);
+            }
+            load.complete(result);
+
+            return result;
+        } catch (RuntimeException e) {
+            loads.remove(apiKey, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void scheduleReload(final String apiKey) {
+        if (scheduledReloads.add(apiKey)) {
+            reloader.execute(() -> reload(apiKey));
+        }
+    }
+
+    private void reload(final String apiKey) {
+        // changes, received from now on, are reloaded once more
+        reloading = apiKey;
+        scheduledReloads.remove(apiKey);
+        try {
+            var result = load(apiKey);
+            // collection, invalidated meanwhile, is not cached again
+            cache.asMap().replace(apiKey, result);
+        } catch (RuntimeException e) {
+            log.error("Could not reload embeddings of {}, they are invalidated", apiKey, e);
+            cache.invalidate(apiKey);
+        } finally {
+            reloading = null;
+        }
+    }
+
+    /**
+     * Schedules compaction of the collection, if its dead rows exceed the configured threshold.
+     */
+    private void compactIfNeeded(final String apiKey, final EmbeddingCollection collection) {
+        var properties = embeddingCacheProperties.getCompaction();
+        var snapshot = collection.getSnapshot();
+        var deadRows = snapshot.rows() - snapshot.size();
+        if (deadRows < properties.getMinDeadRows() || snapshot.deadRatio() < properties.getDeadRatio()) {
+            return;
+        }
+
+        if (scheduledCompactions.add(apiKey)) {
+            compactor.execute(() -> compact(apiKey, collection));
+        }
+    }
+
+    private void compact(final String apiKey, final EmbeddingCollection collection) {
+        scheduledCompactions.remove(apiKey);
+        try {
+            if (collection.compact()) {
+                log.debug("Embeddings of {} are compacted, {} rows", apiKey, collection.getSnapshot().rows());
+                updateWeight(apiKey, collection);
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not compact embeddings of {}", apiKey, e);
+        }
+    }
+
+    private <T extends EmbeddingIndex> void buildIndex(final String apiKey, final EmbeddingCollection collection,
+                                                       final String name, final Function<EmbeddingSnapshot, T> factory) {
+        try {
+            collection.buildIndex(name, factory);
+            log.debug("Index {} of {} is built", name, apiKey);
+            updateWeight(apiKey, collection);
+        } catch (RuntimeException e) {
+            log.error("Could not build index {} of {}", name, apiKey, e);
+        }
+    }
+
+    private void abandonLoad(final String apiKey) {
+        loads.remove(apiKey);
+    }
+
+    private static EmbeddingCollection await(final CompletableFuture<EmbeddingCollection> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private EmbeddingCollection load(final String apiKey) {
+        final long start = System.nanoTime();
+        try {
+            final EmbeddingCollection collection = loadFromSnapshotOrDatabase(apiKey);
+            statsCounter.recordLoadSuccess(System.nanoTime() - start);
+
+            return collection;
+        } catch (RuntimeException e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private EmbeddingCollection loadFromSnapshotOrDatabase(final String apiKey) {
+        if (!embeddingSnapshotStore.isEnabled()) {
+            return loadFromDatabase(apiKey);
+        }
+
+        // taken before the load, changes made while loading are applied once more when the snapshot is caught up
+        var watermark = embeddingSnapshotStore.getWatermark();
+
+        return embeddingSnapshotStore.load(apiKey, watermark)
+                .orElseGet(() -> {
+                    var collection = loadFromDatabase(apiKey);
+                    embeddingSnapshotStore.persist(apiKey, collection.getSnapshot(), watermark);
+
+                    return collection;
+                });
+    }
+
+    private EmbeddingCollection loadFromDatabase(final String apiKey) {
+        var expectedSize = embeddingService.countEmbeddings(apiKey);
+
+        return embeddingService.doWithEnhancedEmbeddingProjectionStream(
+                apiKey,
+                stream -> EmbeddingCollection.from(
+                        stream,
+                        embeddingCacheProperties.getStorageType(),
+                        expectedSize,
+                        embeddingCacheProperties.isNormalize()
+                )
+        );
+    }
+
     public void receiveInvalidateCache(final String apiKey) {
+        abandonLoad(apiKey);
         cache.invalidate(apiKey);
     }
 
+    /**
+     * @return cache, for its statistics and eviction policy to be monitored
+     */
+    Cache<String, EmbeddingCollection> getCache() {
+        return cache;
+    }
+
+    /**
+     * Pending maintenance of the cache is run first, as the weighted size is updated only by it (asynchronously).
+     *
+     * @return estimated memory, occupied by the cached collections (as they were last written), in bytes
+     */
+    long getMemoryUsage() {
+        cache.cleanUp();
+        return cache.policy().eviction()
+                    .map(eviction -> eviction.weightedSize().orElse(0) << WEIGHT_UNIT_SHIFT)
+                    .orElse(0L);
+    }
+
+    /**
+     * Weight is calculated only when an entry is written, so the same collection is written once more
+     * (only if it is still cached) to account its changed size.
+     */
+    private void updateWeight(final String apiKey, final EmbeddingCollection collection) {
+        cache.asMap().replace(apiKey, collection, collection);
+    }
+
+    private static int weigh(final EmbeddingCollection collection) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, collection.estimateSize() >> WEIGHT_UNIT_SHIFT));
+    }
+
     private void notifyCacheEvent(String event, String apiKey) {
         CacheActionDto cacheActionDto = new CacheActionDto(event, apiKey, SERVER_UUID);
         notificationSenderService.notifyCacheChange(cacheActionDto);
     }
+
+    private static CacheActionDto toCacheAction(final String apiKey, final EmbeddingDelta delta, final Outbox outbox) {
+        if (delta.getEmbeddingIds().size() > MAX_DELTA_EMBEDDINGS) {
+            // notification payload is limited, the collection is reloaded by other nodes
+            return new CacheActionDto("UPDATE", apiKey, SERVER_UUID);
+        }
+
+        var cacheActionDto = new CacheActionDto("UPDATE", apiKey, SERVER_UUID);
+        cacheActionDto.setEmbeddingIds(delta.getEmbeddingIds().isEmpty() ? null : delta.getEmbeddingIds());
+        cacheActionDto.setRemovedSubjectName(delta.getRemovedSubjectName());
+        cacheActionDto.setOldSubjectName(delta.getOldSubjectName());
+        cacheActionDto.setNewSubjectName(delta.getNewSubjectName());
+
+        // changes are numbered in the order they are sent, so that receivers detect the missed ones
+        cacheActionDto.setSequence(++outbox.sequence);
+
+        return cacheActionDto;
+    }
+
+    /**
+     * Sends queued notifications, one thread at a time. Notifications, queued while another thread is sending,
+     * are sent by that thread.
+     */
+    private void send(final Outbox outbox) {
+        while (!outbox.pending.isEmpty() && outbox.sending.tryLock()) {
+            try {
+                CacheActionDto cacheActionDto;
+                while ((cacheActionDto = outbox.pending.poll()) != null) {
+                    notificationSenderService.notifyCacheChange(cacheActionDto);
+                }
+            } finally {
+                outbox.sending.unlock();
+            }
+        }
+    }
+
+    /**
+     * Notifications of the changes of a collection, in the order they are applied.
+     */
+    private static class Outbox {
+
+        // guarded by the outbox itself
+        private long sequence;
+        private final Queue<CacheActionDto> pending = new ConcurrentLinkedQueue<>();
+        private final Lock sending = new ReentrantLock();
+    }
 }
@@ -4,105 +4,297 @@ import com.exadel.frs.commonservice.entity.Embedding;
 import com.exadel.frs.commonservice.entity.EmbeddingProjection;
 import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
 import com.exadel.frs.commonservice.exception.IncorrectImageIdException;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.val;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class EmbeddingCollection {
 
-    private final BiMap<EmbeddingProjection, Integer> projection2Index;
-    private INDArray embeddings;
+    // readers' view of the collection, replaced (never modified) by writers
+    private volatile EmbeddingSnapshot snapshot;
+    // writers' lookups of rows by embedding id and by subject, maintained on each change, guarded by 'this'
+    private EmbeddingIdIndex embeddingId2Index;
+    private final Map<String, Integer> subjectIds = new HashMap<>();
+    private final List<SubjectRows> subjectRows = new ArrayList<>();
+    // indexes attached to the collection by name, read without the lock, replaced (never modified) under 'this'
+    private volatile Map<String, EmbeddingIndex> indexes = Map.of();
+    // indexes being built, each of them records the changes made after its snapshot was taken, guarded by 'this'
+    private final Map<String, IndexBuild> indexBuilds = new HashMap<>();
+    // compactions are not run concurrently, each of them copies rows of the snapshot it started with
+    private final Object compactionLock = new Object();
+    // rows are scaled to unit length when they are added
+    private final boolean normalized;
+
+    private static final int INITIAL_CAPACITY = 16;
+    // entries of the subject lookups, one per subject
+    private static final long SUBJECT_ENTRY_BYTES = 96;
+
+    private EmbeddingCollection(final EmbeddingSnapshot snapshot, final boolean normalized) {
+        this.snapshot = snapshot;
+        this.normalized = normalized;
+        buildLookups();
+    }
 
     public static EmbeddingCollection from(final Stream<EnhancedEmbeddingProjection> stream) {
-        val rawEmbeddings = new LinkedList<double[]>();
-        val projections2Index = new HashMap<EmbeddingProjection, Integer>();
-        val index = new AtomicInteger(); // just to bypass 'final' variables restriction inside lambdas
+        return from(stream, EmbeddingStorageType.DOUBLE, 0, false);
+    }
+
+    /**
+     * Fills the underlying matrix and metadata columns straight from the stream, without collecting rows into
+     * an intermediate list.
+     *
+     * @param stream       embeddings to put into the collection
+     * @param storageType  precision of the underlying (off-heap) matrix
+     * @param expectedSize expected number of rows, if it is correct the matrix is allocated only once
+     * @param normalized   whether rows are scaled to unit length (once, as they are added), see {@link #isNormalized()}
+     * @return collection with all the embeddings from the stream
+     */
+    public static EmbeddingCollection from(final Stream<EnhancedEmbeddingProjection> stream,
+                                           final EmbeddingStorageType storageType,
+                                           final int expectedSize,
+                                           final boolean normalized) {
+        val metadata = new EmbeddingMetadata.Builder(expectedSize);
+        val loader = new MatrixLoader(storageType.getDataType(), expectedSize);
 
         stream.forEach(projection -> {
-            projections2Index.put(EmbeddingProjection.from(projection), index.getAndIncrement());
-            rawEmbeddings.add(projection.getEmbeddingData());
+            metadata.append(projection.getEmbeddingId(), projection.getSubjectName());
+            loader.append(normalized ? normalize(projection.getEmbeddingData()) : projection.getEmbeddingData());
         });
 
-        return new EmbeddingCollection(
-                HashBiMap.create(projections2Index),
-                rawEmbeddings.isEmpty()
-                        ? Nd4j.empty()
-                        : Nd4j.create(rawEmbeddings.toArray(double[][]::new))
-        );
+        return new EmbeddingCollection(EmbeddingSnapshot.of(loader.toMatrix(), metadata.build()), normalized);
     }
 
+    /**
+     * NOTE: projections are built for each call, it is meant for diagnostics, not for the request path.
+     *
+     * @return index to projection map of the live rows
+     */
     public Map<Integer, EmbeddingProjection> getIndexMap() {
-        // returns index to projection map
-        return Collections.unmodifiableMap(projection2Index.inverse());
+        final EmbeddingSnapshot current = snapshot;
+        final Map<Integer, EmbeddingProjection> result = new HashMap<>();
+        for (final int row : current.liveRows()) {
+            result.put(row, current.getProjection(row));
+        }
+
+        return Collections.unmodifiableMap(result);
     }
 
+    /**
+     * NOTE: projections are built for each call, it is meant for diagnostics, not for the request path.
+     */
     public Set<EmbeddingProjection> getProjections() {
-        return Collections.unmodifiableSet(projection2Index.keySet());
+        return Set.copyOf(getIndexMap().values());
+    }
+
+    /**
+     * Returns current published version of the collection. It is safe to use it without any synchronization,
+     * snapshot is never modified, collection changes are visible only in snapshots returned afterwards.
+     *
+     * @return current immutable snapshot of the collection.
+     */
+    public EmbeddingSnapshot getSnapshot() {
+        return snapshot;
     }
 
-    private int getSize() {
-        // should be invoked only if underlying array is not empty!
-        return (int) embeddings.size(0);
+    /**
+     * Rows of normalized collection have unit length (except zero ones), so for a unit query the squared euclidean
+     * distance is {@code 2 - 2 * dot product}. Stored embeddings are normalized already, legacy ones are normalized
+     * while loaded.
+     *
+     * @return true if rows are scaled to unit length
+     */
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    /**
+     * @return approximate memory, occupied by the current snapshot, the writers' lookups and the attached indexes, in bytes
+     */
+    public synchronized long estimateSize() {
+        return snapshot.estimateSize()
+                + embeddingId2Index.estimateSize()
+                + subjectRows.stream().filter(Objects::nonNull).mapToLong(rows -> SUBJECT_ENTRY_BYTES + rows.estimateSize()).sum()
+                + indexes.values().stream().mapToLong(EmbeddingIndex::estimateSize).sum();
     }
 
     /**
-     * NOTE: current method returns COPY! Each time you invoke it, memory consumed, be careful!
+     * @return index, attached to the collection, or {@code null}, if it is not built yet
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends EmbeddingIndex> T getIndex(String name) {
+        return (T) indexes.get(name);
+    }
+
+    /**
+     * Takes the snapshot, the index is going to be built from, see {@link #buildIndex}. Changes of the collection,
+     * made from now on, are recorded, until they are applied to the built index.
      *
-     * @return copy of underlying embeddings array.
+     * @return false, if the index is attached or being built already
      */
-    public INDArray getEmbeddings() {
-        return embeddings.dup();
+    public synchronized boolean startIndexBuild(String name) {
+        if (indexes.containsKey(name) || indexBuilds.containsKey(name)) {
+            return false;
+        }
+
+        indexBuilds.put(name, new IndexBuild(snapshot));
+        return true;
     }
 
+    /**
+     * Builds index, started by {@link #startIndexBuild}, and attaches it. The index is built without the collection
+     * lock, so that readers and writers are not blocked by it; changes, made in the meantime, are applied to the index
+     * under the lock, before it is attached. Attached index receives all the changes of the collection, and is
+     * dropped together with the collection.
+     *
+     * @param name    unique name of the index
+     * @param factory builds index from the snapshot
+     * @return attached index
+     */
+    public <T extends EmbeddingIndex> T buildIndex(String name, Function<EmbeddingSnapshot, T> factory) {
+        final IndexBuild build;
+        synchronized (this) {
+            build = indexBuilds.get(name);
+        }
+        if (build == null) {
+            throw new IllegalStateException("Build of index " + name + " is not started");
+        }
+
+        final T index;
+        try {
+            index = factory.apply(build.base);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                indexBuilds.remove(name);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            indexBuilds.remove(name).changes.forEach(change -> change.accept(index));
+            final Map<String, EmbeddingIndex> attached = new HashMap<>(indexes);
+            attached.put(name, index);
+            indexes = Map.copyOf(attached);
+        }
+
+        return index;
+    }
+
+    /**
+     * Renames the subject by a single dictionary update. If the new name is already taken (subjects are merged),
+     * the rows are moved to the existing subject instead.
+     */
     public synchronized void updateSubjectName(String oldSubjectName, String newSubjectName) {
-        final List<EmbeddingProjection> projections = projection2Index.keySet()
-                .stream()
-                .filter(projection -> projection.getSubjectName().equals(oldSubjectName))
-                .collect(Collectors.toList());
-
-        projections.forEach(projection -> projection2Index.put(
-                projection.withNewSubjectName(newSubjectName),
-                projection2Index.remove(projection)
-        ));
+        final Integer subjectId = subjectIds.remove(oldSubjectName);
+        if (subjectId == null) {
+            return;
+        }
+
+        final int[] rows = subjectRows.get(subjectId).toArray();
+        final List<EmbeddingProjection> oldProjections = new ArrayList<>(rows.length);
+        for (final int row : rows) {
+            oldProjections.add(snapshot.getProjection(row));
+        }
+
+        final Integer targetId = subjectIds.get(newSubjectName);
+        if (targetId == null) {
+            subjectIds.put(newSubjectName, subjectId);
+            snapshot = snapshot.withSubjectName(subjectId, newSubjectName);
+        } else {
+            for (final int row : rows) {
+                subjectRows.get(targetId).add(row);
+            }
+            subjectRows.set(subjectId, null);
+            snapshot = snapshot.withSubjectId(rows, targetId);
+        }
+
+        if (!indexes.isEmpty() || !indexBuilds.isEmpty()) {
+            final EmbeddingSnapshot renamed = snapshot;
+            for (int i = 0; i < rows.length; i++) {
+                final int row = rows[i];
+                final EmbeddingProjection oldProjection = oldProjections.get(i);
+                final EmbeddingProjection newProjection = oldProjection.withNewSubjectName(newSubjectName);
+                applyToIndexes(embeddingIndex -> embeddingIndex.rename(row, oldProjection, newProjection, renamed));
+            }
+        }
     }
 
     public synchronized EmbeddingProjection addEmbedding(final Embedding embedding) {
         final var projection = EmbeddingProjection.from(embedding);
+        addEmbedding(projection, embedding.getEmbedding());
 
-        final INDArray array = Nd4j.create(new double[][]{embedding.getEmbedding()});
+        return projection;
+    }
 
-        embeddings = embeddings.isEmpty()
-                ? array
-                : Nd4j.concat(0, embeddings, array);
+    /**
+     * Replaces the given embeddings with their current state: all of them are removed, then the current ones
+     * (those which still exist) are added. Applying the same change twice does not change the result.
+     *
+     * @param embeddingIds added, changed or removed embeddings
+     * @param current      current state of the embeddings, which still exist
+     */
+    public synchronized void refreshEmbeddings(final Collection<UUID> embeddingIds,
+                                               final Collection<EnhancedEmbeddingProjection> current) {
+        new HashSet<>(embeddingIds).forEach(embeddingId -> {
+            final int row = embeddingId2Index.get(embeddingId);
+            if (row != EmbeddingIdIndex.NOT_FOUND) {
+                removeEmbedding(snapshot.getProjection(row));
+            }
+        });
+        current.forEach(projection -> addEmbedding(EmbeddingProjection.from(projection), projection.getEmbeddingData()));
+    }
 
-        projection2Index.put(
-                projection,
-                getSize() - 1
-        );
+    private void addEmbedding(final EmbeddingProjection projection, final double[] data) {
+        final double[] embedding = normalized ? normalize(data) : data;
+        Integer subjectId = subjectIds.get(projection.getSubjectName());
+        if (subjectId == null) {
+            subjectId = snapshot.subjectCount();
+            snapshot = snapshot.withSubject(projection.getSubjectName());
+            subjectIds.put(projection.getSubjectName(), subjectId);
+            subjectRows.add(null);
+        }
 
-        return projection;
+        snapshot = snapshot.withAppended(projection.getEmbeddingId(), subjectId, embedding);
+
+        final int row = snapshot.rows() - 1;
+        addLookups(row);
+        final EmbeddingSnapshot appended = snapshot;
+        applyToIndexes(embeddingIndex -> embeddingIndex.add(
+                row,
+                projection,
+                embedding,
+                appended
+        ));
     }
 
     public synchronized Collection<EmbeddingProjection> removeEmbeddingsBySubjectName(String subjectName) {
-        // not efficient at ALL! review current approach!
+        final Integer subjectId = subjectIds.remove(subjectName);
+        if (subjectId == null) {
+            return List.of();
+        }
 
-        final List<EmbeddingProjection> toRemove = projection2Index.keySet().stream()
-                .filter(projection -> projection.getSubjectName().equals(subjectName))
-                .collect(Collectors.toList());
+        // all rows are marked dead in a single snapshot
+        final int[] rows = subjectRows.set(subjectId, null).toArray();
+        final List<EmbeddingProjection> toRemove = new ArrayList<>(rows.length);
+        for (final int row : rows) {
+            final EmbeddingProjection projection = snapshot.getProjection(row);
+            embeddingId2Index.remove(projection.getEmbeddingId());
+            toRemove.add(projection);
+        }
 
-        toRemove.forEach(this::removeEmbedding); // <- rethink
+        snapshot = snapshot.withRemoved(rows);
+        final EmbeddingSnapshot removed = snapshot;
+        for (int i = 0; i < rows.length; i++) {
+            final int row = rows[i];
+            final EmbeddingProjection projection = toRemove.get(i);
+            applyToIndexes(embeddingIndex -> embeddingIndex.remove(row, projection, removed));
+        }
 
         return toRemove;
     }
@@ -112,54 +304,75 @@ public class EmbeddingCollection {
     }
 
     public synchronized EmbeddingProjection removeEmbedding(EmbeddingProjection projection) {
-        if (projection2Index.isEmpty()) {
+        final int index = embeddingId2Index.get(projection.getEmbeddingId());
+        if (index == EmbeddingIdIndex.NOT_FOUND || !snapshot.getSubjectName(index).equals(projection.getSubjectName())) {
             return null;
         }
+        removeLookups(index);
 
-        var index = projection2Index.remove(projection);
-
-        // remove embedding by concatenating sub lists [0, index) + [index + 1, size),
-        // thus size of resulting array is decreased by one
-        embeddings = Nd4j.concat(
-                0,
-                embeddings.get(NDArrayIndex.interval(0, index), NDArrayIndex.all()),
-                embeddings.get(NDArrayIndex.interval(index + 1, getSize()), NDArrayIndex.all())
-        );
-
-        // shifting (-1) all indexes, greater than current one
-        projection2Index.entrySet()
-                .stream()
-                .filter(entry -> entry.getValue() > index)
-                .sorted(Map.Entry.comparingByValue())
-                .forEach(e -> projection2Index.replace(e.getKey(), e.getValue(), e.getValue() - 1));
+        // row is only marked dead, other rows are not shifted, the space is reclaimed by compact()
+        snapshot = snapshot.withRemoved(index);
+        final EmbeddingSnapshot removed = snapshot;
+        applyToIndexes(embeddingIndex -> embeddingIndex.remove(index, projection, removed));
 
         return projection;
     }
 
+    /**
+     * Drops dead rows of the collection. Live rows are copied without the collection lock, so that readers and
+     * writers are not blocked by the copying; changes, made in the meantime, are applied to the copy under the lock.
+     *
+     * @return true if the collection was compacted
+     */
+    public boolean compact() {
+        synchronized (compactionLock) {
+            final EmbeddingSnapshot base = snapshot;
+            if (base.deadRatio() == 0) {
+                return false;
+            }
+
+            final int[] liveRows = base.liveRows();
+            final EmbeddingSnapshot copied = base.copyRows(liveRows);
+
+            synchronized (this) {
+                final EmbeddingSnapshot.Compacted compacted = snapshot.compact(copied, liveRows, base.rows());
+                final int[] rows = compacted.getRows();
+
+                // subject dictionary is re-encoded, so the lookups are rebuilt
+                snapshot = compacted.getSnapshot();
+                buildLookups();
+                final EmbeddingSnapshot compactedSnapshot = snapshot;
+                applyToIndexes(embeddingIndex -> embeddingIndex.compact(rows, compactedSnapshot));
+            }
+
+            return true;
+        }
+    }
+
     public synchronized Optional<INDArray> getRawEmbeddingById(UUID embeddingId) {
         return findByEmbeddingId(
                 embeddingId,
                 // return duplicated row
-                entry -> embeddings.getRow(entry.getValue(), true).dup()
+                index -> snapshot.getRow(index).dup().reshape(1, snapshot.columns())
         );
     }
 
     public synchronized Optional<String> getSubjectNameByEmbeddingId(UUID embeddingId) {
         return findByEmbeddingId(
                 embeddingId,
-                entry -> entry.getKey().getSubjectName()
+                index -> snapshot.getSubjectName(index)
         );
     }
 
-    private <T> Optional<T> findByEmbeddingId(UUID embeddingId, Function<Map.Entry<EmbeddingProjection, Integer>, T> func) {
+    private <T> Optional<T> findByEmbeddingId(UUID embeddingId, Function<Integer, T> func) {
         validImageId(embeddingId);
 
-        return Optional.ofNullable(projection2Index.entrySet()
-                .stream()
-                .filter(entry ->  embeddingId.equals(entry.getKey().getEmbeddingId()))
-                .findFirst()
-                .map(func)
-                .orElseThrow(IncorrectImageIdException::new));
+        final int index = embeddingId2Index.get(embeddingId);
+        if (index == EmbeddingIdIndex.NOT_FOUND) {
+            throw new IncorrectImageIdException();
+        }
+
+        return Optional.ofNullable(func.apply(index));
     }
 
     private void validImageId(UUID embeddingId) {
@@ -167,4 +380,195 @@ public class EmbeddingCollection {
             throw new IncorrectImageIdException();
         }
     }
+
+    /**
+     * Applies the change to the attached indexes, and records it for the ones being built. Called under 'this'.
+     */
+    private void applyToIndexes(final Consumer<EmbeddingIndex> change) {
+        indexes.values().forEach(change);
+        indexBuilds.values().forEach(build -> build.changes.add(change));
+    }
+
+    private void buildLookups() {
+        embeddingId2Index = new EmbeddingIdIndex(snapshot.size());
+        subjectIds.clear();
+        subjectRows.clear();
+        for (int subjectId = 0; subjectId < snapshot.subjectCount(); subjectId++) {
+            subjectRows.add(null);
+        }
+
+        for (final int row : snapshot.liveRows()) {
+            addLookups(row);
+        }
+    }
+
+    private void addLookups(final int row) {
+        final int subjectId = snapshot.getSubjectId(row);
+        final UUID embeddingId = snapshot.getEmbeddingId(row);
+        if (embeddingId != null) {
+            embeddingId2Index.put(embeddingId, row);
+        }
+        if (subjectRows.get(subjectId) == null) {
+            subjectIds.put(snapshot.getSubjectNameById(subjectId), subjectId);
+            subjectRows.set(subjectId, new SubjectRows());
+        }
+        subjectRows.get(subjectId).add(row);
+    }
+
+    private void removeLookups(final int row) {
+        final int subjectId = snapshot.getSubjectId(row);
+        final UUID embeddingId = snapshot.getEmbeddingId(row);
+        if (embeddingId != null) {
+            embeddingId2Index.remove(embeddingId);
+        }
+
+        final SubjectRows rows = subjectRows.get(subjectId);
+        if (rows.remove(row) && rows.isEmpty()) {
+            // name could be taken by another subject later, then it gets a new dictionary entry
+            subjectIds.remove(snapshot.getSubjectNameById(subjectId));
+            subjectRows.set(subjectId, null);
+        }
+    }
+
+    /**
+     * Index being built from the base snapshot, and the changes of the collection, made after it.
+     */
+    private static final class IndexBuild {
+
+        private final EmbeddingSnapshot base;
+        private final List<Consumer<EmbeddingIndex>> changes = new ArrayList<>();
+
+        private IndexBuild(final EmbeddingSnapshot base) {
+            this.base = base;
+        }
+    }
+
+    /**
+     * Rows of one subject, kept in a plain int array.
+     */
+    private static final class SubjectRows {
+
+        private int[] rows = new int[4];
+        private int size;
+
+        private void add(final int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        private boolean remove(final int row) {
+            for (int i = 0; i < size; i++) {
+                if (rows[i] == row) {
+                    rows[i] = rows[--size];
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(rows, size);
+        }
+
+        private long estimateSize() {
+            return (long) Integer.BYTES * rows.length;
+        }
+    }
+
+    // scales the embedding to unit length, a zero one is kept as it is
+    private static double[] normalize(final double[] embedding) {
+        double squaredNorm = 0;
+        for (val value : embedding) {
+            squaredNorm += value * value;
+        }
+        if (squaredNorm == 0) {
+            return embedding;
+        }
+
+        val norm = Math.sqrt(squaredNorm);
+        val result = new double[embedding.length];
+        for (int i = 0; i < embedding.length; i++) {
+            result[i] = embedding[i] / norm;
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes rows directly into a preallocated matrix of the requested precision and grows it (doubling) only if
+     * the expected size was not correct. Rows are copied in batches, not value by value.
+     */
+    private static final class MatrixLoader {
+
+        private static final int BATCH_SIZE = 1024;
+
+        private final DataType dataType;
+        private final int expectedSize;
+        private final double[][] batch = new double[BATCH_SIZE][];
+        private int batchSize;
+        private INDArray buffer;
+        private int size;
+
+        private MatrixLoader(final DataType dataType, final int expectedSize) {
+            this.dataType = dataType;
+            this.expectedSize = expectedSize;
+        }
+
+        private void append(final double[] row) {
+            batch[batchSize++] = row;
+            if (batchSize == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (batchSize == 0) {
+                return;
+            }
+
+            val rows = batchSize == BATCH_SIZE ? batch : Arrays.copyOf(batch, batchSize);
+            if (buffer == null) {
+                buffer = Nd4j.create(dataType, Math.max(Math.max(expectedSize, INITIAL_CAPACITY), batchSize), rows[0].length);
+            }
+            while (size + batchSize > buffer.rows()) {
+                grow();
+            }
+
+            buffer.get(NDArrayIndex.interval(size, size + batchSize), NDArrayIndex.all())
+                  .assign(Nd4j.create(rows).castTo(dataType));
+            size += batchSize;
+
+            Arrays.fill(batch, null);
+            batchSize = 0;
+        }
+
+        private void grow() {
+            val grown = Nd4j.create(dataType, buffer.rows() * 2L, buffer.columns());
+            val filled = NDArrayIndex.interval(0, size);
+            grown.get(filled, NDArrayIndex.all()).assign(buffer.get(filled, NDArrayIndex.all()));
+            buffer = grown;
+        }
+
+        private INDArray toMatrix() {
+            flush();
+
+            if (buffer == null) {
+                return Nd4j.empty(dataType);
+            }
+
+            if (size == buffer.rows()) {
+                return buffer;
+            }
+
+            // cut off unused capacity, cached matrix should not hold more memory than required
+            return buffer.get(NDArrayIndex.interval(0, size), NDArrayIndex.all()).dup();
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Change of a collection, sent to other nodes, so that they apply it to their cached collections instead of
+ * reloading them. Only identifiers are sent, embeddings are read by the receivers from the database.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class EmbeddingDelta {
+
+    /**
+     * Added or removed embeddings, receivers replace them with their current state in the database.
+     */
+    List<UUID> embeddingIds;
+
+    String removedSubjectName;
+
+    String oldSubjectName;
+
+    String newSubjectName;
+
+    public static EmbeddingDelta embeddings(final Collection<UUID> embeddingIds) {
+        return new EmbeddingDelta(List.copyOf(embeddingIds), null, null, null);
+    }
+
+    public static EmbeddingDelta subjectRemoved(final String subjectName) {
+        return new EmbeddingDelta(List.of(), subjectName, null, null);
+    }
+
+    public static EmbeddingDelta subjectRenamed(final String oldSubjectName, final String newSubjectName) {
+        return new EmbeddingDelta(List.of(), null, oldSubjectName, newSubjectName);
+    }
+
+    static EmbeddingDelta of(final List<UUID> embeddingIds, final String removedSubjectName,
+                             final String oldSubjectName, final String newSubjectName) {
+        return new EmbeddingDelta(
+                embeddingIds == null ? List.of() : List.copyOf(embeddingIds),
+                removedSubjectName,
+                oldSubjectName,
+                newSubjectName
+        );
+    }
+}
@@ -0,0 +1,149 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import lombok.val;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Hash map of embedding ids to rows of the collection. It is an open addressing (linear probing) table, ids are kept
+ * as pairs of longs and rows as ints, so there is no object per entry. Not thread safe.
+ */
+final class EmbeddingIdIndex {
+
+    static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int FREE = -1;
+
+    private long[] idsHigh;
+    private long[] idsLow;
+    private int[] rows;
+    private int mask;
+    private int size;
+
+    EmbeddingIdIndex(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate memory, occupied by the table, in bytes
+     */
+    long estimateSize() {
+        return (long) rows.length * (2 * Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * @return row of the embedding, or {@link #NOT_FOUND}
+     */
+    int get(final UUID embeddingId) {
+        val idHigh = embeddingId.getMostSignificantBits();
+        val idLow = embeddingId.getLeastSignificantBits();
+
+        for (int slot = slot(idHigh, idLow); rows[slot] != FREE; slot = (slot + 1) & mask) {
+            if (idsHigh[slot] == idHigh && idsLow[slot] == idLow) {
+                return rows[slot];
+            }
+        }
+
+        return NOT_FOUND;
+    }
+
+    void put(final UUID embeddingId, final int row) {
+        if ((size + 1) * 4L > rows.length * 3L) {
+            rehash(rows.length * 2);
+        }
+
+        insert(embeddingId.getMostSignificantBits(), embeddingId.getLeastSignificantBits(), row);
+    }
+
+    /**
+     * @return row of the removed embedding, or {@link #NOT_FOUND}
+     */
+    int remove(final UUID embeddingId) {
+        val idHigh = embeddingId.getMostSignificantBits();
+        val idLow = embeddingId.getLeastSignificantBits();
+
+        int slot = slot(idHigh, idLow);
+        while (rows[slot] != FREE && (idsHigh[slot] != idHigh || idsLow[slot] != idLow)) {
+            slot = (slot + 1) & mask;
+        }
+        if (rows[slot] == FREE) {
+            return NOT_FOUND;
+        }
+
+        val row = rows[slot];
+        size--;
+
+        // backward shift deletion, entries after the removed one are moved closer to their home slots
+        int gap = slot;
+        for (int next = (gap + 1) & mask; rows[next] != FREE; next = (next + 1) & mask) {
+            val home = slot(idsHigh[next], idsLow[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                idsHigh[gap] = idsHigh[next];
+                idsLow[gap] = idsLow[next];
+                rows[gap] = rows[next];
+                gap = next;
+            }
+        }
+        rows[gap] = FREE;
+
+        return row;
+    }
+
+    private void insert(final long idHigh, final long idLow, final int row) {
+        int slot = slot(idHigh, idLow);
+        while (rows[slot] != FREE) {
+            if (idsHigh[slot] == idHigh && idsLow[slot] == idLow) {
+                rows[slot] = row;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        idsHigh[slot] = idHigh;
+        idsLow[slot] = idLow;
+        rows[slot] = row;
+        size++;
+    }
+
+    private void rehash(final int capacity) {
+        val oldHigh = idsHigh;
+        val oldLow = idsLow;
+        val oldRows = rows;
+
+        allocate(capacity);
+        for (int slot = 0; slot < oldRows.length; slot++) {
+            if (oldRows[slot] != FREE) {
+                insert(oldHigh[slot], oldLow[slot], oldRows[slot]);
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        idsHigh = new long[capacity];
+        idsLow = new long[capacity];
+        rows = new int[capacity];
+        Arrays.fill(rows, FREE);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int slot(final long idHigh, final long idLow) {
+        // random UUIDs are well distributed, mixing makes sequential ones distributed as well
+        long hash = (idHigh ^ idLow) * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        // load factor is kept below 3/4
+        val required = Math.max(INITIAL_CAPACITY, (int) Math.min(1 << 30, expectedSize * 4L / 3 + 1));
+
+        return Integer.highestOneBit(required - 1) << 1;
+    }
+}
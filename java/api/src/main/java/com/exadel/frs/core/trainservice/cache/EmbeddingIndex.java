@@ -0,0 +1,44 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+
+/**
+ * Additional index (e.g. approximate nearest neighbours graph), attached to {@link EmbeddingCollection}.
+ * Collection writers apply each change to all attached indexes, under the collection lock, right after the new
+ * snapshot is published. Each change comes with the row of the embedding and the snapshot it belongs to, so that
+ * indexes, referencing rows of the collection, stay consistent with the snapshot they read rows from. Changes, made
+ * while an index is being built, are applied to it in the same order, before it is attached.
+ */
+public interface EmbeddingIndex {
+
+    /**
+     * @param row      row of the added embedding in the given snapshot
+     * @param snapshot snapshot, containing the added embedding
+     */
+    void add(int row, EmbeddingProjection projection, double[] embedding, EmbeddingSnapshot snapshot);
+
+    /**
+     * @param row      row of the removed embedding, it is marked dead in the given snapshot, other rows are not shifted
+     * @param snapshot snapshot with the removed embedding marked dead
+     */
+    void remove(int row, EmbeddingProjection projection, EmbeddingSnapshot snapshot);
+
+    /**
+     * @param row      row of the renamed embedding, it is not changed
+     * @param snapshot snapshot, containing the new projection
+     */
+    void rename(int row, EmbeddingProjection oldProjection, EmbeddingProjection newProjection, EmbeddingSnapshot snapshot);
+
+    /**
+     * Dead rows are dropped from the collection, live rows are moved.
+     *
+     * @param rows     new row of each row of the previous snapshot, -1 for the dropped ones
+     * @param snapshot compacted snapshot
+     */
+    void compact(int[] rows, EmbeddingSnapshot snapshot);
+
+    /**
+     * @return approximate memory, occupied by the index, in bytes, it is accounted as a part of the cached collection
+     */
+    long estimateSize();
+}
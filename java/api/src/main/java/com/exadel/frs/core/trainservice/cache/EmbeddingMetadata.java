@@ -0,0 +1,205 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Metadata of the rows of {@link EmbeddingSnapshot}, stored column-wise: embedding ids are kept as two long columns,
+ * subject names are dictionary encoded, each row keeps only the id of its subject name. So there are no per-row
+ * objects, and renaming a subject changes only its dictionary entry.
+ * <p>
+ * Like the snapshot, it is immutable. Columns (and the dictionary) have spare capacity, appended values are written
+ * after the ones visible to this instance, so an append costs amortized O(1).
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+final class EmbeddingMetadata {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // both halves of the id of an embedding, which is not saved yet, the nil UUID is never generated
+    private static final long NO_ID = 0;
+    // dictionary entry, names are shared by all the rows of the subject
+    private static final long SUBJECT_BYTES = 64;
+
+    private final long[] idsHigh;
+    private final long[] idsLow;
+    private final int[] subjectIds;
+    private final int rows;
+
+    private final String[] subjectNames;
+    private final int subjectCount;
+
+    static EmbeddingMetadata empty() {
+        return new EmbeddingMetadata(new long[0], new long[0], new int[0], 0, new String[0], 0);
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    int subjectCount() {
+        return subjectCount;
+    }
+
+    /**
+     * @return id of the row, or {@code null}, if the embedding was added before it got an id
+     */
+    UUID getEmbeddingId(final int row) {
+        if (idsHigh[row] == NO_ID && idsLow[row] == NO_ID) {
+            return null;
+        }
+        return new UUID(idsHigh[row], idsLow[row]);
+    }
+
+    int getSubjectId(final int row) {
+        return subjectIds[row];
+    }
+
+    String getSubjectName(final int row) {
+        return subjectNames[subjectIds[row]];
+    }
+
+    String getSubjectNameById(final int subjectId) {
+        return subjectNames[subjectId];
+    }
+
+    /**
+     * @return approximate heap memory, occupied by the columns (including spare capacity) and the dictionary, in bytes
+     */
+    long estimateSize() {
+        return (long) idsHigh.length * (2 * Long.BYTES + Integer.BYTES) + (long) subjectNames.length * SUBJECT_BYTES;
+    }
+
+    /**
+     * Writes the row after the rows of this instance, see {@link EmbeddingSnapshot#withAppended}.
+     */
+    EmbeddingMetadata withAppended(final UUID embeddingId, final int subjectId) {
+        var idsHigh = this.idsHigh;
+        var idsLow = this.idsLow;
+        var subjectIds = this.subjectIds;
+        if (rows == idsHigh.length) {
+            val capacity = Math.max(rows * 2, INITIAL_CAPACITY);
+            idsHigh = Arrays.copyOf(idsHigh, capacity);
+            idsLow = Arrays.copyOf(idsLow, capacity);
+            subjectIds = Arrays.copyOf(subjectIds, capacity);
+        }
+
+        idsHigh[rows] = embeddingId == null ? NO_ID : embeddingId.getMostSignificantBits();
+        idsLow[rows] = embeddingId == null ? NO_ID : embeddingId.getLeastSignificantBits();
+        subjectIds[rows] = subjectId;
+
+        return new EmbeddingMetadata(idsHigh, idsLow, subjectIds, rows + 1, subjectNames, subjectCount);
+    }
+
+    /**
+     * Adds the name to the dictionary, its id is the {@link #subjectCount()} of this instance.
+     */
+    EmbeddingMetadata withSubject(final String subjectName) {
+        var subjectNames = this.subjectNames;
+        if (subjectCount == subjectNames.length) {
+            subjectNames = Arrays.copyOf(subjectNames, Math.max(subjectCount * 2, INITIAL_CAPACITY));
+        }
+        subjectNames[subjectCount] = subjectName;
+
+        return new EmbeddingMetadata(idsHigh, idsLow, subjectIds, rows, subjectNames, subjectCount + 1);
+    }
+
+    /**
+     * Renames the subject for all its rows at once, only the dictionary is copied.
+     */
+    EmbeddingMetadata withSubjectName(final int subjectId, final String subjectName) {
+        val subjectNames = Arrays.copyOf(this.subjectNames, subjectCount);
+        subjectNames[subjectId] = subjectName;
+
+        return new EmbeddingMetadata(idsHigh, idsLow, subjectIds, rows, subjectNames, subjectCount);
+    }
+
+    /**
+     * Moves the rows to another subject (e.g. subjects are merged), the subject column is copied with its spare
+     * capacity, as the other columns keep theirs and {@link #withAppended} relies on all of them having the same length.
+     */
+    EmbeddingMetadata withSubjectId(final int[] rows, final int subjectId) {
+        val subjectIds = Arrays.copyOf(this.subjectIds, this.subjectIds.length);
+        for (val row : rows) {
+            subjectIds[row] = subjectId;
+        }
+
+        return new EmbeddingMetadata(idsHigh, idsLow, subjectIds, this.rows, subjectNames, subjectCount);
+    }
+
+    /**
+     * @param rows rows to keep, in their new order
+     * @return metadata of the given rows, dictionary keeps only their subjects
+     */
+    EmbeddingMetadata select(final int[] rows) {
+        val builder = new Builder(rows.length);
+        for (val row : rows) {
+            builder.append(idsHigh[row], idsLow[row], getSubjectName(row));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Fills the columns of a new instance, the dictionary is built along the way.
+     */
+    static final class Builder {
+
+        private final HashMap<String, Integer> subjectIds = new HashMap<>();
+        private long[] idsHigh;
+        private long[] idsLow;
+        private int[] rowSubjects;
+        private String[] subjectNames = new String[INITIAL_CAPACITY];
+        private int rows;
+
+        Builder(final int expectedSize) {
+            val capacity = Math.max(expectedSize, INITIAL_CAPACITY);
+            idsHigh = new long[capacity];
+            idsLow = new long[capacity];
+            rowSubjects = new int[capacity];
+        }
+
+        int rows() {
+            return rows;
+        }
+
+        void append(final UUID embeddingId, final String subjectName) {
+            if (embeddingId == null) {
+                append(NO_ID, NO_ID, subjectName);
+            } else {
+                append(embeddingId.getMostSignificantBits(), embeddingId.getLeastSignificantBits(), subjectName);
+            }
+        }
+
+        void append(final long idHigh, final long idLow, final String subjectName) {
+            if (rows == idsHigh.length) {
+                idsHigh = Arrays.copyOf(idsHigh, rows * 2);
+                idsLow = Arrays.copyOf(idsLow, rows * 2);
+                rowSubjects = Arrays.copyOf(rowSubjects, rows * 2);
+            }
+
+            Integer subjectId = subjectIds.get(subjectName);
+            if (subjectId == null) {
+                subjectId = subjectIds.size();
+                subjectIds.put(subjectName, subjectId);
+                if (subjectId == subjectNames.length) {
+                    subjectNames = Arrays.copyOf(subjectNames, subjectId * 2);
+                }
+                subjectNames[subjectId] = subjectName;
+            }
+
+            idsHigh[rows] = idHigh;
+            idsLow[rows] = idLow;
+            rowSubjects[rows] = subjectId;
+            rows++;
+        }
+
+        EmbeddingMetadata build() {
+            return new EmbeddingMetadata(idsHigh, idsLow, rowSubjects, rows, subjectNames, subjectIds.size());
+        }
+    }
+}
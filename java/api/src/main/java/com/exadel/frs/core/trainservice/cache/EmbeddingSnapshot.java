@@ -0,0 +1,396 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.val;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable version of {@link EmbeddingCollection} content. Readers score against it without any locking or copying,
+ * writers never modify published snapshot, they publish a new one instead (copy-on-write).
+ * <p>
+ * Embeddings are kept in segments, so that appending a row never copies the rows already stored. The last segment
+ * (and the metadata columns) have spare capacity, appended rows are written there, after the rows visible to
+ * the snapshot, so the readers of the snapshot do not see them. Once the capacity is exhausted, a new segment
+ * is allocated (metadata columns are doubled), so an append costs amortized O(1).
+ * <p>
+ * Removed rows are not cut out of the segments, they are marked dead (tombstones) and skipped by readers,
+ * until the collection is compacted. So {@link #size()} (live rows) could be less than {@link #rows()}.
+ * <p>
+ * NOTE: underlying arrays are shared between all readers, they MUST NOT be modified in place!
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class EmbeddingSnapshot {
+
+    // appended segments grow from the initial capacity up to the maximal one, then all of them are of maximal capacity
+    private static final int INITIAL_SEGMENT_ROWS = 16;
+    private static final int MAX_SEGMENT_ROWS = 4096;
+
+    private final DataType dataType;
+
+    // embeddings, row index corresponds to the row of metadata, the last segment could have spare capacity
+    private final INDArray[] segments;
+
+    // squared L2 norm of each row of the segments, precomputed once per row
+    private final INDArray[] segmentNorms;
+
+    // first row of each segment
+    private final int[] offsets;
+
+    // metadata of dead rows is kept, so that removal does not copy it
+    private final EmbeddingMetadata metadata;
+
+    // number of rows, visible to this snapshot
+    private final int rows;
+
+    // dead rows, never modified after the snapshot is created
+    private final BitSet dead;
+    private final int deadCount;
+
+    static EmbeddingSnapshot of(final INDArray embeddings, final EmbeddingMetadata metadata) {
+        return of(embeddings, squaredNorms(embeddings), metadata);
+    }
+
+    static EmbeddingSnapshot of(final INDArray embeddings, final INDArray squaredNorms, final EmbeddingMetadata metadata) {
+        if (metadata.rows() == 0) {
+            return new EmbeddingSnapshot(embeddings.dataType(), new INDArray[0], new INDArray[0], new int[0], metadata, 0, new BitSet(), 0);
+        }
+
+        return new EmbeddingSnapshot(
+                embeddings.dataType(),
+                new INDArray[]{embeddings},
+                new INDArray[]{squaredNorms},
+                new int[]{0},
+                metadata,
+                metadata.rows(),
+                new BitSet(),
+                0
+        );
+    }
+
+    /**
+     * @return number of live (not removed) rows
+     */
+    public int size() {
+        return rows - deadCount;
+    }
+
+    /**
+     * @return number of rows of the segments, including dead ones
+     */
+    public int rows() {
+        return rows;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isLive(final int row) {
+        return !dead.get(row);
+    }
+
+    public IntStream deadRows() {
+        return dead.stream();
+    }
+
+    public int[] liveRows() {
+        return IntStream.range(0, rows).filter(this::isLive).toArray();
+    }
+
+    /**
+     * @return share of dead rows, the space of which could be reclaimed by compaction
+     */
+    public double deadRatio() {
+        return rows == 0 ? 0 : (double) deadCount / rows;
+    }
+
+    public DataType dataType() {
+        return dataType;
+    }
+
+    public long columns() {
+        return segments.length == 0 ? 0 : segments[0].columns();
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return first row of the segment
+     */
+    public int segmentOffset(final int segment) {
+        return offsets[segment];
+    }
+
+    /**
+     * NOTE: returned array is shared with all readers, it MUST NOT be modified in place!
+     *
+     * @return rows of the segment, visible to this snapshot
+     */
+    public INDArray getSegment(final int segment) {
+        return visible(segments[segment], segment);
+    }
+
+    /**
+     * @return squared L2 norms of the rows of the segment, visible to this snapshot
+     */
+    public INDArray getSegmentNorms(final int segment) {
+        return visible(segmentNorms[segment], segment);
+    }
+
+    /**
+     * NOTE: returned vector is a view of the shared array, it MUST NOT be modified in place!
+     */
+    public INDArray getRow(final int row) {
+        val segment = segmentOf(row);
+
+        return segments[segment].getRow(row - offsets[segment]);
+    }
+
+    /**
+     * Gathers the rows into a new matrix, consecutive rows of the same segment are copied at once.
+     */
+    public INDArray getRows(final int[] rows) {
+        if (segments.length == 1) {
+            return segments[0].getRows(rows);
+        }
+
+        val result = Nd4j.create(dataType, rows.length, columns());
+        int from = 0;
+        while (from < rows.length) {
+            val segment = segmentOf(rows[from]);
+            val end = offsets[segment] + segments[segment].rows();
+            int to = from + 1;
+            while (to < rows.length && rows[to] >= offsets[segment] && rows[to] < end) {
+                to++;
+            }
+
+            val local = new int[to - from];
+            for (int i = from; i < to; i++) {
+                local[i - from] = rows[i] - offsets[segment];
+            }
+            result.get(NDArrayIndex.interval(from, to), NDArrayIndex.all()).assign(segments[segment].getRows(local));
+            from = to;
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds projection of the row, readers, which need only the subject name, should use {@link #getSubjectName}.
+     *
+     * @return projection of the row, projection of a dead row is the one it had when it was removed
+     */
+    public EmbeddingProjection getProjection(final int index) {
+        return new EmbeddingProjection(metadata.getEmbeddingId(index), metadata.getSubjectName(index));
+    }
+
+    public UUID getEmbeddingId(final int index) {
+        return metadata.getEmbeddingId(index);
+    }
+
+    public String getSubjectName(final int index) {
+        return metadata.getSubjectName(index);
+    }
+
+    /**
+     * @return approximate memory, occupied by the (off-heap) segments and the (on-heap) metadata,
+     * including spare capacity, in bytes
+     */
+    public long estimateSize() {
+        long elements = 0;
+        for (int i = 0; i < segments.length; i++) {
+            elements += segments[i].length() + segmentNorms[i].length();
+        }
+
+        return elements * dataType.width() + metadata.estimateSize();
+    }
+
+    /**
+     * Writes the row after the rows of this snapshot. It is called only for the current snapshot of the collection,
+     * under its lock, so the spare capacity is never written by two snapshots.
+     */
+    EmbeddingSnapshot withAppended(final UUID embeddingId, final int subjectId, final double[] embedding) {
+        val row = Nd4j.create(embedding).castTo(dataType);
+        val norm = row.norm2Number().doubleValue();
+        val metadata = this.metadata.withAppended(embeddingId, subjectId);
+
+        var segments = this.segments;
+        var segmentNorms = this.segmentNorms;
+        var offsets = this.offsets;
+        val last = segments.length - 1;
+        if (last < 0 || offsets[last] + segments[last].rows() == rows) {
+            // no spare capacity, new segment is allocated, stored rows are not copied
+            val capacity = Math.min(Math.max(rows, INITIAL_SEGMENT_ROWS), MAX_SEGMENT_ROWS);
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            segmentNorms = Arrays.copyOf(segmentNorms, segmentNorms.length + 1);
+            offsets = Arrays.copyOf(offsets, offsets.length + 1);
+            segments[last + 1] = Nd4j.create(dataType, capacity, row.length());
+            segmentNorms[last + 1] = Nd4j.create(dataType, capacity);
+            offsets[last + 1] = rows;
+        }
+
+        val segment = segments.length - 1;
+        segments[segment].putRow(rows - offsets[segment], row);
+        segmentNorms[segment].putScalar(rows - offsets[segment], norm * norm);
+
+        // appended row is live, so the dead rows are shared
+        return new EmbeddingSnapshot(dataType, segments, segmentNorms, offsets, metadata, rows + 1, dead, deadCount);
+    }
+
+    /**
+     * Marks the rows dead, segments and metadata are shared with this snapshot, only the dead rows are copied.
+     */
+    EmbeddingSnapshot withRemoved(final int... rows) {
+        val dead = (BitSet) this.dead.clone();
+        for (val row : rows) {
+            dead.set(row);
+        }
+
+        return new EmbeddingSnapshot(dataType, segments, segmentNorms, offsets, metadata, this.rows, dead, dead.cardinality());
+    }
+
+    int subjectCount() {
+        return metadata.subjectCount();
+    }
+
+    int getSubjectId(final int index) {
+        return metadata.getSubjectId(index);
+    }
+
+    String getSubjectNameById(final int subjectId) {
+        return metadata.getSubjectNameById(subjectId);
+    }
+
+    /**
+     * Adds the subject name to the dictionary, its id is the {@link #subjectCount()} of this snapshot.
+     */
+    EmbeddingSnapshot withSubject(final String subjectName) {
+        return withMetadata(metadata.withSubject(subjectName));
+    }
+
+    EmbeddingSnapshot withSubjectName(final int subjectId, final String subjectName) {
+        return withMetadata(metadata.withSubjectName(subjectId, subjectName));
+    }
+
+    EmbeddingSnapshot withSubjectId(final int[] rows, final int subjectId) {
+        return withMetadata(metadata.withSubjectId(rows, subjectId));
+    }
+
+    private EmbeddingSnapshot withMetadata(final EmbeddingMetadata metadata) {
+        return new EmbeddingSnapshot(dataType, segments, segmentNorms, offsets, metadata, rows, dead, deadCount);
+    }
+
+    /**
+     * Copies the given rows into a single segment, it is the expensive part of the compaction, so it is made
+     * without the collection lock.
+     */
+    EmbeddingSnapshot copyRows(final int[] rows) {
+        if (rows.length == 0) {
+            return of(Nd4j.empty(dataType), EmbeddingMetadata.empty());
+        }
+
+        return of(getRows(rows), metadata.select(rows));
+    }
+
+    /**
+     * Builds compacted version of this snapshot out of the rows, copied from the snapshot this one was derived from.
+     *
+     * @param copied     rows of the base snapshot, see {@link #copyRows(int[])}
+     * @param copiedRows rows of the base snapshot, which were copied
+     * @param baseRows   number of rows of the base snapshot, rows after it were appended since then
+     * @return compacted snapshot and the new row of each row of this snapshot (-1 for the dropped ones)
+     */
+    Compacted compact(final EmbeddingSnapshot copied, final int[] copiedRows, final int baseRows) {
+        val mapping = new int[rows];
+        Arrays.fill(mapping, -1);
+        for (int i = 0; i < copiedRows.length; i++) {
+            mapping[copiedRows[i]] = i;
+        }
+
+        // rows, appended since the base snapshot, are copied now, there are only a few of them
+        val appended = IntStream.range(baseRows, rows).filter(this::isLive).toArray();
+        for (int i = 0; i < appended.length; i++) {
+            mapping[appended[i]] = copiedRows.length + i;
+        }
+
+        val order = new int[copiedRows.length + appended.length];
+        val dead = new BitSet();
+        for (int row = 0; row < rows; row++) {
+            if (mapping[row] >= 0) {
+                order[mapping[row]] = row;
+                if (!isLive(row)) {
+                    // removed since the base snapshot
+                    dead.set(mapping[row]);
+                }
+            }
+        }
+
+        var segments = copied.segments;
+        var segmentNorms = copied.segmentNorms;
+        var offsets = copied.offsets;
+        if (appended.length > 0) {
+            val appendedEmbeddings = getRows(appended);
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            segmentNorms = Arrays.copyOf(segmentNorms, segmentNorms.length + 1);
+            offsets = Arrays.copyOf(offsets, offsets.length + 1);
+            segments[segments.length - 1] = appendedEmbeddings;
+            segmentNorms[segmentNorms.length - 1] = squaredNorms(appendedEmbeddings);
+            offsets[offsets.length - 1] = copiedRows.length;
+        }
+
+        // metadata of this snapshot is the current one (e.g. renamed since the base snapshot)
+        return new Compacted(
+                new EmbeddingSnapshot(dataType, segments, segmentNorms, offsets, metadata.select(order), order.length, dead, dead.cardinality()),
+                mapping
+        );
+    }
+
+    private int segmentOf(final int row) {
+        val found = Arrays.binarySearch(offsets, row);
+
+        return found >= 0 ? found : -found - 2;
+    }
+
+    private INDArray visible(final INDArray array, final int segment) {
+        val visibleRows = Math.min(rows - offsets[segment], array.size(0));
+        if (visibleRows == array.size(0)) {
+            return array;
+        }
+
+        return array.rank() > 1
+                ? array.get(NDArrayIndex.interval(0, visibleRows), NDArrayIndex.all())
+                : array.get(NDArrayIndex.interval(0, visibleRows));
+    }
+
+    private static INDArray squaredNorms(final INDArray embeddings) {
+        if (embeddings.isEmpty()) {
+            return Nd4j.empty(embeddings.dataType());
+        }
+
+        val norms = embeddings.norm2(1);
+
+        return norms.muli(norms);
+    }
+
+    @Value
+    static class Compacted {
+
+        EmbeddingSnapshot snapshot;
+
+        // new row of each row of the compacted snapshot, -1 for dropped rows
+        int[] rows;
+    }
+}
@@ -0,0 +1,211 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.service.EmbeddingChangeService;
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Persists cached collections on disk, one {@link PersistedEmbeddings} file per api key, so that after restart they are
+ * read from disk and only the changes, made after the snapshot watermark, are read from the database.
+ * Changes are recorded by database triggers, see {@link EmbeddingChangeService}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmbeddingSnapshotStore {
+
+    private static final String FILE_EXTENSION = ".snapshot";
+    private static final Pattern API_KEY_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final EmbeddingChangeService embeddingChangeService;
+    private final EmbeddingCacheProperties embeddingCacheProperties;
+
+    // snapshots are written in background, one by one
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        val thread = new Thread(runnable, "embedding-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public boolean isEnabled() {
+        return embeddingCacheProperties.getSnapshot().isEnabled();
+    }
+
+    /**
+     * @return current moment by the database clock, to be passed to {@link #load} and {@link #persist}
+     */
+    public LocalDateTime getWatermark() {
+        return embeddingChangeService.getCurrentTime();
+    }
+
+    /**
+     * Reads persisted collection and applies the changes, made after the snapshot was taken.
+     *
+     * @param watermark moment, the load started at
+     * @return caught up collection, or empty if there is no usable snapshot
+     */
+    public Optional<EmbeddingCollection> load(final String apiKey, final LocalDateTime watermark) {
+        val path = getPath(apiKey);
+        if (path.isEmpty() || !Files.exists(path.get())) {
+            return Optional.empty();
+        }
+
+        try {
+            val persisted = PersistedEmbeddings.open(path.get());
+            val properties = embeddingCacheProperties.getSnapshot();
+
+            if (persisted.getWatermark().isBefore(watermark.minus(properties.getChangeRetention()).plus(properties.getChangeOverlap()))) {
+                // changes, made after the snapshot was taken, could be already deleted
+                log.info("Embedding snapshot of {} is expired, it is reloaded from the database", apiKey);
+                return Optional.empty();
+            }
+
+            val collection = catchUp(apiKey, persisted, watermark);
+            log.info("Embedding snapshot of {} is loaded, {} embeddings", apiKey, collection.getSnapshot().size());
+
+            return Optional.of(collection);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not load embedding snapshot of {}, it is reloaded from the database", apiKey, e);
+            delete(apiKey);
+
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes snapshot in background. Snapshot is immutable, so it is safe to write it while the collection is used.
+     *
+     * @param watermark moment, the collection was started to load at
+     */
+    public void persist(final String apiKey, final EmbeddingSnapshot snapshot, final LocalDateTime watermark) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (snapshot.size() < embeddingCacheProperties.getSnapshot().getMinSize()) {
+            delete(apiKey);
+            return;
+        }
+
+        getPath(apiKey).ifPresent(path -> writer.execute(() -> write(path, snapshot, watermark)));
+    }
+
+    public void delete(final String apiKey) {
+        getPath(apiKey).ifPresent(path -> {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Could not delete embedding snapshot {}", path, e);
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        writer.shutdown();
+        if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("Embedding snapshots are not written in time");
+        }
+    }
+
+    /**
+     * Snapshot rows are replaced by the current state of the database for:
+     * <ul>
+     * <li>changed embeddings (added, removed, recalculated, reassigned)</li>
+     * <li>all embeddings of changed subjects (renamed, removed), both by their previous and current names</li>
+     * </ul>
+     * Row of the snapshot, which is not affected by the changes, is not changed since the snapshot was taken.
+     */
+    private EmbeddingCollection catchUp(final String apiKey, final PersistedEmbeddings persisted,
+                                        final LocalDateTime watermark) throws IOException {
+        val properties = embeddingCacheProperties.getSnapshot();
+        val changes = embeddingChangeService.getChanges(apiKey, persisted.getWatermark().minus(properties.getChangeOverlap()));
+
+        val changedEmbeddings = new HashSet<UUID>();
+        val changedSubjects = new HashSet<UUID>();
+        val changedSubjectNames = new HashSet<String>();
+        for (val change : changes) {
+            if (change.isSubjectChange()) {
+                changedSubjects.add(change.getSubjectId());
+                changedSubjectNames.add(change.getSubjectName());
+            } else {
+                changedEmbeddings.add(change.getEmbeddingId());
+            }
+        }
+        changedSubjectNames.addAll(embeddingChangeService.getSubjectNames(apiKey, changedSubjects).values());
+
+        // the same embedding could be found both by id and by subject
+        val current = new LinkedHashMap<UUID, EnhancedEmbeddingProjection>();
+        embeddingChangeService.getEmbeddings(apiKey, changedEmbeddings)
+                              .forEach(projection -> current.put(projection.getEmbeddingId(), projection));
+        embeddingChangeService.getSubjectEmbeddings(apiKey, changedSubjectNames)
+                              .forEach(projection -> current.put(projection.getEmbeddingId(), projection));
+
+        final EmbeddingCollection collection;
+        try (val rows = persisted.stream()) {
+            val unchanged = rows.filter(row -> !changedEmbeddings.contains(row.getEmbeddingId())
+                    && !changedSubjectNames.contains(row.getSubjectName())
+                    && !current.containsKey(row.getEmbeddingId()));
+
+            collection = EmbeddingCollection.from(
+                    Stream.concat(unchanged, current.values().stream()),
+                    embeddingCacheProperties.getStorageType(),
+                    persisted.getSize() + current.size(),
+                    embeddingCacheProperties.isNormalize()
+            );
+        }
+
+        if (!changes.isEmpty()) {
+            log.debug("Embedding snapshot of {} is caught up with {} changes", apiKey, changes.size());
+            persist(apiKey, collection.getSnapshot(), watermark);
+        }
+
+        return collection;
+    }
+
+    private void write(final Path path, final EmbeddingSnapshot snapshot, final LocalDateTime watermark) {
+        // written next to the target and moved, so that readers never see partially written file
+        val temporary = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            PersistedEmbeddings.write(temporary, snapshot, watermark);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write embedding snapshot {}", path, e);
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // nothing else could be done
+            }
+        }
+    }
+
+    private Optional<Path> getPath(final String apiKey) {
+        if (apiKey == null || !API_KEY_PATTERN.matcher(apiKey).matches()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(Paths.get(embeddingCacheProperties.getSnapshot().getDirectory(), apiKey + FILE_EXTENSION));
+    }
+}
@@ -0,0 +1,18 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.nd4j.linalg.api.buffer.DataType;
+
+/**
+ * Precision of the matrix that holds cached embeddings. {@link #FLOAT} requires half of the memory of {@link #DOUBLE}.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum EmbeddingStorageType {
+
+    DOUBLE(DataType.DOUBLE),
+    FLOAT(DataType.FLOAT);
+
+    private final DataType dataType;
+}
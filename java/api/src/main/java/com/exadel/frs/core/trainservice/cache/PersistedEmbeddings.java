@@ -0,0 +1,351 @@
+package com.exadel.frs.core.trainservice.cache;
+
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import lombok.Getter;
+import lombok.val;
+import org.nd4j.linalg.api.buffer.DataType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Binary snapshot of one collection on disk, little-endian:
+ * <pre>
+ * header:     magic (int), format version (int), watermark (long seconds, int nanos), storage type (byte),
+ *             rows (int), columns (int), subject names (int)
+ * subjects:   per subject name: length (int), UTF-8 bytes
+ * metadata:   per row: embedding id (long most, long least significant bits), subject name index (int)
+ * embeddings: per row: columns values (double or float, as the storage type is)
+ * </pre>
+ * File is read through memory mapped windows, so loading is bound by disk read speed.
+ */
+public final class PersistedEmbeddings {
+
+    private static final int MAGIC = 0x46525345; // "FRSE"
+    private static final int FORMAT_VERSION = 1;
+    private static final int METADATA_ROW_BYTES = 2 * Long.BYTES + Integer.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int WRITE_BATCH_ROWS = 1024;
+    private static final long MAPPED_WINDOW_SIZE = 64L << 20;
+
+    private final Path path;
+
+    /**
+     * Changes, recorded after this moment (by the database clock), are not included into the snapshot.
+     */
+    @Getter
+    private final LocalDateTime watermark;
+
+    @Getter
+    private final EmbeddingStorageType storageType;
+
+    @Getter
+    private final int size;
+
+    private final int columns;
+    private final String[] subjectNames;
+    private final long metadataOffset;
+    private final long embeddingsOffset;
+
+    private PersistedEmbeddings(final Path path, final FileChannel channel) throws IOException {
+        val header = new MappedReader(channel, 0);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not an embedding snapshot: " + path);
+        }
+        val version = header.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported embedding snapshot version " + version + ": " + path);
+        }
+
+        this.path = path;
+        this.watermark = LocalDateTime.ofEpochSecond(header.getLong(), header.getInt(), ZoneOffset.UTC);
+        this.storageType = storageType(header.getByte(), path);
+        this.size = header.getInt();
+        this.columns = header.getInt();
+        this.subjectNames = new String[header.getInt()];
+
+        for (int i = 0; i < subjectNames.length; i++) {
+            val bytes = new byte[header.getInt()];
+            header.get(bytes);
+            subjectNames[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        this.metadataOffset = header.position();
+        this.embeddingsOffset = metadataOffset + (long) size * METADATA_ROW_BYTES;
+
+        val expectedLength = embeddingsOffset + (long) size * columns * valueBytes(storageType);
+        if (channel.size() != expectedLength) {
+            throw new IOException("Truncated embedding snapshot: " + path);
+        }
+    }
+
+    /**
+     * Reads header of the snapshot, rows are read only while {@link #stream()} is consumed.
+     */
+    public static PersistedEmbeddings open(final Path path) throws IOException {
+        try (val channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new PersistedEmbeddings(path, channel);
+        }
+    }
+
+    /**
+     * Writes live rows of the snapshot to the file (it is replaced if exists).
+     *
+     * @param watermark moment (by the database clock) the snapshot content is consistent with
+     */
+    public static void write(final Path path, final EmbeddingSnapshot snapshot, final LocalDateTime watermark) throws IOException {
+        val storageType = snapshot.dataType() == DataType.FLOAT ? EmbeddingStorageType.FLOAT : EmbeddingStorageType.DOUBLE;
+        // dead rows are not written, so the loaded collection is compacted
+        val liveRows = snapshot.liveRows();
+        val size = liveRows.length;
+        val columns = size == 0 ? 0 : (int) snapshot.columns();
+
+        // subject names are dictionary encoded, each name is written once
+        val subjectIndexes = new HashMap<String, Integer>();
+        val rowSubjects = new int[size];
+        for (int row = 0; row < size; row++) {
+            rowSubjects[row] = subjectIndexes.computeIfAbsent(snapshot.getSubjectName(liveRows[row]), name -> subjectIndexes.size());
+        }
+        val subjectNames = new String[subjectIndexes.size()];
+        subjectIndexes.forEach((name, index) -> subjectNames[index] = name);
+
+        try (val channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             val writer = new ChannelWriter(channel)) {
+            writer.putInt(MAGIC);
+            writer.putInt(FORMAT_VERSION);
+            writer.putLong(watermark.toEpochSecond(ZoneOffset.UTC));
+            writer.putInt(watermark.getNano());
+            writer.putByte((byte) storageType.ordinal());
+            writer.putInt(size);
+            writer.putInt(columns);
+            writer.putInt(subjectNames.length);
+
+            for (val name : subjectNames) {
+                val bytes = name.getBytes(StandardCharsets.UTF_8);
+                writer.putInt(bytes.length);
+                writer.put(bytes);
+            }
+
+            for (int row = 0; row < size; row++) {
+                val embeddingId = snapshot.getEmbeddingId(liveRows[row]);
+                writer.putLong(embeddingId.getMostSignificantBits());
+                writer.putLong(embeddingId.getLeastSignificantBits());
+                writer.putInt(rowSubjects[row]);
+            }
+
+            for (int from = 0; from < size; from += WRITE_BATCH_ROWS) {
+                val rows = snapshot.getRows(Arrays.copyOfRange(liveRows, from, Math.min(from + WRITE_BATCH_ROWS, size)));
+
+                if (storageType == EmbeddingStorageType.FLOAT) {
+                    for (val values : rows.toFloatMatrix()) {
+                        for (val value : values) {
+                            writer.putFloat(value);
+                        }
+                    }
+                } else {
+                    for (val values : rows.toDoubleMatrix()) {
+                        for (val value : values) {
+                            writer.putDouble(value);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lazily reads rows of the snapshot. Subject names of the rows are shared instances.
+     */
+    public Stream<EnhancedEmbeddingProjection> stream() throws IOException {
+        val channel = FileChannel.open(path, StandardOpenOption.READ);
+        val metadata = new MappedReader(channel, metadataOffset);
+        val embeddings = new MappedReader(channel, embeddingsOffset);
+
+        val spliterator = new Spliterators.AbstractSpliterator<EnhancedEmbeddingProjection>(size, Spliterator.ORDERED | Spliterator.SIZED) {
+
+            private int row;
+
+            @Override
+            public boolean tryAdvance(final Consumer<? super EnhancedEmbeddingProjection> action) {
+                if (row == size) {
+                    return false;
+                }
+
+                val embeddingId = new UUID(metadata.getLong(), metadata.getLong());
+                val subjectName = subjectNames[metadata.getInt()];
+                val embedding = new double[columns];
+                for (int column = 0; column < columns; column++) {
+                    embedding[column] = storageType == EmbeddingStorageType.FLOAT ? embeddings.getFloat() : embeddings.getDouble();
+                }
+
+                row++;
+                action.accept(new EnhancedEmbeddingProjection(embeddingId, embedding, subjectName));
+
+                return true;
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false)
+                            .onClose(() -> closeQuietly(channel));
+    }
+
+    private static EmbeddingStorageType storageType(final byte ordinal, final Path path) throws IOException {
+        if (ordinal < 0 || ordinal >= EmbeddingStorageType.values().length) {
+            throw new IOException("Unknown storage type " + ordinal + " of embedding snapshot: " + path);
+        }
+
+        return EmbeddingStorageType.values()[ordinal];
+    }
+
+    private static int valueBytes(final EmbeddingStorageType storageType) {
+        return storageType == EmbeddingStorageType.FLOAT ? Float.BYTES : Double.BYTES;
+    }
+
+    private static void closeQuietly(final FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to do, file is only read
+        }
+    }
+
+    /**
+     * Sequential reader over a file, mapped by windows (a single mapping can not exceed 2GB).
+     */
+    private static final class MappedReader {
+
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private long bufferOffset;
+
+        private MappedReader(final FileChannel channel, final long offset) throws IOException {
+            this.channel = channel;
+            map(offset);
+        }
+
+        private long position() {
+            return bufferOffset + buffer.position();
+        }
+
+        private byte getByte() {
+            return ensure(Byte.BYTES).get();
+        }
+
+        private int getInt() {
+            return ensure(Integer.BYTES).getInt();
+        }
+
+        private long getLong() {
+            return ensure(Long.BYTES).getLong();
+        }
+
+        private float getFloat() {
+            return ensure(Float.BYTES).getFloat();
+        }
+
+        private double getDouble() {
+            return ensure(Double.BYTES).getDouble();
+        }
+
+        private void get(final byte[] bytes) {
+            ensure(bytes.length).get(bytes);
+        }
+
+        private ByteBuffer ensure(final int bytes) {
+            if (buffer.remaining() < bytes) {
+                try {
+                    map(position());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read embedding snapshot", e);
+                }
+            }
+
+            return buffer;
+        }
+
+        private void map(final long offset) throws IOException {
+            val length = Math.min(MAPPED_WINDOW_SIZE, channel.size() - offset);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            bufferOffset = offset;
+        }
+    }
+
+    /**
+     * Writes through a reusable heap buffer, so that small values are not written one by one.
+     */
+    private static final class ChannelWriter implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        private ChannelWriter(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putByte(final byte value) throws IOException {
+            ensure(Byte.BYTES).put(value);
+        }
+
+        private void putInt(final int value) throws IOException {
+            ensure(Integer.BYTES).putInt(value);
+        }
+
+        private void putLong(final long value) throws IOException {
+            ensure(Long.BYTES).putLong(value);
+        }
+
+        private void putFloat(final float value) throws IOException {
+            ensure(Float.BYTES).putFloat(value);
+        }
+
+        private void putDouble(final double value) throws IOException {
+            ensure(Double.BYTES).putDouble(value);
+        }
+
+        private void put(final byte[] bytes) throws IOException {
+            for (int offset = 0; offset < bytes.length; offset += WRITE_BUFFER_SIZE) {
+                val length = Math.min(WRITE_BUFFER_SIZE, bytes.length - offset);
+                ensure(length).put(bytes, offset, length);
+            }
+        }
+
+        private ByteBuffer ensure(final int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+
+            return buffer;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.exadel.frs.core.trainservice.component;
+
+import com.exadel.frs.commonservice.sdk.faces.service.CalculatorBatcher;
+import com.exadel.frs.commonservice.sdk.faces.service.FacesHttpApiClient;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the batches sent to the embedding calculator and the images in them, if calculator requests are batched,
+ * {@code rate(images) / rate(batches) / max.size} is the achieved batch fill.
+ */
+@Component
+@RequiredArgsConstructor
+public class CalculatorBatchMetrics implements MeterBinder {
+
+    private final ObjectProvider<FacesHttpApiClient> facesHttpApiClient;
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        val client = facesHttpApiClient.getIfAvailable();
+        if (client == null || client.getBatcher().isEmpty()) {
+            return;
+        }
+
+        val batcher = client.getBatcher().get();
+        FunctionCounter.builder("calculator.batch.batches", batcher, CalculatorBatcher::getBatches)
+                       .description("Batches sent to the embedding calculator")
+                       .register(registry);
+        FunctionCounter.builder("calculator.batch.images", batcher, CalculatorBatcher::getImages)
+                       .description("Images in the batches sent to the embedding calculator")
+                       .register(registry);
+        Gauge.builder("calculator.batch.max.size", batcher, CalculatorBatcher::getMaxSize)
+             .description("Maximum number of images in a batch")
+             .register(registry);
+    }
+}
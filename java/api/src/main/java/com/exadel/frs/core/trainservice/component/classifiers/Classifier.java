@@ -17,6 +17,7 @@
 package com.exadel.frs.core.trainservice.component.classifiers;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -26,6 +27,20 @@ public interface Classifier extends Serializable {
 
     List<Pair<Double, String>> predict(double[] input, String apiKey, int resultCount);
 
+    /**
+     * Predicts subjects of several faces (e.g. all the faces found in the image) at once.
+     *
+     * @return predictions of each input, in the order of the inputs
+     */
+    default List<List<Pair<Double, String>>> predictAll(double[][] inputs, String apiKey, int resultCount) {
+        List<List<Pair<Double, String>>> result = new ArrayList<>(inputs.length);
+        for (double[] input : inputs) {
+            result.add(predict(input, apiKey, resultCount));
+        }
+
+        return result;
+    }
+
     Double verify(double[] input, String apiKey, UUID embeddingId);
 
     double[] verify(double[] sourceImageEmbedding, double[][] targetImageEmbedding);
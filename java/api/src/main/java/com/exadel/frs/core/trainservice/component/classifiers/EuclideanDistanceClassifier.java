@@ -20,12 +20,15 @@ import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
 import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
 import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
-import com.google.common.primitives.Doubles;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshot;
+import com.exadel.frs.core.trainservice.system.global.ClassifierProperties;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.apache.commons.lang3.tuple.Pair;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.ops.transforms.Transforms;
 import org.springframework.stereotype.Component;
 
@@ -33,9 +36,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.IntStream;
-
-import static java.lang.Math.min;
 
 @Component
 @RequiredArgsConstructor
@@ -44,35 +44,116 @@ public class EuclideanDistanceClassifier implements Classifier {
     public static final int PREDICTION_COUNT_INFINITY = -1;
     private final EmbeddingCacheProvider embeddingCacheProvider;
     private final FacesApiClient facesApiClient;
+    private final ClassifierProperties classifierProperties;
 
     @Override
     public List<Pair<Double, String>> predict(final double[] input, final String apiKey, final int resultCount) {
-        INDArray inputFace = Nd4j.create(input);
-        inputFace = normalizeOne(inputFace);
+        // snapshot is immutable, so it is scored without any locking or copying
+        final EmbeddingCollection collection = embeddingCacheProvider.getOrLoad(apiKey);
 
-        var embeddingCollection = embeddingCacheProvider.getOrLoad(apiKey);
-        final INDArray embeddings = embeddingCollection.getEmbeddings();
+        return predict(input, collection.getSnapshot(), collection.isNormalized(), resultCount);
+    }
 
-        var result = new ArrayList<Pair<Double, String>>();
-        if (embeddings != null && embeddings.length() > 0) {
-            val probabilities = recognize(inputFace, embeddings);
-            val sortedIndexes = sortedIndexes(probabilities);
-            val indexMap = embeddingCollection.getIndexMap();
-            int predictionCount = getPredictionCount(resultCount, sortedIndexes);
+    /**
+     * Scores all the inputs in a single pass over the collection: each segment is multiplied by the matrix of
+     * the inputs, so its rows are read once for all of them, top predictions of each input are accumulated
+     * segment by segment.
+     */
+    @Override
+    public List<List<Pair<Double, String>>> predictAll(final double[][] inputs, final String apiKey, final int resultCount) {
+        final EmbeddingCollection collection = embeddingCacheProvider.getOrLoad(apiKey);
+        final EmbeddingSnapshot snapshot = collection.getSnapshot();
+
+        val result = new ArrayList<List<Pair<Double, String>>>(inputs.length);
+        if (inputs.length == 0 || snapshot.isEmpty() || classifierProperties.getKernel() == ScoringKernel.JAVA) {
+            for (val input : inputs) {
+                result.add(predict(input, snapshot, collection.isNormalized(), resultCount));
+            }
+            return result;
+        }
+
+        val coefficients = getSimilarityCoefficients();
+        val predictionCount = getPredictionCount(resultCount, snapshot.size());
+        val selected = new TopKSelector.Accumulator[inputs.length];
+        for (int input = 0; input < inputs.length; input++) {
+            selected[input] = new TopKSelector.Accumulator(predictionCount);
+        }
+
+        val queries = normalize(Nd4j.create(inputs)).castTo(snapshot.dataType());
+        val transposed = queries.transpose();
+        val queryNorms = queries.mul(queries).sum(1);
+
+        for (int segment = 0; segment < snapshot.segmentCount(); segment++) {
+            val existingFaces = snapshot.getSegment(segment);
+            // rows of the segment by inputs
+            val dotProducts = existingFaces.mmul(transposed).muli(-2);
+            val squaredDistances = collection.isNormalized()
+                    ? dotProducts.addi(2)
+                    : dotProducts.addiColumnVector(snapshot.getSegmentNorms(segment).reshape(existingFaces.rows(), 1))
+                                 .addiRowVector(queryNorms);
+            val distances = Transforms.sqrt(Transforms.max(squaredDistances, 0, false), false);
+            val probabilities = calculateSimilarities(distances, coefficients).toDoubleMatrix();
+
+            val offset = snapshot.segmentOffset(segment);
+            for (int row = 0; row < probabilities.length; row++) {
+                // removed rows stay in the matrix until compaction, they are never selected
+                if (!snapshot.isLive(offset + row)) {
+                    continue;
+                }
+                for (int input = 0; input < inputs.length; input++) {
+                    selected[input].offer(probabilities[row][input], offset + row);
+                }
+            }
+        }
 
-            for (int i = 0; i < min(predictionCount, sortedIndexes.length); i++) {
-                var prob = probabilities[sortedIndexes[i]];
-                var embedding = indexMap.get(sortedIndexes[i]);
+        for (val predictions : selected) {
+            val inputResult = new ArrayList<Pair<Double, String>>(predictions.size());
+            for (int i = 0; i < predictions.size(); i++) {
+                inputResult.add(Pair.of(predictions.getValue(i), snapshot.getSubjectName(predictions.getIndex(i))));
+            }
+            result.add(inputResult);
+        }
+
+        return result;
+    }
+
+    private List<Pair<Double, String>> predict(final double[] input, final EmbeddingSnapshot snapshot,
+                                               final boolean normalized, final int resultCount) {
+        INDArray inputFace = Nd4j.create(input);
+        inputFace = normalizeOne(inputFace);
 
-                result.add(Pair.of(prob, embedding.getSubjectName()));
+        var result = new ArrayList<Pair<Double, String>>();
+        if (!snapshot.isEmpty()) {
+            val probabilities = similarities(inputFace, snapshot, normalized);
+            // removed rows stay in the matrix until compaction, they are never selected
+            snapshot.deadRows().forEach(row -> probabilities[row] = Double.NEGATIVE_INFINITY);
+            val predictionCount = getPredictionCount(resultCount, snapshot.size());
+            val topIndexes = TopKSelector.topIndexes(probabilities, predictionCount);
+
+            for (int index : topIndexes) {
+                var prob = probabilities[index];
+                result.add(Pair.of(prob, snapshot.getSubjectName(index)));
             }
         }
         return result;
     }
 
-    private int getPredictionCount(int resultCount, int[] argSort) {
-        if (resultCount == PREDICTION_COUNT_INFINITY) {
-            resultCount = argSort.length;
+    private double[] similarities(final INDArray inputFace, final EmbeddingSnapshot snapshot, final boolean normalized) {
+        if (classifierProperties.getKernel() == ScoringKernel.JAVA) {
+            val coefficients = getSimilarityCoefficients();
+
+            return JavaScoringKernel.similarities(inputFace.toDoubleVector(), snapshot,
+                    coefficients.get(0), coefficients.get(1));
+        }
+
+        val distance = normalized ? dot_product_distance(inputFace, snapshot) : euclidean_distance(inputFace, snapshot);
+
+        return calculateSimilarities(distance).toDoubleVector();
+    }
+
+    private int getPredictionCount(int resultCount, int size) {
+        if (resultCount == PREDICTION_COUNT_INFINITY || resultCount > size) {
+            resultCount = size;
         }
 
         return resultCount;
@@ -99,9 +180,10 @@ public class EuclideanDistanceClassifier implements Classifier {
             return (double) 0;
         }
 
+        final INDArray rawEmbedding = rawEmbeddingOptional.get();
         var probabilities = recognize(
-                normalizeOne(Nd4j.create(input)),
-                rawEmbeddingOptional.get()
+                normalizeOne(Nd4j.create(input)).castTo(rawEmbedding.dataType()),
+                rawEmbedding
         );
 
         return probabilities[0];
@@ -120,6 +202,31 @@ public class EuclideanDistanceClassifier implements Classifier {
         return embeddings.toDoubleVector();
     }
 
+    /**
+     * Normalizes embedding and converts it to float, as approximate indexes keep their vectors in float.
+     */
+    float[] normalizeOneToFloat(final double[] rawEmbeddings) {
+        return normalizeOne(Nd4j.create(rawEmbeddings)).toFloatVector();
+    }
+
+    /**
+     * Converts neighbours, found by approximate indexes, to predictions, keeping their (nearest first) order.
+     */
+    List<Pair<Double, String>> toPredictions(final List<NearestNeighbour> neighbours) {
+        val result = new ArrayList<Pair<Double, String>>(neighbours.size());
+        if (neighbours.isEmpty()) {
+            return result;
+        }
+
+        val distances = neighbours.stream().mapToDouble(NearestNeighbour::getDistance).toArray();
+        val probabilities = calculateSimilarities(Nd4j.create(distances)).toDoubleVector();
+        for (int i = 0; i < neighbours.size(); i++) {
+            result.add(Pair.of(probabilities[i], neighbours.get(i).getProjection().getSubjectName()));
+        }
+
+        return result;
+    }
+
     private INDArray normalize(final INDArray embeddings) {
         val embeddingsNorm = embeddings.norm2(1);
 
@@ -132,15 +239,22 @@ public class EuclideanDistanceClassifier implements Classifier {
         return calculateSimilarities(distance).toDoubleVector();
     }
 
-    private INDArray calculateSimilarities(INDArray distance) {
+    INDArray calculateSimilarities(INDArray distance) {
+        return calculateSimilarities(distance, getSimilarityCoefficients());
+    }
+
+    private static INDArray calculateSimilarities(INDArray distance, List<Double> coefficients) {
+        // (tanh ((coef0 - distance) * coef1) + 1) / 2
+        return Transforms.tanh(distance.rsubi(coefficients.get(0)).muli(coefficients.get(1)), false).addi(1).divi(2);
+    }
+
+    private List<Double> getSimilarityCoefficients() {
         FacesStatusResponse status = facesApiClient.getStatus();
         if (status == null || status.getSimilarityCoefficients() == null || status.getSimilarityCoefficients().isEmpty()) {
             throw new FacesServiceException("No status information received");
         }
 
-        List<Double> coefficients = status.getSimilarityCoefficients();
-        // (tanh ((coef0 - distance) * coef1) + 1) / 2
-        return Transforms.tanh(distance.rsubi(coefficients.get(0)).muli(coefficients.get(1)), false).addi(1).divi(2);
+        return status.getSimilarityCoefficients();
     }
 
     private static INDArray euclidean_distance(final INDArray newFace, INDArray existingFaces) {
@@ -150,16 +264,49 @@ public class EuclideanDistanceClassifier implements Classifier {
     }
 
     /**
-     * Create and sort array of indexes according highest probabilities.
-     *
-     * @param probabilities array of probability
-     * @return sorted array of indexes (highest probability index first)
+     * Calculates distances without modifying (or copying) shared snapshot segments, as
+     * ||a - b||^2 = ||a||^2 - 2 * a.b + ||b||^2, where ||a||^2 is precomputed for each row of the snapshot.
+     * Segments are scored one by one, their distances are written into the single result vector.
      */
-    private static int[] sortedIndexes(double[] probabilities) {
-        return IntStream.range(0, probabilities.length)
-                .boxed()
-                .sorted((index1, index2) -> -Doubles.compare(probabilities[index1], probabilities[index2]))
-                .mapToInt(index -> index)
-                .toArray();
+    private static INDArray euclidean_distance(final INDArray newFace, final EmbeddingSnapshot snapshot) {
+        val query = newFace.castTo(snapshot.dataType());
+        val column = query.reshape(query.length(), 1);
+        val queryNorm = query.norm2Number().doubleValue();
+        val result = Nd4j.create(snapshot.dataType(), snapshot.rows());
+
+        for (int segment = 0; segment < snapshot.segmentCount(); segment++) {
+            val existingFaces = snapshot.getSegment(segment);
+            val squaredDistances = existingFaces.mmul(column)
+                                                .reshape(existingFaces.rows())
+                                                .muli(-2)
+                                                .addi(snapshot.getSegmentNorms(segment))
+                                                .addi(queryNorm * queryNorm);
+
+            val offset = snapshot.segmentOffset(segment);
+            result.get(NDArrayIndex.interval(offset, offset + existingFaces.rows())).assign(squaredDistances);
+        }
+
+        // rounding errors could make distance of almost equal vectors slightly negative
+        return Transforms.sqrt(Transforms.max(result, 0, false), false);
+    }
+
+    /**
+     * Calculates distances to the rows of normalized snapshot, for unit vectors ||a - b||^2 = 2 - 2 * a.b,
+     * so each segment is scored with a single matrix-vector product.
+     */
+    private static INDArray dot_product_distance(final INDArray newFace, final EmbeddingSnapshot snapshot) {
+        val query = newFace.castTo(snapshot.dataType());
+        val column = query.reshape(query.length(), 1);
+        val result = Nd4j.create(snapshot.dataType(), snapshot.rows());
+
+        for (int segment = 0; segment < snapshot.segmentCount(); segment++) {
+            val existingFaces = snapshot.getSegment(segment);
+            val offset = snapshot.segmentOffset(segment);
+            result.get(NDArrayIndex.interval(offset, offset + existingFaces.rows()))
+                  .assign(existingFaces.mmul(column).reshape(existingFaces.rows()));
+        }
+
+        // rounding errors could make distance of almost equal vectors slightly negative
+        return Transforms.sqrt(Transforms.max(result.muli(-2).addi(2), 0, false), false);
     }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.component.classifiers.EuclideanDistanceClassifier.PREDICTION_COUNT_INFINITY;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.system.global.ClassifierProperties;
+import java.util.List;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.stereotype.Component;
+
+/**
+ * Approximate nearest neighbours classifier, searches over {@link HnswIndex}, attached to the cached collection.
+ * Verification compares with exact embeddings, so it is delegated to {@link EuclideanDistanceClassifier}.
+ */
+@Component
+@RequiredArgsConstructor
+public class HnswClassifier implements Classifier {
+
+    private static final String INDEX_NAME = "hnsw";
+
+    private final EmbeddingCacheProvider embeddingCacheProvider;
+    private final EuclideanDistanceClassifier euclideanDistanceClassifier;
+    private final ClassifierProperties classifierProperties;
+
+    @Override
+    public List<Pair<Double, String>> predict(final double[] input, final String apiKey, final int resultCount) {
+        val parameters = classifierProperties.getHnsw(apiKey);
+        val index = embeddingCacheProvider.getIndex(
+                apiKey,
+                embeddingCacheProvider.getOrLoad(apiKey),
+                INDEX_NAME,
+                snapshot -> HnswIndex.build(snapshot, parameters)
+        );
+        if (index == null) {
+            // graph is being built
+            return euclideanDistanceClassifier.predict(input, apiKey, resultCount);
+        }
+
+        val count = resultCount == PREDICTION_COUNT_INFINITY ? index.size() : resultCount;
+        val query = euclideanDistanceClassifier.normalizeOneToFloat(input);
+
+        return euclideanDistanceClassifier.toPredictions(index.search(query, count, parameters.getEfSearch()));
+    }
+
+    @Override
+    public Double verify(final double[] input, final String apiKey, final UUID embeddingId) {
+        return euclideanDistanceClassifier.verify(input, apiKey, embeddingId);
+    }
+
+    @Override
+    public double[] verify(final double[] sourceImageEmbedding, final double[][] targetImageEmbedding) {
+        return euclideanDistanceClassifier.verify(sourceImageEmbedding, targetImageEmbedding);
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingIndex;
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshot;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hierarchical navigable small world graph (Malkov, Yashunin) over embeddings of one collection.
+ * <p>
+ * Each node keeps its own float copy of the embedding, so that node ids are not affected by compaction of the
+ * collection. Nodes are found by the rows of the collection snapshot, and found nodes are mapped back to the
+ * projections of their rows, so that the graph keeps no projections. Removed nodes are only marked as deleted: they are
+ * still used for graph navigation, but never returned.
+ * Once deleted nodes make up half of the graph, a new graph is built from the live ones in background, while the old
+ * one keeps serving searches and modifications. Modifications, made meanwhile, are replayed on the new graph when it
+ * is swapped in.
+ * <p>
+ * Searches run concurrently, modifications are exclusive.
+ */
+@Slf4j
+public class HnswIndex implements EmbeddingIndex {
+
+    private static final int MAX_LEVEL = 16;
+    private static final int INITIAL_CAPACITY = 16;
+    // headers of a node and its arrays, node of its row
+    private static final long NODE_OVERHEAD_BYTES = 120;
+    private static final Comparator<Candidate> NEAREST_FIRST = Comparator.comparingDouble(Candidate::getDistance);
+    private static final Comparator<Candidate> FURTHEST_FIRST = NEAREST_FIRST.reversed();
+    // graphs are rebuilt one by one
+    private static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "hnsw-index-rebuilder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HnswParameters parameters;
+    private final Executor rebuilder;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private List<Node> nodes = new ArrayList<>();
+    // node of each row of the snapshot, -1 for the rows without a live node
+    private int[] rowNodes = newRowNodes(INITIAL_CAPACITY);
+    private int liveCount;
+    private EmbeddingSnapshot snapshot;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int deletedCount;
+    // modifications, made while the new graph is being built, null if it is not
+    private List<Consumer<HnswIndex>> pendingChanges;
+
+    private HnswIndex(final HnswParameters parameters, final Executor rebuilder) {
+        this.parameters = parameters;
+        this.rebuilder = rebuilder;
+        this.m = Math.max(parameters.getM(), 2);
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(parameters.getEfConstruction(), m);
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    public static HnswIndex build(final EmbeddingSnapshot snapshot, final HnswParameters parameters) {
+        return build(snapshot, parameters, REBUILDER);
+    }
+
+    static HnswIndex build(final EmbeddingSnapshot snapshot, final HnswParameters parameters, final Executor rebuilder) {
+        final HnswIndex index = new HnswIndex(parameters, rebuilder);
+        index.snapshot = snapshot;
+
+        for (final int row : snapshot.liveRows()) {
+            index.doInsert(row, snapshot.getRow(row).toFloatVector());
+        }
+
+        return index;
+    }
+
+    /**
+     * Number of searchable (not deleted) embeddings.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        lock.readLock().lock();
+        try {
+            if (nodes.isEmpty()) {
+                return 0;
+            }
+
+            // deleted nodes are kept in the graph, each node has (on average) less than one level above the ground one
+            final int dimensions = nodes.get(0).vector.length;
+            final long nodeBytes = NODE_OVERHEAD_BYTES + (long) Float.BYTES * dimensions + (long) Integer.BYTES * (maxM0 + m);
+
+            return nodes.size() * nodeBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate k nearest neighbours of the query.
+     *
+     * @param query embedding to search for
+     * @param k     maximum number of neighbours to return
+     * @param ef    size of the dynamic candidate list, the higher it is, the better is recall
+     * @return nearest neighbours, nearest first
+     */
+    public List<NearestNeighbour> search(final float[] query, final int k, final int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return List.of();
+            }
+
+            List<Candidate> entries = List.of(new Candidate(entryPoint, distance(query, nodes.get(entryPoint).vector)));
+            for (int level = maxLevel; level > 0; level--) {
+                entries = List.of(nearest(searchLevel(query, entries, 1, level, false)));
+            }
+
+            final List<Candidate> found = sortedNearestFirst(searchLevel(query, entries, Math.max(ef, k), 0, true));
+            final List<NearestNeighbour> result = new ArrayList<>(Math.min(k, found.size()));
+            for (int i = 0; i < Math.min(k, found.size()); i++) {
+                final Candidate candidate = found.get(i);
+                result.add(new NearestNeighbour(snapshot.getProjection(nodes.get(candidate.node).row), Math.sqrt(candidate.distance)));
+            }
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(final int row, final EmbeddingProjection projection, final double[] embedding, final EmbeddingSnapshot snapshot) {
+        final float[] vector = new float[embedding.length];
+        for (int i = 0; i < embedding.length; i++) {
+            vector[i] = (float) embedding[i];
+        }
+
+        lock.writeLock().lock();
+        try {
+            doInsert(row, vector);
+            this.snapshot = snapshot;
+            if (pendingChanges != null) {
+                pendingChanges.add(index -> index.doInsert(row, vector));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(final int row, final EmbeddingProjection projection, final EmbeddingSnapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            this.snapshot = snapshot;
+            if (!delete(row)) {
+                return;
+            }
+
+            if (pendingChanges != null) {
+                pendingChanges.add(index -> index.delete(row));
+            } else if (deletedCount * 2 > nodes.size()) {
+                scheduleRebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void rename(
+            final int row,
+            final EmbeddingProjection oldProjection,
+            final EmbeddingProjection newProjection,
+            final EmbeddingSnapshot snapshot
+    ) {
+        lock.writeLock().lock();
+        try {
+            // projections are taken from the snapshot, rows are not changed
+            this.snapshot = snapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void compact(final int[] rows, final EmbeddingSnapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            doCompact(rows, snapshot.rows());
+            this.snapshot = snapshot;
+            if (pendingChanges != null) {
+                pendingChanges.add(index -> index.doCompact(rows, snapshot.rows()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean delete(final int row) {
+        if (row >= rowNodes.length || rowNodes[row] < 0) {
+            return false;
+        }
+
+        final Node node = nodes.get(rowNodes[row]);
+        node.deleted = true;
+        node.row = -1;
+        rowNodes[row] = -1;
+        deletedCount++;
+        liveCount--;
+
+        return true;
+    }
+
+    /**
+     * Live nodes are moved to the new rows of their embeddings, nodes of the removed rows are already deleted.
+     */
+    private void doCompact(final int[] rows, final int size) {
+        rowNodes = newRowNodes(Math.max(size, INITIAL_CAPACITY));
+        for (int id = 0; id < nodes.size(); id++) {
+            final Node node = nodes.get(id);
+            if (!node.deleted) {
+                node.row = rows[node.row];
+                rowNodes[node.row] = id;
+            }
+        }
+    }
+
+    private void doInsert(final int row, final float[] vector) {
+        // a row is not reused by the collection, its node is replaced just in case
+        delete(row);
+
+        final int level = randomLevel();
+        final int id = nodes.size();
+        nodes.add(new Node(row, vector, level, m, maxM0));
+        if (row >= rowNodes.length) {
+            final int previous = rowNodes.length;
+            rowNodes = Arrays.copyOf(rowNodes, Math.max(previous * 2, row + 1));
+            Arrays.fill(rowNodes, previous, rowNodes.length, -1);
+        }
+        rowNodes[row] = id;
+        liveCount++;
+
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+
+        List<Candidate> entries = List.of(new Candidate(entryPoint, distance(vector, nodes.get(entryPoint).vector)));
+        for (int l = maxLevel; l > level; l--) {
+            entries = List.of(nearest(searchLevel(vector, entries, 1, l, false)));
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            final List<Candidate> neighbours = sortedNearestFirst(searchLevel(vector, entries, efConstruction, l, false));
+            for (int i = 0; i < Math.min(m, neighbours.size()); i++) {
+                final int neighbour = neighbours.get(i).node;
+                connect(id, neighbour, l);
+                connect(neighbour, id, l);
+            }
+            entries = neighbours;
+        }
+
+        if (level > maxLevel) {
+            entryPoint = id;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * Must be called with the write lock held: live nodes are taken and modifications are recorded from now on.
+     */
+    private void scheduleRebuild() {
+        // rows are copied, as they may be moved by compaction of the old graph meanwhile
+        final List<LiveNode> live = new ArrayList<>(liveCount);
+        for (final Node node : nodes) {
+            if (!node.deleted) {
+                live.add(new LiveNode(node.row, node.vector));
+            }
+        }
+
+        pendingChanges = new ArrayList<>();
+        try {
+            rebuilder.execute(() -> rebuild(live));
+        } catch (RuntimeException e) {
+            pendingChanges = null;
+            log.warn("Rebuild of the index is not scheduled", e);
+        }
+    }
+
+    private void rebuild(final List<LiveNode> live) {
+        final HnswIndex rebuilt;
+        try {
+            rebuilt = new HnswIndex(parameters, rebuilder);
+            live.forEach(node -> rebuilt.doInsert(node.getRow(), node.getVector()));
+        } catch (RuntimeException e) {
+            log.error("Could not rebuild the index", e);
+            lock.writeLock().lock();
+            try {
+                pendingChanges = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            pendingChanges.forEach(change -> change.accept(rebuilt));
+            pendingChanges = null;
+
+            nodes = rebuilt.nodes;
+            rowNodes = rebuilt.rowNodes;
+            liveCount = rebuilt.liveCount;
+            entryPoint = rebuilt.entryPoint;
+            maxLevel = rebuilt.maxLevel;
+            deletedCount = rebuilt.deletedCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Best-first search over one level of the graph.
+     *
+     * @return up to ef nearest found nodes, furthest first
+     */
+    private PriorityQueue<Candidate> searchLevel(final float[] query, final Collection<Candidate> entries,
+                                                 final int ef, final int level, final boolean skipDeleted) {
+        final BitSet visited = new BitSet(nodes.size());
+        final PriorityQueue<Candidate> candidates = new PriorityQueue<>(NEAREST_FIRST);
+        final PriorityQueue<Candidate> results = new PriorityQueue<>(FURTHEST_FIRST);
+
+        for (final Candidate entry : entries) {
+            visited.set(entry.node);
+            candidates.add(entry);
+            if (!skipDeleted || !nodes.get(entry.node).deleted) {
+                results.add(entry);
+            }
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+
+        while (!candidates.isEmpty()) {
+            final Candidate current = candidates.poll();
+            if (results.size() >= ef && current.distance > results.peek().distance) {
+                break;
+            }
+
+            final Node node = nodes.get(current.node);
+            for (int i = 0; i < node.connectionCounts[level]; i++) {
+                final int neighbour = node.connections[level][i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+
+                final Node neighbourNode = nodes.get(neighbour);
+                final float distance = distance(query, neighbourNode.vector);
+                if (results.size() < ef || distance < results.peek().distance) {
+                    final Candidate candidate = new Candidate(neighbour, distance);
+                    candidates.add(candidate);
+                    if (!skipDeleted || !neighbourNode.deleted) {
+                        results.add(candidate);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private void connect(final int from, final int to, final int level) {
+        final Node node = nodes.get(from);
+        final int[] connections = node.connections[level];
+        final int count = node.connectionCounts[level];
+
+        if (count < connections.length) {
+            connections[count] = to;
+            node.connectionCounts[level]++;
+            return;
+        }
+
+        // no free slots, replace the furthest connection if the new one is closer
+        int furthest = -1;
+        float furthestDistance = distance(node.vector, nodes.get(to).vector);
+        for (int i = 0; i < count; i++) {
+            final float distance = distance(node.vector, nodes.get(connections[i]).vector);
+            if (distance > furthestDistance) {
+                furthest = i;
+                furthestDistance = distance;
+            }
+        }
+
+        if (furthest >= 0) {
+            connections[furthest] = to;
+        }
+    }
+
+    private int randomLevel() {
+        return Math.min((int) (-Math.log(1 - random.nextDouble()) * levelMultiplier), MAX_LEVEL);
+    }
+
+    private static Candidate nearest(final PriorityQueue<Candidate> candidates) {
+        Candidate nearest = null;
+        for (final Candidate candidate : candidates) {
+            if (nearest == null || candidate.distance < nearest.distance) {
+                nearest = candidate;
+            }
+        }
+
+        return nearest;
+    }
+
+    private static List<Candidate> sortedNearestFirst(final PriorityQueue<Candidate> candidates) {
+        final List<Candidate> sorted = new ArrayList<>(candidates);
+        sorted.sort(NEAREST_FIRST);
+
+        return sorted;
+    }
+
+    private static int[] newRowNodes(final int capacity) {
+        final int[] rowNodes = new int[capacity];
+        Arrays.fill(rowNodes, -1);
+
+        return rowNodes;
+    }
+
+    /**
+     * Squared euclidean distance.
+     */
+    private static float distance(final float[] vector1, final float[] vector2) {
+        float sum = 0;
+        for (int i = 0; i < vector1.length; i++) {
+            final float diff = vector1[i] - vector2[i];
+            sum += diff * diff;
+        }
+
+        return sum;
+    }
+
+    @Value
+    private static class Candidate {
+
+        int node;
+        float distance;
+    }
+
+    @Value
+    private static class LiveNode {
+
+        int row;
+        float[] vector;
+    }
+
+    private static final class Node {
+
+        private final float[] vector;
+        private final int[][] connections;
+        private final int[] connectionCounts;
+        // row of the embedding in the snapshot, -1 once the node is deleted
+        private int row;
+        private boolean deleted;
+
+        private Node(final int row, final float[] vector, final int level, final int m, final int maxM0) {
+            this.row = row;
+            this.vector = vector;
+            this.connections = new int[level + 1][];
+            this.connectionCounts = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                connections[l] = new int[l == 0 ? maxM0 : m];
+            }
+        }
+    }
+}
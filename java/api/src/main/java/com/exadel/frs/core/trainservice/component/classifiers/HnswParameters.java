@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import lombok.Data;
+
+/**
+ * Parameters of {@link HnswIndex}. Higher values give better recall, but cost more memory and time.
+ */
+@Data
+public class HnswParameters {
+
+    /**
+     * Maximum number of connections of a node per graph level (twice as much for the bottom level).
+     */
+    private int m = 16;
+
+    /**
+     * Size of the dynamic candidate list, used while the graph is built.
+     */
+    private int efConstruction = 100;
+
+    /**
+     * Size of the dynamic candidate list, used while the graph is searched.
+     */
+    private int efSearch = 64;
+}
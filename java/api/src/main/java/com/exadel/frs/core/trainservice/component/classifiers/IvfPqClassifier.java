@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.component.classifiers.EuclideanDistanceClassifier.PREDICTION_COUNT_INFINITY;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.system.global.ClassifierProperties;
+import java.util.List;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.stereotype.Component;
+
+/**
+ * Approximate nearest neighbours classifier for very large collections, searches over {@link IvfPqIndex}, attached to
+ * the cached collection. Collections smaller than {@link IvfPqParameters#getMinTrainingSize()} are too small to train
+ * quantizers on (and cheap to scan), so they are searched by {@link EuclideanDistanceClassifier}.
+ * Verification compares with exact embeddings, so it is delegated to {@link EuclideanDistanceClassifier} as well.
+ */
+@Component
+@RequiredArgsConstructor
+public class IvfPqClassifier implements Classifier {
+
+    private static final String INDEX_NAME = "ivf-pq";
+
+    private final EmbeddingCacheProvider embeddingCacheProvider;
+    private final EuclideanDistanceClassifier euclideanDistanceClassifier;
+    private final ClassifierProperties classifierProperties;
+
+    @Override
+    public List<Pair<Double, String>> predict(final double[] input, final String apiKey, final int resultCount) {
+        val parameters = classifierProperties.getIvfPq(apiKey);
+        val collection = embeddingCacheProvider.getOrLoad(apiKey);
+
+        if (collection.getSnapshot().size() < parameters.getMinTrainingSize()) {
+            return euclideanDistanceClassifier.predict(input, apiKey, resultCount);
+        }
+
+        val index = embeddingCacheProvider.getIndex(
+                apiKey,
+                collection,
+                INDEX_NAME,
+                snapshot -> IvfPqIndex.build(snapshot, parameters)
+        );
+        if (index == null) {
+            // quantizers are being trained
+            return euclideanDistanceClassifier.predict(input, apiKey, resultCount);
+        }
+        val count = resultCount == PREDICTION_COUNT_INFINITY ? index.size() : resultCount;
+        val query = euclideanDistanceClassifier.normalizeOneToFloat(input);
+
+        return euclideanDistanceClassifier.toPredictions(
+                index.search(query, count, parameters.getProbes(), parameters.getRerank())
+        );
+    }
+
+    @Override
+    public Double verify(final double[] input, final String apiKey, final UUID embeddingId) {
+        return euclideanDistanceClassifier.verify(input, apiKey, embeddingId);
+    }
+
+    @Override
+    public double[] verify(final double[] sourceImageEmbedding, final double[][] targetImageEmbedding) {
+        return euclideanDistanceClassifier.verify(sourceImageEmbedding, targetImageEmbedding);
+    }
+}
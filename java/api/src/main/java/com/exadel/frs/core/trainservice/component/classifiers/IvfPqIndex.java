@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingIndex;
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted file index with product quantization (Jegou, Douze, Schmid) over embeddings of one collection.
+ * <p>
+ * Embeddings are assigned to the nearest of the coarse (k-means) centroids, the residual of each embedding is split
+ * into sub-vectors, each of them is encoded by one byte (index of the nearest of 256 sub-centroids). So the index
+ * keeps {@code subquantizers} bytes and a row number per embedding. A search scans only a few inverted lists,
+ * nearest to the query, estimates distances by table lookups, and re-ranks the best candidates by the exact distance
+ * to the rows of the collection snapshot.
+ * <p>
+ * Quantizers are trained once, on a sample of the collection, embeddings added afterwards are only encoded.
+ * Searches run concurrently, modifications are exclusive.
+ */
+public class IvfPqIndex implements EmbeddingIndex {
+
+    private static final int CODEBOOK_SIZE = 256;
+    private static final int MAX_AUTO_LISTS = 1024;
+    private static final int LOAD_BATCH_SIZE = 4096;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int subquantizers;
+    private final int subDimensions;
+    private final float[][] centroids;
+    private final float[][][] codebooks;
+    private final InvertedList[] lists;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // inverted list (-1 for dead rows) and position in it of each row of the snapshot
+    private int[] rowLists = new int[INITIAL_CAPACITY];
+    private int[] rowPositions = new int[INITIAL_CAPACITY];
+    private int liveCount;
+    private EmbeddingSnapshot snapshot;
+
+    private IvfPqIndex(final float[][] centroids, final float[][][] codebooks, final EmbeddingSnapshot snapshot) {
+        this.subquantizers = codebooks.length;
+        this.subDimensions = codebooks[0][0].length;
+        this.centroids = centroids;
+        this.codebooks = codebooks;
+        this.lists = new InvertedList[centroids.length];
+        this.snapshot = snapshot;
+        Arrays.fill(rowLists, -1);
+
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new InvertedList(subquantizers);
+        }
+    }
+
+    public static IvfPqIndex build(final EmbeddingSnapshot snapshot, final IvfPqParameters parameters) {
+        return build(snapshot, parameters, new Random());
+    }
+
+    static IvfPqIndex build(final EmbeddingSnapshot snapshot, final IvfPqParameters parameters, final Random random) {
+        if (snapshot.isEmpty()) {
+            throw new IllegalArgumentException("Index can not be trained on empty collection");
+        }
+
+        final int[] liveRows = snapshot.liveRows();
+        final int size = liveRows.length;
+        final int dimensions = (int) snapshot.columns();
+        final int iterations = Math.max(parameters.getTrainingIterations(), 1);
+        final float[][] sample = sample(snapshot, liveRows, Math.max(Math.min(size, parameters.getTrainingSampleSize()), 1), random);
+
+        final int listCount = parameters.getLists() > 0
+                ? parameters.getLists()
+                : Math.min((int) Math.sqrt(size), MAX_AUTO_LISTS);
+        final float[][] centroids = kMeans(sample, Math.max(Math.min(listCount, sample.length), 1), iterations, random);
+
+        // sub-quantizers are trained on residuals, as they encode residuals
+        for (final float[] vector : sample) {
+            subtract(vector, centroids[nearest(centroids, vector, 0)]);
+        }
+
+        final int subquantizers = subquantizers(dimensions, parameters.getSubquantizers());
+        final int subDimensions = dimensions / subquantizers;
+        final int codebookSize = Math.min(CODEBOOK_SIZE, sample.length);
+        final float[][][] codebooks = new float[subquantizers][][];
+        for (int j = 0; j < subquantizers; j++) {
+            codebooks[j] = kMeans(slice(sample, j * subDimensions, subDimensions), codebookSize, iterations, random);
+        }
+
+        final IvfPqIndex index = new IvfPqIndex(centroids, codebooks, snapshot);
+        for (int from = 0; from < size; from += LOAD_BATCH_SIZE) {
+            final int[] batch = Arrays.copyOfRange(liveRows, from, Math.min(from + LOAD_BATCH_SIZE, size));
+            final float[][] rows = rows(snapshot, batch);
+            final int[] assignments = new int[rows.length];
+            final byte[][] codes = new byte[rows.length][];
+            IntStream.range(0, rows.length).parallel().forEach(i -> {
+                assignments[i] = nearest(centroids, rows[i], 0);
+                codes[i] = index.encode(rows[i], centroids[assignments[i]]);
+            });
+
+            for (int i = 0; i < rows.length; i++) {
+                index.append(batch[i], assignments[i], codes[i]);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Number of indexed embeddings.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rows are re-ranked by the shared snapshot, so it is not accounted.
+     */
+    @Override
+    public long estimateSize() {
+        lock.readLock().lock();
+        try {
+            long bytes = (long) Integer.BYTES * (rowLists.length + rowPositions.length)
+                    + (long) Float.BYTES * centroids.length * centroids[0].length
+                    + (long) Float.BYTES * subquantizers * CODEBOOK_SIZE * subDimensions;
+            for (final InvertedList list : lists) {
+                bytes += (long) Integer.BYTES * list.rows.length + list.codes.length;
+            }
+
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate k nearest neighbours of the query. Only embeddings of the probed lists are considered, so less than
+     * k neighbours may be returned.
+     *
+     * @param query  normalized embedding to search for
+     * @param k      maximum number of neighbours to return
+     * @param probes number of the nearest inverted lists to scan
+     * @param rerank number of the best approximate candidates to re-rank by the exact distance, 0 disables re-ranking
+     * @return nearest neighbours, nearest first
+     */
+    public List<NearestNeighbour> search(final float[] query, final int k, final int probes, final int rerank) {
+        lock.readLock().lock();
+        try {
+            if (liveCount == 0 || k <= 0) {
+                return List.of();
+            }
+
+            final double[] coarseScores = new double[centroids.length];
+            for (int i = 0; i < centroids.length; i++) {
+                coarseScores[i] = -distance(centroids[i], query, 0);
+            }
+            final int[] probed = TopKSelector.topIndexes(coarseScores, Math.max(probes, 1));
+
+            int candidateCount = 0;
+            for (final int list : probed) {
+                candidateCount += lists[list].size;
+            }
+
+            // scores are negated (approximate) squared distances, so that the highest score is the nearest candidate
+            final double[] scores = new double[candidateCount];
+            final int[] rows = new int[candidateCount];
+            final float[] residual = new float[query.length];
+            final float[] table = new float[subquantizers * CODEBOOK_SIZE];
+            int candidate = 0;
+            for (final int list : probed) {
+                System.arraycopy(query, 0, residual, 0, query.length);
+                subtract(residual, centroids[list]);
+                fillDistanceTable(residual, table);
+                candidate = scan(lists[list], table, scores, rows, candidate);
+            }
+
+            if (rerank <= 0) {
+                return toNeighbours(TopKSelector.topIndexes(scores, k), scores, rows);
+            }
+
+            final int[] best = TopKSelector.topIndexes(scores, Math.max(rerank, k));
+            final int[] bestRows = new int[best.length];
+            for (int i = 0; i < best.length; i++) {
+                bestRows[i] = rows[best[i]];
+            }
+
+            final float[][] vectors = snapshot.getRows(bestRows).toFloatMatrix();
+            final double[] exactScores = new double[best.length];
+            for (int i = 0; i < best.length; i++) {
+                exactScores[i] = -distance(vectors[i], query, 0);
+            }
+
+            return toNeighbours(TopKSelector.topIndexes(exactScores, k), exactScores, bestRows);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(final int row, final EmbeddingProjection projection, final double[] embedding, final EmbeddingSnapshot snapshot) {
+        final float[] vector = new float[embedding.length];
+        for (int i = 0; i < embedding.length; i++) {
+            vector[i] = (float) embedding[i];
+        }
+
+        lock.writeLock().lock();
+        try {
+            final int list = nearest(centroids, vector, 0);
+            append(row, list, encode(vector, centroids[list]));
+            this.snapshot = snapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(final int row, final EmbeddingProjection projection, final EmbeddingSnapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            if (row >= rowLists.length || rowLists[row] < 0) {
+                return;
+            }
+
+            final int position = rowPositions[row];
+            final int movedRow = lists[rowLists[row]].removeAt(position);
+            if (movedRow >= 0) {
+                rowPositions[movedRow] = position;
+            }
+
+            // collection does not shift rows, removed row is just not referenced anymore
+            rowLists[row] = -1;
+            liveCount--;
+
+            this.snapshot = snapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void rename(
+            final int row,
+            final EmbeddingProjection oldProjection,
+            final EmbeddingProjection newProjection,
+            final EmbeddingSnapshot snapshot
+    ) {
+        lock.writeLock().lock();
+        try {
+            // projections are taken from the snapshot, rows are not changed
+            this.snapshot = snapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void compact(final int[] rows, final EmbeddingSnapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            // entries of the removed rows are already dropped, so only the remaining rows are renumbered
+            rowLists = new int[Math.max(snapshot.rows(), INITIAL_CAPACITY)];
+            rowPositions = new int[rowLists.length];
+            Arrays.fill(rowLists, -1);
+            for (int list = 0; list < lists.length; list++) {
+                final InvertedList invertedList = lists[list];
+                for (int position = 0; position < invertedList.size; position++) {
+                    final int row = rows[invertedList.rows[position]];
+                    invertedList.rows[position] = row;
+                    rowLists[row] = list;
+                    rowPositions[row] = position;
+                }
+            }
+
+            this.snapshot = snapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(final int row, final int list, final byte[] code) {
+        final int position = lists[list].add(row, code);
+
+        if (row >= rowLists.length) {
+            final int capacity = Math.max(rowLists.length * 2, row + 1);
+            final int previous = rowLists.length;
+            rowLists = Arrays.copyOf(rowLists, capacity);
+            rowPositions = Arrays.copyOf(rowPositions, capacity);
+            Arrays.fill(rowLists, previous, capacity, -1);
+        }
+        rowLists[row] = list;
+        rowPositions[row] = position;
+        liveCount++;
+    }
+
+    private byte[] encode(final float[] vector, final float[] centroid) {
+        final float[] residual = vector.clone();
+        subtract(residual, centroid);
+
+        final byte[] code = new byte[subquantizers];
+        for (int j = 0; j < subquantizers; j++) {
+            code[j] = (byte) nearest(codebooks[j], residual, j * subDimensions);
+        }
+
+        return code;
+    }
+
+    /**
+     * Precomputes squared distances between each sub-vector of the query residual and each sub-centroid, so that
+     * approximate distance to an encoded embedding is a sum of {@code subquantizers} table lookups.
+     */
+    private void fillDistanceTable(final float[] residual, final float[] table) {
+        for (int j = 0; j < subquantizers; j++) {
+            final float[][] codebook = codebooks[j];
+            for (int code = 0; code < codebook.length; code++) {
+                table[j * CODEBOOK_SIZE + code] = distance(codebook[code], residual, j * subDimensions);
+            }
+        }
+    }
+
+    private int scan(final InvertedList list, final float[] table, final double[] scores, final int[] rows, int candidate) {
+        final byte[] codes = list.codes;
+        for (int entry = 0; entry < list.size; entry++) {
+            final int offset = entry * subquantizers;
+            float distance = 0;
+            for (int j = 0; j < subquantizers; j++) {
+                distance += table[j * CODEBOOK_SIZE + (codes[offset + j] & 0xFF)];
+            }
+
+            scores[candidate] = -distance;
+            rows[candidate] = list.rows[entry];
+            candidate++;
+        }
+
+        return candidate;
+    }
+
+    private List<NearestNeighbour> toNeighbours(final int[] indexes, final double[] scores, final int[] rows) {
+        final List<NearestNeighbour> result = new ArrayList<>(indexes.length);
+        for (final int index : indexes) {
+            result.add(new NearestNeighbour(snapshot.getProjection(rows[index]), Math.sqrt(Math.max(-scores[index], 0))));
+        }
+
+        return result;
+    }
+
+    private static float[][] sample(final EmbeddingSnapshot snapshot, final int[] liveRows, final int sampleSize, final Random random) {
+        if (sampleSize >= liveRows.length) {
+            return rows(snapshot, liveRows);
+        }
+
+        final int[] sampled = distinctRandom(liveRows.length, sampleSize, random);
+        for (int i = 0; i < sampled.length; i++) {
+            sampled[i] = liveRows[sampled[i]];
+        }
+
+        return rows(snapshot, sampled);
+    }
+
+    private static float[][] rows(final EmbeddingSnapshot snapshot, final int[] rows) {
+        return snapshot.getRows(rows).toFloatMatrix();
+    }
+
+    /**
+     * Lloyd's k-means, initialized by random distinct points. Empty clusters are re-initialized by random points.
+     */
+    private static float[][] kMeans(final float[][] data, final int k, final int iterations, final Random random) {
+        final int dimensions = data[0].length;
+        final float[][] centroids = new float[k][];
+        final int[] initial = distinctRandom(data.length, k, random);
+        for (int c = 0; c < k; c++) {
+            centroids[c] = data[initial[c]].clone();
+        }
+
+        final int[] assignments = new int[data.length];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            IntStream.range(0, data.length)
+                     .parallel()
+                     .forEach(i -> assignments[i] = nearest(centroids, data[i], 0));
+
+            final float[][] sums = new float[k][dimensions];
+            final int[] counts = new int[k];
+            for (int i = 0; i < data.length; i++) {
+                final float[] sum = sums[assignments[i]];
+                for (int d = 0; d < dimensions; d++) {
+                    sum[d] += data[i][d];
+                }
+                counts[assignments[i]]++;
+            }
+
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    centroids[c] = data[random.nextInt(data.length)].clone();
+                    continue;
+                }
+
+                for (int d = 0; d < dimensions; d++) {
+                    centroids[c][d] = sums[c][d] / counts[c];
+                }
+            }
+        }
+
+        return centroids;
+    }
+
+    /**
+     * Floyd's sampling of k distinct values out of [0, n).
+     */
+    private static int[] distinctRandom(final int n, final int k, final Random random) {
+        final Set<Integer> selected = new HashSet<>(k * 2);
+        for (int j = n - k; j < n; j++) {
+            final int value = random.nextInt(j + 1);
+            selected.add(selected.contains(value) ? j : value);
+        }
+
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static float[][] slice(final float[][] data, final int offset, final int length) {
+        final float[][] result = new float[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = Arrays.copyOfRange(data[i], offset, offset + length);
+        }
+
+        return result;
+    }
+
+    /**
+     * The highest number of sub-vectors, not greater than requested, embedding can be evenly split into.
+     */
+    private static int subquantizers(final int dimensions, final int requested) {
+        for (int subquantizers = Math.min(requested, dimensions); subquantizers > 1; subquantizers--) {
+            if (dimensions % subquantizers == 0) {
+                return subquantizers;
+            }
+        }
+
+        return 1;
+    }
+
+    /**
+     * Index of the nearest of the centroids to the slice of the vector, starting at the offset.
+     */
+    private static int nearest(final float[][] centroids, final float[] vector, final int offset) {
+        int nearest = 0;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids.length; c++) {
+            final float distance = distance(centroids[c], vector, offset);
+            if (distance < nearestDistance) {
+                nearest = c;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Squared euclidean distance between the centroid and the slice of the vector, starting at the offset.
+     */
+    private static float distance(final float[] centroid, final float[] vector, final int offset) {
+        float sum = 0;
+        for (int i = 0; i < centroid.length; i++) {
+            final float diff = centroid[i] - vector[offset + i];
+            sum += diff * diff;
+        }
+
+        return sum;
+    }
+
+    private static void subtract(final float[] vector, final float[] centroid) {
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] -= centroid[i];
+        }
+    }
+
+    /**
+     * Rows and codes of the embeddings, assigned to one coarse centroid. Codes of an entry are stored contiguously.
+     */
+    private static final class InvertedList {
+
+        private final int codeSize;
+        private int[] rows = new int[INITIAL_CAPACITY];
+        private byte[] codes;
+        private int size;
+
+        private InvertedList(final int codeSize) {
+            this.codeSize = codeSize;
+            this.codes = new byte[INITIAL_CAPACITY * codeSize];
+        }
+
+        private int add(final int row, final byte[] code) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                codes = Arrays.copyOf(codes, size * 2 * codeSize);
+            }
+
+            rows[size] = row;
+            System.arraycopy(code, 0, codes, size * codeSize, codeSize);
+
+            return size++;
+        }
+
+        /**
+         * Removes entry by moving the last entry in its place.
+         *
+         * @return row of the moved entry, or -1 if the removed entry was the last one
+         */
+        private int removeAt(final int position) {
+            final int last = --size;
+            if (position == last) {
+                return -1;
+            }
+
+            rows[position] = rows[last];
+            System.arraycopy(codes, last * codeSize, codes, position * codeSize, codeSize);
+
+            return rows[position];
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import lombok.Data;
+
+/**
+ * Parameters of {@link IvfPqIndex}. More lists, probes and re-ranked candidates give better recall, but cost more time.
+ */
+@Data
+public class IvfPqParameters {
+
+    /**
+     * Number of coarse centroids (inverted lists), 0 means square root of the collection size.
+     */
+    private int lists = 0;
+
+    /**
+     * Number of sub-vectors each embedding is split into, each sub-vector is encoded by one byte.
+     * If embedding size is not divisible by it, the closest lower divisor is used.
+     */
+    private int subquantizers = 16;
+
+    /**
+     * Number of the nearest inverted lists, scanned by each search.
+     */
+    private int probes = 8;
+
+    /**
+     * Number of the best approximate candidates, re-ranked by the exact distance, 0 disables re-ranking.
+     */
+    private int rerank = 64;
+
+    /**
+     * Maximum number of embeddings, quantizers are trained on.
+     */
+    private int trainingSampleSize = 20_000;
+
+    /**
+     * Number of k-means iterations while quantizers are trained.
+     */
+    private int trainingIterations = 10;
+
+    /**
+     * Minimum collection size the index is built for, smaller collections are searched exactly.
+     */
+    private int minTrainingSize = 10_000;
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import com.exadel.frs.core.trainservice.cache.EmbeddingSnapshot;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Exact scoring of a query against all the rows of a snapshot in plain Java, without ND4J operations (so without
+ * native buffer allocations and JNI calls per query). Segments are read in place, through direct buffer views.
+ * <p>
+ * Rows are processed in blocks: a block is bulk copied into a reusable on-heap array, then four rows are scored
+ * at once, so that each query value is loaded once per four rows. Similarity transform
+ * {@code (tanh((c0 - distance) * c1) + 1) / 2} is applied in the same pass, right after the distance.
+ * <p>
+ * NOTE: it is a scalar implementation, JIT compiles it to straight loops, vector API is not available on Java 11.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class JavaScoringKernel {
+
+    private static final int BLOCK_ROWS = 64;
+
+    /**
+     * @param query        embedding, scored against the rows
+     * @param snapshot     rows to score, dead rows are scored as well
+     * @param coefficient0 similarity transform offset
+     * @param coefficient1 similarity transform scale
+     * @return similarity of each row of the snapshot
+     */
+    public static double[] similarities(final double[] query, final EmbeddingSnapshot snapshot,
+                                        final double coefficient0, final double coefficient1) {
+        final double[] result = new double[snapshot.rows()];
+        final float[] floatQuery = snapshot.dataType() == DataType.FLOAT ? toFloat(query) : null;
+
+        for (int segment = 0; segment < snapshot.segmentCount(); segment++) {
+            final INDArray rows = contiguous(snapshot.getSegment(segment));
+            final int offset = snapshot.segmentOffset(segment);
+
+            if (floatQuery != null) {
+                scoreFloat(floatQuery, floatBuffer(rows), (int) rows.rows(), result, offset,
+                        coefficient0, coefficient1);
+            } else {
+                scoreDouble(query, doubleBuffer(rows), (int) rows.rows(), result, offset,
+                        coefficient0, coefficient1);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Same transform as {@link EuclideanDistanceClassifier#calculateSimilarities}, for a single distance.
+     */
+    static double similarity(final double distance, final double coefficient0, final double coefficient1) {
+        return (Math.tanh((coefficient0 - distance) * coefficient1) + 1) / 2;
+    }
+
+    private static void scoreDouble(final double[] query, final DoubleBuffer rows, final int rowCount,
+                                    final double[] similarities, final int offset,
+                                    final double coefficient0, final double coefficient1) {
+        final int dimensions = query.length;
+        final double[] block = new double[BLOCK_ROWS * dimensions];
+
+        for (int from = 0; from < rowCount; from += BLOCK_ROWS) {
+            final int blockRows = Math.min(BLOCK_ROWS, rowCount - from);
+            rows.get(block, 0, blockRows * dimensions);
+
+            int row = 0;
+            for (; row + 3 < blockRows; row += 4) {
+                final int base0 = row * dimensions;
+                final int base1 = base0 + dimensions;
+                final int base2 = base1 + dimensions;
+                final int base3 = base2 + dimensions;
+                double sum0 = 0;
+                double sum1 = 0;
+                double sum2 = 0;
+                double sum3 = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    final double value = query[d];
+                    final double diff0 = value - block[base0 + d];
+                    final double diff1 = value - block[base1 + d];
+                    final double diff2 = value - block[base2 + d];
+                    final double diff3 = value - block[base3 + d];
+                    sum0 += diff0 * diff0;
+                    sum1 += diff1 * diff1;
+                    sum2 += diff2 * diff2;
+                    sum3 += diff3 * diff3;
+                }
+                similarities[offset + from + row] = similarity(Math.sqrt(sum0), coefficient0, coefficient1);
+                similarities[offset + from + row + 1] = similarity(Math.sqrt(sum1), coefficient0, coefficient1);
+                similarities[offset + from + row + 2] = similarity(Math.sqrt(sum2), coefficient0, coefficient1);
+                similarities[offset + from + row + 3] = similarity(Math.sqrt(sum3), coefficient0, coefficient1);
+            }
+            for (; row < blockRows; row++) {
+                final int base = row * dimensions;
+                double sum = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    final double diff = query[d] - block[base + d];
+                    sum += diff * diff;
+                }
+                similarities[offset + from + row] = similarity(Math.sqrt(sum), coefficient0, coefficient1);
+            }
+        }
+    }
+
+    private static void scoreFloat(final float[] query, final FloatBuffer rows, final int rowCount,
+                                   final double[] similarities, final int offset,
+                                   final double coefficient0, final double coefficient1) {
+        final int dimensions = query.length;
+        final float[] block = new float[BLOCK_ROWS * dimensions];
+
+        for (int from = 0; from < rowCount; from += BLOCK_ROWS) {
+            final int blockRows = Math.min(BLOCK_ROWS, rowCount - from);
+            rows.get(block, 0, blockRows * dimensions);
+
+            int row = 0;
+            for (; row + 3 < blockRows; row += 4) {
+                final int base0 = row * dimensions;
+                final int base1 = base0 + dimensions;
+                final int base2 = base1 + dimensions;
+                final int base3 = base2 + dimensions;
+                float sum0 = 0;
+                float sum1 = 0;
+                float sum2 = 0;
+                float sum3 = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    final float value = query[d];
+                    final float diff0 = value - block[base0 + d];
+                    final float diff1 = value - block[base1 + d];
+                    final float diff2 = value - block[base2 + d];
+                    final float diff3 = value - block[base3 + d];
+                    sum0 += diff0 * diff0;
+                    sum1 += diff1 * diff1;
+                    sum2 += diff2 * diff2;
+                    sum3 += diff3 * diff3;
+                }
+                similarities[offset + from + row] = similarity(Math.sqrt(sum0), coefficient0, coefficient1);
+                similarities[offset + from + row + 1] = similarity(Math.sqrt(sum1), coefficient0, coefficient1);
+                similarities[offset + from + row + 2] = similarity(Math.sqrt(sum2), coefficient0, coefficient1);
+                similarities[offset + from + row + 3] = similarity(Math.sqrt(sum3), coefficient0, coefficient1);
+            }
+            for (; row < blockRows; row++) {
+                final int base = row * dimensions;
+                float sum = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    final float diff = query[d] - block[base + d];
+                    sum += diff * diff;
+                }
+                similarities[offset + from + row] = similarity(Math.sqrt(sum), coefficient0, coefficient1);
+            }
+        }
+    }
+
+    /**
+     * Segments are stored row-major, a view of their first rows is contiguous as well, anything else is copied.
+     */
+    private static INDArray contiguous(final INDArray rows) {
+        if (rows.ordering() == 'c' && rows.elementWiseStride() == 1) {
+            return rows;
+        }
+
+        return rows.dup('c');
+    }
+
+    private static DoubleBuffer doubleBuffer(final INDArray rows) {
+        final DoubleBuffer buffer = rows.data().asNio().order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        buffer.position((int) rows.offset());
+
+        return buffer;
+    }
+
+    private static FloatBuffer floatBuffer(final INDArray rows) {
+        final FloatBuffer buffer = rows.data().asNio().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.position((int) rows.offset());
+
+        return buffer;
+    }
+
+    private static float[] toFloat(final double[] vector) {
+        final float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+
+        return result;
+    }
+}
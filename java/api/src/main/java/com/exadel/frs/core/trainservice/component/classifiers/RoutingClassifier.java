@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import com.exadel.frs.core.trainservice.system.global.ClassifierProperties;
+import java.util.List;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+/**
+ * Delegates to the classifier, configured for the model (see {@link ClassifierProperties}).
+ */
+@Primary
+@Component
+@RequiredArgsConstructor
+public class RoutingClassifier implements Classifier {
+
+    private final EuclideanDistanceClassifier euclideanDistanceClassifier;
+    private final HnswClassifier hnswClassifier;
+    private final IvfPqClassifier ivfPqClassifier;
+    private final ClassifierProperties classifierProperties;
+
+    @Override
+    public List<Pair<Double, String>> predict(final double[] input, final String apiKey, final int resultCount) {
+        return getClassifier(apiKey).predict(input, apiKey, resultCount);
+    }
+
+    @Override
+    public List<List<Pair<Double, String>>> predictAll(final double[][] inputs, final String apiKey, final int resultCount) {
+        return getClassifier(apiKey).predictAll(inputs, apiKey, resultCount);
+    }
+
+    @Override
+    public Double verify(final double[] input, final String apiKey, final UUID embeddingId) {
+        return getClassifier(apiKey).verify(input, apiKey, embeddingId);
+    }
+
+    @Override
+    public double[] verify(final double[] sourceImageEmbedding, final double[][] targetImageEmbedding) {
+        return euclideanDistanceClassifier.verify(sourceImageEmbedding, targetImageEmbedding);
+    }
+
+    private Classifier getClassifier(final String apiKey) {
+        switch (classifierProperties.getType(apiKey)) {
+            case HNSW:
+                return hnswClassifier;
+            case IVF_PQ:
+                return ivfPqClassifier;
+            case EUCLIDEAN:
+            default:
+                return euclideanDistanceClassifier;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+/**
+ * Implementation of the exact scoring of {@link EuclideanDistanceClassifier}, both of them produce the same scores.
+ */
+public enum ScoringKernel {
+
+    /**
+     * Matrix operations of ND4J (native BLAS).
+     */
+    ND4J,
+
+    /**
+     * Plain Java loops over the segments, the similarity transform is fused into the distance pass,
+     * see {@link JavaScoringKernel}.
+     */
+    JAVA
+}
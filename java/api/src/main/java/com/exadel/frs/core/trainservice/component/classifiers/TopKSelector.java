@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Partial selection of the highest values, bounded min-heap of primitive indexes is used, so selection of k values
+ * out of n costs O(n log k) and does not allocate anything per candidate.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class TopKSelector {
+
+    /**
+     * Selects indexes of the k highest values.
+     *
+     * @param values values to select from
+     * @param k      maximum number of indexes to select
+     * @return indexes of the highest values, highest value index first (lower index first for equal values)
+     */
+    public static int[] topIndexes(final double[] values, final int k) {
+        final int size = Math.min(Math.max(k, 0), values.length);
+        final int[] heap = new int[size];
+
+        if (size == 0) {
+            return heap;
+        }
+
+        // heap root is the 'worst' of the selected indexes
+        for (int i = 0; i < size; i++) {
+            heap[i] = i;
+            siftUp(values, heap, i);
+        }
+
+        for (int i = size; i < values.length; i++) {
+            if (isWorse(values, heap[0], i)) {
+                heap[0] = i;
+                siftDown(values, heap, 0, size);
+            }
+        }
+
+        // in-place heap sort, each extracted 'worst' index goes to the end of the array
+        for (int last = size - 1; last > 0; last--) {
+            swap(heap, 0, last);
+            siftDown(values, heap, 0, last);
+        }
+
+        return heap;
+    }
+
+    private static void siftUp(final double[] values, final int[] heap, int position) {
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (!isWorse(values, heap[position], heap[parent])) {
+                return;
+            }
+            swap(heap, position, parent);
+            position = parent;
+        }
+    }
+
+    private static void siftDown(final double[] values, final int[] heap, int position, final int size) {
+        while (true) {
+            final int left = 2 * position + 1;
+            if (left >= size) {
+                return;
+            }
+
+            final int right = left + 1;
+            final int worstChild = right < size && isWorse(values, heap[right], heap[left]) ? right : left;
+            if (!isWorse(values, heap[worstChild], heap[position])) {
+                return;
+            }
+
+            swap(heap, position, worstChild);
+            position = worstChild;
+        }
+    }
+
+    private static boolean isWorse(final double[] values, final int index1, final int index2) {
+        final int compared = Double.compare(values[index1], values[index2]);
+
+        return compared < 0 || (compared == 0 && index1 > index2);
+    }
+
+    private static void swap(final int[] heap, final int i, final int j) {
+        final int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    /**
+     * Incremental selection of the highest values, for values which are not available at once (e.g. scored block
+     * by block). Ties are broken the same way as by {@link #topIndexes(double[], int)}. Selected values are sorted
+     * once they are read, nothing is offered afterwards.
+     */
+    public static final class Accumulator {
+
+        private final double[] values;
+        private final int[] indexes;
+        private int size;
+        private boolean sorted;
+
+        /**
+         * @param k maximum number of values to select
+         */
+        public Accumulator(final int k) {
+            values = new double[Math.max(k, 0)];
+            indexes = new int[values.length];
+        }
+
+        public void offer(final double value, final int index) {
+            if (size < values.length) {
+                values[size] = value;
+                indexes[size] = index;
+                siftUp(size++);
+            } else if (size > 0 && isWorse(values[0], indexes[0], value, index)) {
+                values[0] = value;
+                indexes[0] = index;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * @return number of selected values
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return index of the selected value at the given position, highest value first
+         */
+        public int getIndex(final int position) {
+            sort();
+            return indexes[position];
+        }
+
+        /**
+         * @return selected value at the given position, highest value first
+         */
+        public double getValue(final int position) {
+            sort();
+            return values[position];
+        }
+
+        private void sort() {
+            if (sorted) {
+                return;
+            }
+
+            for (int last = size - 1; last > 0; last--) {
+                swap(0, last);
+                siftDown(0, last);
+            }
+            sorted = true;
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                final int parent = (position - 1) >>> 1;
+                if (!isWorse(values[position], indexes[position], values[parent], indexes[parent])) {
+                    return;
+                }
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position, final int size) {
+            while (true) {
+                final int left = 2 * position + 1;
+                if (left >= size) {
+                    return;
+                }
+
+                final int right = left + 1;
+                final int worstChild = right < size && isWorse(values[right], indexes[right], values[left], indexes[left])
+                        ? right
+                        : left;
+                if (!isWorse(values[worstChild], indexes[worstChild], values[position], indexes[position])) {
+                    return;
+                }
+
+                swap(position, worstChild);
+                position = worstChild;
+            }
+        }
+
+        private static boolean isWorse(final double value1, final int index1, final double value2, final int index2) {
+            final int compared = Double.compare(value1, value2);
+
+            return compared < 0 || (compared == 0 && index1 > index2);
+        }
+
+        private void swap(final int i, final int j) {
+            final double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+
+            final int index = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = index;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.exadel.frs.core.trainservice.dto.*;
 import com.exadel.frs.core.trainservice.mapper.EmbeddingMapper;
 import com.exadel.frs.core.trainservice.mapper.FacesMapper;
 import com.exadel.frs.core.trainservice.service.EmbeddingService;
+import com.exadel.frs.core.trainservice.service.EnrollmentBatchService;
 import com.exadel.frs.core.trainservice.service.SubjectService;
 import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -45,6 +46,7 @@ public class EmbeddingController {
 
     private final EmbeddingService embeddingService;
     private final SubjectService subjectService;
+    private final EnrollmentBatchService enrollmentBatchService;
     private final ImageExtensionValidator imageValidator;
     private final EmbeddingMapper embeddingMapper;
     private final FacesMapper facesMapper;
@@ -90,6 +92,41 @@ public class EmbeddingController {
         return new EmbeddingDto(pair.getRight().getId().toString(), subjectName);
     }
 
+    /**
+     * Adds many faces at once, results are returned in the order of the images, each of them is either the saved
+     * embedding or an error.
+     */
+    @WriteEndpoint
+    @ResponseStatus(CREATED)
+    @PostMapping(value = "/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public List<BatchEnrollmentResultDto> addEmbeddings(
+            @ApiParam(value = ENROLLMENT_ARCHIVE_DESC, required = true) @RequestParam final MultipartFile file,
+            @ApiParam(value = DET_PROB_THRESHOLD_DESC) @RequestParam(value = DET_PROB_THRESHOLD, required = false) final Double detProbThreshold,
+            @ApiParam(value = API_KEY_DESC, required = true) @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey
+    ) throws IOException {
+        return enrollmentBatchService.enroll(
+                apiKey,
+                enrollmentBatchService.readArchive(file.getInputStream()),
+                detProbThreshold
+        );
+    }
+
+    @WriteEndpoint
+    @ResponseStatus(CREATED)
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public List<BatchEnrollmentResultDto> addEmbeddingsBase64(
+            @ApiParam(value = API_KEY_DESC, required = true) @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey,
+            @ApiParam(value = DET_PROB_THRESHOLD_DESC) @RequestParam(value = DET_PROB_THRESHOLD, required = false) final Double detProbThreshold,
+            @RequestBody List<@Valid EnrollmentBase64File> request) {
+        return enrollmentBatchService.enroll(
+                apiKey,
+                request.stream()
+                       .map(image -> new EnrollmentBatchService.Item(image.getSubjectName(), null, image.getContent()))
+                       .collect(Collectors.toList()),
+                detProbThreshold
+        );
+    }
+
     @GetMapping(value = "/{embeddingId}/img", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
     public @ResponseBody
     byte[] downloadImg(HttpServletResponse response,
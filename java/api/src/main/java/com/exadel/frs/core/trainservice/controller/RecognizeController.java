@@ -17,19 +17,31 @@
 package com.exadel.frs.core.trainservice.controller;
 
 import com.exadel.frs.core.trainservice.dto.Base64File;
+import com.exadel.frs.core.trainservice.dto.BatchRecognitionResultDto;
+import com.exadel.frs.core.trainservice.dto.EmbeddingsRecognitionRequest;
+import com.exadel.frs.core.trainservice.dto.EmbeddingsRecognitionResponseDto;
 import com.exadel.frs.core.trainservice.dto.FacesRecognitionResponseDto;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
-import com.exadel.frs.core.trainservice.service.FaceProcessService;
+import com.exadel.frs.core.trainservice.service.FaceRecognizeBatchService;
+import com.exadel.frs.core.trainservice.service.FaceRecognizeProcessService;
+import com.exadel.frs.core.trainservice.system.global.RecognitionBatchProperties;
 import io.swagger.annotations.ApiParam;
 import lombok.RequiredArgsConstructor;
+import lombok.val;
 import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Min;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static com.exadel.frs.commonservice.system.global.Constants.DET_PROB_THRESHOLD;
 import static com.exadel.frs.core.trainservice.system.global.Constants.*;
@@ -40,10 +52,12 @@ import static com.exadel.frs.core.trainservice.system.global.Constants.*;
 @Validated
 public class RecognizeController {
 
-    private final FaceProcessService recognitionService;
+    private final FaceRecognizeProcessService recognitionService;
+    private final FaceRecognizeBatchService recognizeBatchService;
+    private final RecognitionBatchProperties recognitionBatchProperties;
 
     @PostMapping(value = "/recognition/recognize", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public FacesRecognitionResponseDto recognize(
+    public CompletableFuture<FacesRecognitionResponseDto> recognize(
             @ApiParam(value = API_KEY_DESC, required = true)
             @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey,
             @ApiParam(value = IMAGE_FILE_DESC, required = true)
@@ -72,11 +86,11 @@ public class RecognizeController {
                 .additionalParams(Collections.singletonMap(PREDICTION_COUNT, predictionCount))
                 .build();
 
-        return (FacesRecognitionResponseDto) recognitionService.processImage(processImageParams);
+        return recognitionService.processImageAsync(processImageParams);
     }
 
     @PostMapping(value = "/recognition/recognize", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public FacesRecognitionResponseDto recognizeBase64(
+    public CompletableFuture<FacesRecognitionResponseDto> recognizeBase64(
             @ApiParam(value = API_KEY_DESC, required = true) @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey,
             @ApiParam(value = LIMIT_DESC) @RequestParam(defaultValue = LIMIT_DEFAULT_VALUE, required = false) @Min(value = 0, message = LIMIT_MIN_DESC) final Integer limit,
             @ApiParam(value = DET_PROB_THRESHOLD_DESC) @RequestParam(value = DET_PROB_THRESHOLD, required = false) final Double detProbThreshold,
@@ -96,6 +110,109 @@ public class RecognizeController {
                 .additionalParams(Collections.singletonMap(PREDICTION_COUNT, predictionCount))
                 .build();
 
-        return (FacesRecognitionResponseDto) recognitionService.processImage(processImageParams);
+        return recognitionService.processImageAsync(processImageParams);
+    }
+
+    /**
+     * Recognizes embeddings, calculated by the client with the same model, the calculator is not called.
+     */
+    @PostMapping(value = "/recognition/recognize/embeddings", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public EmbeddingsRecognitionResponseDto recognizeEmbeddings(
+            @ApiParam(value = API_KEY_DESC, required = true) @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey,
+            @ApiParam(value = CALCULATOR_DESC, required = true) @RequestParam(value = CALCULATOR) final String calculator,
+            @ApiParam(value = PREDICTION_COUNT_DESC) @RequestParam(value = PREDICTION_COUNT_REQUEST_PARAM, required = false, defaultValue = PREDICTION_COUNT_DEFAULT_VALUE) @Min(value = 1, message = PREDICTION_COUNT_MIN_DESC) final Integer predictionCount,
+            @RequestBody @Valid final EmbeddingsRecognitionRequest request) {
+
+        return recognitionService.recognizeEmbeddings(apiKey, calculator, request.getEmbeddings(), predictionCount);
+    }
+
+    @PostMapping(value = "/recognition/recognize/embeddings", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public EmbeddingsRecognitionResponseDto recognizeEmbeddingsBinary(
+            @ApiParam(value = API_KEY_DESC, required = true) @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey,
+            @ApiParam(value = CALCULATOR_DESC, required = true) @RequestParam(value = CALCULATOR) final String calculator,
+            @ApiParam(value = DIMENSION_DESC, required = true) @RequestParam(value = DIMENSION) @Min(value = 1, message = DIMENSION_MIN_DESC) final Integer dimension,
+            @ApiParam(value = PREDICTION_COUNT_DESC) @RequestParam(value = PREDICTION_COUNT_REQUEST_PARAM, required = false, defaultValue = PREDICTION_COUNT_DEFAULT_VALUE) @Min(value = 1, message = PREDICTION_COUNT_MIN_DESC) final Integer predictionCount,
+            @ApiParam(value = EMBEDDINGS_BINARY_DESC, required = true) @RequestBody final byte[] embeddings) {
+
+        return recognitionService.recognizeEmbeddings(apiKey, calculator, embeddings, dimension, predictionCount);
+    }
+
+    /**
+     * Recognizes many images at once, results are streamed back as newline delimited JSON, one line per image
+     * (with its index in the request), in the order they are ready.
+     */
+    @PostMapping(value = "/recognition/recognize/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseBodyEmitter recognizeBatch(
+            @ApiParam(value = API_KEY_DESC, required = true) @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey,
+            @ApiParam(value = IMAGE_FILES_DESC, required = true) @RequestParam final List<MultipartFile> files,
+            @ApiParam(value = LIMIT_DESC) @RequestParam(defaultValue = LIMIT_DEFAULT_VALUE, required = false) @Min(value = 0, message = LIMIT_MIN_DESC) final Integer limit,
+            @ApiParam(value = PREDICTION_COUNT_DESC) @RequestParam(value = PREDICTION_COUNT_REQUEST_PARAM, required = false, defaultValue = PREDICTION_COUNT_DEFAULT_VALUE) @Min(value = 1, message = PREDICTION_COUNT_MIN_DESC) final Integer predictionCount,
+            @ApiParam(value = DET_PROB_THRESHOLD_DESC) @RequestParam(value = DET_PROB_THRESHOLD, required = false) final Double detProbThreshold,
+            @ApiParam(value = FACE_PLUGINS_DESC) @RequestParam(value = FACE_PLUGINS, required = false, defaultValue = "") final String facePlugins,
+            @ApiParam(value = STATUS_DESC) @RequestParam(value = STATUS, required = false, defaultValue = STATUS_DEFAULT_VALUE) final Boolean status
+    ) {
+        return recognizeBatch(files.stream()
+                                   .map(file -> ProcessImageParams
+                                           .builder()
+                                           .apiKey(apiKey)
+                                           .file(file)
+                                           .limit(limit)
+                                           .detProbThreshold(detProbThreshold)
+                                           .facePlugins(facePlugins)
+                                           .status(status)
+                                           .additionalParams(Collections.singletonMap(PREDICTION_COUNT, predictionCount))
+                                           .build())
+                                   .collect(Collectors.toList()));
+    }
+
+    @PostMapping(value = "/recognition/recognize/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseBodyEmitter recognizeBatchBase64(
+            @ApiParam(value = API_KEY_DESC, required = true) @RequestHeader(X_FRS_API_KEY_HEADER) final String apiKey,
+            @ApiParam(value = LIMIT_DESC) @RequestParam(defaultValue = LIMIT_DEFAULT_VALUE, required = false) @Min(value = 0, message = LIMIT_MIN_DESC) final Integer limit,
+            @ApiParam(value = DET_PROB_THRESHOLD_DESC) @RequestParam(value = DET_PROB_THRESHOLD, required = false) final Double detProbThreshold,
+            @ApiParam(value = FACE_PLUGINS_DESC) @RequestParam(value = FACE_PLUGINS, required = false, defaultValue = "") final String facePlugins,
+            @ApiParam(value = STATUS_DESC) @RequestParam(value = STATUS, required = false, defaultValue = STATUS_DEFAULT_VALUE) final Boolean status,
+            @ApiParam(value = PREDICTION_COUNT_DESC) @RequestParam(value = PREDICTION_COUNT_REQUEST_PARAM, required = false, defaultValue = PREDICTION_COUNT_DEFAULT_VALUE) @Min(value = 1, message = PREDICTION_COUNT_MIN_DESC) Integer predictionCount,
+            @RequestBody List<@Valid Base64File> request) {
+
+        return recognizeBatch(request.stream()
+                                     .map(image -> ProcessImageParams
+                                             .builder()
+                                             .apiKey(apiKey)
+                                             .imageBase64(image.getContent())
+                                             .limit(limit)
+                                             .detProbThreshold(detProbThreshold)
+                                             .facePlugins(facePlugins)
+                                             .status(status)
+                                             .additionalParams(Collections.singletonMap(PREDICTION_COUNT, predictionCount))
+                                             .build())
+                                     .collect(Collectors.toList()));
+    }
+
+    private ResponseBodyEmitter recognizeBatch(final List<ProcessImageParams> images) {
+        val emitter = new ResponseBodyEmitter(recognitionBatchProperties.getTimeout().toMillis());
+        val completion = recognizeBatchService.recognize(images, result -> send(emitter, result));
+
+        // images, which are not sent to the calculator yet, are skipped
+        emitter.onTimeout(() -> completion.cancel(false));
+        completion.whenComplete((ignored, error) -> {
+            if (error == null) {
+                emitter.complete();
+            } else {
+                emitter.completeWithError(error);
+            }
+        });
+
+        return emitter;
+    }
+
+    private static void send(final ResponseBodyEmitter emitter, final BatchRecognitionResultDto result) {
+        try {
+            emitter.send(result, MediaType.APPLICATION_JSON);
+            emitter.send("\n", MediaType.TEXT_PLAIN);
+        } catch (IOException e) {
+            // client is gone, the rest of the batch is not needed
+            throw new UncheckedIOException(e);
+        }
     }
 }
\ No newline at end of file
@@ -13,11 +13,14 @@ import com.exadel.frs.commonservice.system.global.ImageProperties;
 import com.exadel.frs.core.trainservice.dto.EmbeddingInfo;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nullable;
 import javax.transaction.Transactional;
+import java.sql.Types;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -27,6 +30,7 @@ public class SubjectDao {
     private final EmbeddingRepository embeddingRepository;
     private final ImgRepository imgRepository;
     private final ImageProperties imageProperties;
+    private final JdbcTemplate jdbcTemplate;
 
     public Collection<String> getSubjectNames(final String apiKey) {
         return subjectRepository.getSubjectNames(apiKey);
@@ -171,6 +175,134 @@ public class SubjectDao {
         return Pair.of(subject, embedding);
     }
 
+    /**
+     * Same as {@link #addEmbedding(String, String, EmbeddingInfo)} for many embeddings at once. Subjects, images and
+     * embeddings are written with JDBC batch inserts, ids are generated here, so that nothing has to be read back.
+     *
+     * @param embeddings subject names with their embeddings, subjects are created if they don't exist yet
+     * @return saved embeddings in the same order, with their subjects
+     */
+    @Transactional
+    public List<Embedding> addEmbeddings(final String apiKey, final List<Pair<String, EmbeddingInfo>> embeddings) {
+        if (embeddings.isEmpty()) {
+            return List.of();
+        }
+
+        final Map<String, Subject> subjects = saveSubjects(
+                apiKey,
+                embeddings.stream().map(Pair::getLeft).collect(Collectors.toList())
+        );
+
+        final List<Embedding> saved = new ArrayList<>(embeddings.size());
+        final List<Img> images = new ArrayList<>();
+        for (final Pair<String, EmbeddingInfo> pair : embeddings) {
+            final EmbeddingInfo embeddingInfo = pair.getRight();
+            final Embedding embedding = new Embedding()
+                    .setId(UUID.randomUUID())
+                    .setSubject(subjects.get(subjectKey(pair.getLeft())))
+                    .setEmbedding(embeddingInfo.getEmbedding())
+                    .setCalculator(embeddingInfo.getCalculator());
+            if (embeddingInfo.getSource() != null && imageProperties.isSaveImagesToDB()) {
+                final Img img = new Img()
+                        .setId(UUID.randomUUID())
+                        .setContent(embeddingInfo.getSource());
+                images.add(img);
+                embedding.setImg(img);
+            }
+            saved.add(embedding);
+        }
+
+        if (!images.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO img (id, content) VALUES (?, ?)",
+                    images,
+                    images.size(),
+                    (ps, img) -> {
+                        ps.setObject(1, img.getId());
+                        ps.setBytes(2, img.getContent());
+                    }
+            );
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO embedding (id, subject_id, embedding, calculator, img_id) VALUES (?, ?, ?, ?, ?)",
+                saved,
+                saved.size(),
+                (ps, embedding) -> {
+                    ps.setObject(1, embedding.getId());
+                    ps.setObject(2, embedding.getSubject().getId());
+                    ps.setArray(3, ps.getConnection().createArrayOf(
+                            "float8",
+                            Arrays.stream(embedding.getEmbedding()).boxed().toArray()
+                    ));
+                    ps.setString(4, embedding.getCalculator());
+                    ps.setObject(5, embedding.getImg() == null ? null : embedding.getImg().getId(), Types.OTHER);
+                }
+        );
+
+        return saved;
+    }
+
+    /**
+     * Finds the subjects by their names, ignoring case, the missing ones are created.
+     *
+     * @return subjects by {@link #subjectKey(String)} of their names
+     */
+    private Map<String, Subject> saveSubjects(final String apiKey, final Collection<String> subjectNames) {
+        final Map<String, Subject> subjects = findSubjects(apiKey, subjectNames);
+
+        // the first spelling of a new subject name wins, as if the embeddings were added one by one
+        final Map<String, String> missing = new LinkedHashMap<>();
+        subjectNames.stream()
+                    .filter(subjectName -> !subjects.containsKey(subjectKey(subjectName)))
+                    .forEach(subjectName -> missing.putIfAbsent(subjectKey(subjectName), subjectName));
+        if (missing.isEmpty()) {
+            return subjects;
+        }
+
+        // subjects, created concurrently, are not overwritten, they are read back below
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO subject (id, api_key, subject_name) VALUES (?, ?, ?) ON CONFLICT DO NOTHING",
+                missing.values(),
+                missing.size(),
+                (ps, subjectName) -> {
+                    ps.setObject(1, UUID.randomUUID());
+                    ps.setString(2, apiKey);
+                    ps.setString(3, subjectName);
+                }
+        );
+        subjects.putAll(findSubjects(apiKey, missing.values()));
+
+        return subjects;
+    }
+
+    private Map<String, Subject> findSubjects(final String apiKey, final Collection<String> subjectNames) {
+        final Object[] keys = subjectNames.stream().map(SubjectDao::subjectKey).distinct().toArray();
+        final Map<String, Subject> subjects = new HashMap<>();
+        jdbcTemplate.query(
+                connection -> {
+                    final var ps = connection.prepareStatement(
+                            "SELECT id, subject_name FROM subject WHERE api_key = ? AND lower(subject_name) = ANY (?)"
+                    );
+                    ps.setString(1, apiKey);
+                    ps.setArray(2, connection.createArrayOf("text", keys));
+                    return ps;
+                },
+                rs -> {
+                    final var subject = new Subject()
+                            .setId(rs.getObject("id", UUID.class))
+                            .setApiKey(apiKey)
+                            .setSubjectName(rs.getString("subject_name"));
+                    subjects.putIfAbsent(subjectKey(subject.getSubjectName()), subject);
+                }
+        );
+
+        return subjects;
+    }
+
+    private static String subjectKey(final String subjectName) {
+        return subjectName.toLowerCase(Locale.ROOT);
+    }
+
     private Subject saveSubject(String apiKey, String subjectName) {
         var subject = new Subject()
                 .setApiKey(apiKey)
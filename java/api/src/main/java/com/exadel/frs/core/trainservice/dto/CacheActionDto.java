@@ -1,13 +1,15 @@
 package com.exadel.frs.core.trainservice.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import lombok.AllArgsConstructor;
+import java.util.List;
+import java.util.UUID;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class CacheActionDto {
     @JsonProperty("cacheAction")
     private String cacheAction;
@@ -15,4 +17,21 @@ public class CacheActionDto {
     private String apiKey;
     @JsonProperty("uuid")
     private String serverUUID;
+    // number of the change of the collection, made by the sending node, present only if the change is described below
+    @JsonProperty("sequence")
+    private Long sequence;
+    @JsonProperty("embeddings")
+    private List<UUID> embeddingIds;
+    @JsonProperty("removedSubject")
+    private String removedSubjectName;
+    @JsonProperty("oldSubject")
+    private String oldSubjectName;
+    @JsonProperty("newSubject")
+    private String newSubjectName;
+
+    public CacheActionDto(String cacheAction, String apiKey, String serverUUID) {
+        this.cacheAction = cacheAction;
+        this.apiKey = apiKey;
+        this.serverUUID = serverUUID;
     }
+}
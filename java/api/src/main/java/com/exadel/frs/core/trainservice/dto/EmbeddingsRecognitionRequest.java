@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiParam;
+import javax.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import static com.exadel.frs.core.trainservice.system.global.Constants.EMBEDDINGS_DESC;
+
+@Data
+public class EmbeddingsRecognitionRequest {
+
+    @JsonProperty("embeddings")
+    @NotEmpty
+    @ApiParam(value = EMBEDDINGS_DESC, required = true)
+    private double[][] embeddings;
+}
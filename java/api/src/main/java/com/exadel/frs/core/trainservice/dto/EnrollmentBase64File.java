@@ -0,0 +1,30 @@
+package com.exadel.frs.core.trainservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiParam;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import static com.exadel.frs.core.trainservice.system.global.Constants.IMAGE_WITH_ONE_FACE_DESC;
+import static com.exadel.frs.core.trainservice.system.global.Constants.SUBJECT_DESC;
+import static com.exadel.frs.core.trainservice.system.global.Constants.SUBJECT_NAME_IS_EMPTY;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EnrollmentBase64File {
+
+    @JsonProperty("subject")
+    @NotBlank(message = SUBJECT_NAME_IS_EMPTY)
+    @ApiParam(value = SUBJECT_DESC, required = true)
+    private String subjectName;
+
+    @JsonProperty("file")
+    @NotNull
+    @ApiParam(value = IMAGE_WITH_ONE_FACE_DESC, required = true)
+    private String content;
+}
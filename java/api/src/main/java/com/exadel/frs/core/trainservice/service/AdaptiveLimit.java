@@ -0,0 +1,313 @@
+package com.exadel.frs.core.trainservice.service;
+
+import com.exadel.frs.core.trainservice.system.global.CalculatorLimiterProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * Concurrency limit, adjusted by additive increase, multiplicative decrease: the limit grows by one after a limit's
+ * worth of fast requests, and shrinks on a slow or failed one. It shrinks at most once per a round of requests: only
+ * requests, sent after the last decrease, shrink it again, so the requests, which were in flight together and were
+ * slow for the same reason, count once. Requests over the limit wait in a bounded queue.
+ * <p>
+ * Waiting requests are let through by weighted fair queuing between api keys: each request gets a virtual start time,
+ * which is the later of the current virtual time and the virtual finish of the previous request of its api key,
+ * a request takes {@code 1 / weight} of virtual time, and the request with the earliest start goes first. So an api key
+ * with thousands of waiting requests gets its share of the capacity, and a single request of another one goes almost
+ * at once. An api key may have a limit of its own as well. Once the queue is full, the request with the latest virtual
+ * start is rejected, which is a request of the api key, that floods the queue.
+ * <p>
+ * Per api key meters are tagged by the model of the api key, as the api key itself is a credential. The gauge of
+ * waiting requests of a model is removed, once the model has no requests here.
+ */
+final class AdaptiveLimit {
+
+    private final CalculatorLimiterProperties properties;
+    private final Supplier<RuntimeException> rejection;
+    private final String bulkhead;
+    private final MeterRegistry registry;
+    // guarded by 'this'
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final Map<String, Gauge> queuedGauges = new HashMap<>();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double virtualTime;
+    private long lastBackoff = System.nanoTime();
+
+    AdaptiveLimit(final CalculatorLimiterProperties properties, final String bulkhead, final MeterRegistry registry,
+                  final Supplier<RuntimeException> rejection) {
+        this.properties = properties;
+        this.bulkhead = bulkhead;
+        this.registry = registry;
+        this.rejection = rejection;
+        this.limit = properties.getInitialLimit();
+
+        Gauge.builder("calculator.limiter.limit", this, AdaptiveLimit::getLimit)
+             .tags("bulkhead", bulkhead)
+             .description("Current concurrency limit of the calculator requests")
+             .register(registry);
+        Gauge.builder("calculator.limiter.in.flight", this, AdaptiveLimit::getInFlight)
+             .tags("bulkhead", bulkhead)
+             .description("Calculator requests in flight")
+             .register(registry);
+    }
+
+    /**
+     * @return completed once the request may be sent, or failed with the rejection, if the queue is full or the
+     * request has waited for too long; a request, which is let through, must be {@link #release released}
+     */
+    CompletableFuture<Void> acquire(final String apiKey, final Quota quota) {
+        val waiter = new Waiter(quota.getModel(), System.nanoTime());
+        final ArrayList<Waiter> admitted;
+        Waiter dropped = null;
+        synchronized (this) {
+            var tenant = tenants.get(apiKey);
+            if (tenant == null) {
+                tenant = new Tenant(quota.getModel());
+                tenants.put(apiKey, tenant);
+                meter(quota.getModel());
+            }
+            tenant.quota = quota;
+            waiter.start = Math.max(virtualTime, tenant.finish);
+            tenant.finish = waiter.start + 1.0 / quota.getWeight();
+            tenant.queue.add(waiter);
+            queued++;
+
+            admitted = admit();
+            if (queued > properties.getMaxQueue()) {
+                dropped = dropLatest();
+            }
+        }
+        complete(admitted);
+
+        if (dropped != null) {
+            rejected(dropped.model);
+            dropped.future.completeExceptionally(rejection.get());
+        }
+
+        if (!waiter.future.isDone()) {
+            CompletableFuture.delayedExecutor(properties.getMaxWait().toNanos(), TimeUnit.NANOSECONDS)
+                             .execute(() -> expire(apiKey, waiter));
+        }
+
+        return waiter.future;
+    }
+
+    /**
+     * @param started    {@link System#nanoTime()} when the request was sent
+     * @param overloaded whether the request was slow or failed, so that the calculator seems to be overloaded
+     */
+    void release(final String apiKey, final long started, final boolean overloaded) {
+        final ArrayList<Waiter> admitted;
+        synchronized (this) {
+            inFlight--;
+            val tenant = tenants.get(apiKey);
+            tenant.inFlight--;
+            removeIfIdle(apiKey, tenant);
+
+            if (overloaded) {
+                if (started - lastBackoff > 0) {
+                    limit = Math.max(properties.getMinLimit(), limit * properties.getBackoffRatio());
+                    lastBackoff = System.nanoTime();
+                }
+            } else if (inFlight + 1 >= limit / 2) {
+                // it is not raised, while the limit is not used
+                limit = Math.min(properties.getMaxLimit(), limit + 1 / limit);
+            }
+
+            admitted = admit();
+        }
+
+        complete(admitted);
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getQueued(final String model) {
+        int queued = 0;
+        for (val tenant : tenants.values()) {
+            if (tenant.model.equals(model)) {
+                queued += tenant.queue.size();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Lets the waiting requests through, while there is capacity, in the order of their virtual start.
+     */
+    private ArrayList<Waiter> admit() {
+        val admitted = new ArrayList<Waiter>();
+        while (queued > 0 && inFlight < (int) limit) {
+            Tenant next = null;
+            for (val tenant : tenants.values()) {
+                val head = tenant.queue.peek();
+                if (head != null && tenant.inFlight < tenant.quota.getMaxInFlight()
+                        && (next == null || head.start < next.queue.peek().start)) {
+                    next = tenant;
+                }
+            }
+            if (next == null) {
+                // the waiting api keys are at their own limits
+                break;
+            }
+
+            val waiter = next.queue.poll();
+            virtualTime = Math.max(virtualTime, waiter.start);
+            next.inFlight++;
+            inFlight++;
+            queued--;
+            admitted.add(waiter);
+        }
+
+        return admitted;
+    }
+
+    /**
+     * Removes the waiting request with the latest virtual start, so that the queue is not filled by a single api key,
+     * the latest request of an api key, which floods the queue, is dropped rather than a new one of another api key.
+     */
+    private Waiter dropLatest() {
+        Map.Entry<String, Tenant> latest = null;
+        for (val entry : tenants.entrySet()) {
+            val tail = entry.getValue().queue.peekLast();
+            if (tail != null && (latest == null || tail.start >= latest.getValue().queue.peekLast().start)) {
+                latest = entry;
+            }
+        }
+
+        val tenant = latest.getValue();
+        val dropped = tenant.queue.removeLast();
+        tenant.finish = dropped.start;
+        queued--;
+        removeIfIdle(latest.getKey(), tenant);
+
+        return dropped;
+    }
+
+    private void complete(final ArrayList<Waiter> admitted) {
+        val now = System.nanoTime();
+        for (val waiter : admitted) {
+            waitTimer(waiter.model).record(now - waiter.enqueued, TimeUnit.NANOSECONDS);
+            waiter.future.complete(null);
+        }
+    }
+
+    private void expire(final String apiKey, final Waiter waiter) {
+        synchronized (this) {
+            val tenant = tenants.get(apiKey);
+            if (tenant == null || !tenant.queue.remove(waiter)) {
+                return;
+            }
+            queued--;
+            removeIfIdle(apiKey, tenant);
+        }
+
+        rejected(waiter.model);
+        waiter.future.completeExceptionally(rejection.get());
+    }
+
+    private void removeIfIdle(final String apiKey, final Tenant tenant) {
+        // its next request starts at the virtual time anyway
+        if (tenant.inFlight == 0 && tenant.queue.isEmpty()) {
+            tenants.remove(apiKey);
+            unmeter(tenant.model);
+        }
+    }
+
+    private void meter(final String model) {
+        queuedGauges.computeIfAbsent(model, key -> Gauge
+                .builder("calculator.limiter.queued", this, adaptiveLimit -> adaptiveLimit.getQueued(key))
+                .tags(tags(key))
+                .description("Calculator requests of the model, waiting for their turn")
+                .register(registry));
+    }
+
+    private void unmeter(final String model) {
+        for (val tenant : tenants.values()) {
+            if (tenant.model.equals(model)) {
+                return;
+            }
+        }
+        registry.remove(queuedGauges.remove(model));
+    }
+
+    private Timer waitTimer(final String model) {
+        return Timer.builder("calculator.limiter.wait")
+                    .tags(tags(model))
+                    .description("Time, which calculator requests of the model wait for their turn")
+                    .register(registry);
+    }
+
+    private void rejected(final String model) {
+        Counter.builder("calculator.limiter.rejected")
+               .tags(tags(model))
+               .description("Calculator requests of the model, rejected as the calculator is overloaded")
+               .register(registry)
+               .increment();
+    }
+
+    private Tags tags(final String model) {
+        return Tags.of("bulkhead", bulkhead, "model", model);
+    }
+
+    /**
+     * Share of the capacity of an api key and its own limit of concurrent requests, along with the model of the api
+     * key, which its meters are tagged by.
+     */
+    @Value
+    static class Quota {
+
+        static final String UNKNOWN_MODEL = "unknown";
+        static final Quota DEFAULT = new Quota(UNKNOWN_MODEL, 1, Integer.MAX_VALUE);
+
+        String model;
+        int weight;
+        int maxInFlight;
+    }
+
+    private static class Tenant {
+
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private final String model;
+        private Quota quota;
+        private int inFlight;
+        private double finish;
+
+        private Tenant(final String model) {
+            this.model = model;
+        }
+    }
+
+    private static class Waiter {
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final String model;
+        private final long enqueued;
+        private double start;
+
+        private Waiter(final String model, final long enqueued) {
+            this.model = model;
+            this.enqueued = enqueued;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.exadel.frs.core.trainservice.service;
+
+import com.exadel.frs.commonservice.exception.CalculatorOverloadedException;
+import com.exadel.frs.commonservice.repository.ModelRepository;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.core.trainservice.system.global.CalculatorLimiterProperties;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits concurrent requests to the embedding calculator, so that they do not pile up waiting for an overloaded
+ * calculator: requests over the limit wait in a bounded queue for a while and are rejected with
+ * {@link CalculatorOverloadedException} after that. Limits adapt to the observed latency, see {@link AdaptiveLimit}.
+ * <p>
+ * Each kind of request has its own limit, so that a flood of one kind does not starve the others. Within a limit,
+ * api keys share it by the weights of their models, see {@code Model#getSchedulingWeight()}.
+ * <p>
+ * Asynchronous calls are started by an executor of the limiter, once they are let through: a waiting call is let
+ * through by the thread, which releases another call, and the client may block (e.g. Feign one), so it must not be
+ * started by that thread.
+ */
+@Component
+@Slf4j
+public class CalculatorLimiter {
+
+    public enum Bulkhead {
+        DETECTION, RECOGNITION, VERIFICATION, ENROLLMENT
+    }
+
+    private static final String UNKNOWN_API_KEY = "";
+
+    private final CalculatorLimiterProperties properties;
+    private final Map<Bulkhead, AdaptiveLimit> limits = new EnumMap<>(Bulkhead.class);
+    private final LoadingCache<String, AdaptiveLimit.Quota> quotas;
+    private final Executor calls;
+
+    @Autowired
+    public CalculatorLimiter(final CalculatorLimiterProperties properties, final ModelRepository modelRepository,
+                             final MeterRegistry registry) {
+        // calls are let through by the limits, so the threads are bounded by them
+        this(properties, modelRepository, registry, Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "calculator-limiter");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    CalculatorLimiter(final CalculatorLimiterProperties properties, final ModelRepository modelRepository,
+                      final MeterRegistry registry, final Executor calls) {
+        this.properties = properties;
+        this.calls = calls;
+        for (val bulkhead : Bulkhead.values()) {
+            val name = bulkhead.name().toLowerCase();
+            limits.put(bulkhead, new AdaptiveLimit(properties, name, registry, () -> {
+                log.debug("Calculator request is rejected, {} limit is exceeded", bulkhead);
+                return new CalculatorOverloadedException(name);
+            }));
+        }
+
+        this.quotas = Caffeine.newBuilder()
+                              .expireAfterWrite(properties.getQuotaRefreshInterval())
+                              .build(apiKey -> modelRepository
+                                      .findByApiKey(apiKey)
+                                      .map(model -> new AdaptiveLimit.Quota(
+                                              String.valueOf(model.getId()),
+                                              model.getSchedulingWeight() == null ? 1 : Math.max(1, model.getSchedulingWeight()),
+                                              model.getMaxInFlight() == null ? Integer.MAX_VALUE : Math.max(1, model.getMaxInFlight())
+                                      ))
+                                      .orElse(AdaptiveLimit.Quota.DEFAULT));
+    }
+
+    public <T> T call(final Bulkhead bulkhead, final String apiKey, final Supplier<T> call) {
+        if (!properties.isEnabled()) {
+            return call.get();
+        }
+
+        val key = apiKey == null ? UNKNOWN_API_KEY : apiKey;
+        val limit = limits.get(bulkhead);
+        try {
+            limit.acquire(key, quota(key)).join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+
+        val started = System.nanoTime();
+        var overloaded = true;
+        try {
+            val result = call.get();
+            overloaded = isSlow(started);
+            return result;
+        } catch (NoFacesFoundException e) {
+            overloaded = isSlow(started);
+            throw e;
+        } finally {
+            limit.release(key, started, overloaded);
+        }
+    }
+
+    public <T> CompletableFuture<T> callAsync(final Bulkhead bulkhead, final String apiKey,
+                                              final Supplier<CompletableFuture<T>> call) {
+        if (!properties.isEnabled()) {
+            return call.get();
+        }
+
+        val key = apiKey == null ? UNKNOWN_API_KEY : apiKey;
+        val limit = limits.get(bulkhead);
+        return limit.acquire(key, quota(key)).thenComposeAsync(permit -> {
+            val started = System.nanoTime();
+            CompletableFuture<T> result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+
+            return result.whenComplete((response, error) -> {
+                val cause = error instanceof CompletionException ? error.getCause() : error;
+                limit.release(key, started, (cause != null && !(cause instanceof NoFacesFoundException)) || isSlow(started));
+            });
+        }, calls);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (calls instanceof ExecutorService) {
+            ((ExecutorService) calls).shutdownNow();
+        }
+    }
+
+    int getLimit(final Bulkhead bulkhead) {
+        return limits.get(bulkhead).getLimit();
+    }
+
+    private AdaptiveLimit.Quota quota(final String apiKey) {
+        if (UNKNOWN_API_KEY.equals(apiKey)) {
+            return AdaptiveLimit.Quota.DEFAULT;
+        }
+
+        try {
+            return quotas.get(apiKey);
+        } catch (RuntimeException e) {
+            // api key is a credential, it is not logged
+            log.warn("Scheduling quota of a model is not loaded, the default one is used", e);
+            return AdaptiveLimit.Quota.DEFAULT;
+        }
+    }
+
+    private boolean isSlow(final long started) {
+        return System.nanoTime() - started > properties.getLatencyThreshold().toNanos();
+    }
+}
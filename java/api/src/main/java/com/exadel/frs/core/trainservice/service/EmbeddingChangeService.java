@@ -0,0 +1,93 @@
+package com.exadel.frs.core.trainservice.service;
+
+import com.exadel.frs.commonservice.entity.EmbeddingChange;
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.commonservice.repository.EmbeddingChangeRepository;
+import com.exadel.frs.commonservice.repository.EmbeddingRepository;
+import com.exadel.frs.commonservice.repository.SubjectRepository;
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import com.google.common.collect.Iterables;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import javax.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Reads changes of the embeddings, recorded by database triggers (see embedding_change table), and the current state
+ * of the changed embeddings and subjects. Used to catch up persisted cache snapshots.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EmbeddingChangeService {
+
+    private static final String CLEANUP_CRON_PLACEHOLDER = "${app.embedding-cache.snapshot.change-cleanup-cron:0 30 * * * *}";
+    // keeps 'in' clauses of the queries reasonably short
+    private static final int QUERY_BATCH_SIZE = 1000;
+
+    private final EmbeddingChangeRepository embeddingChangeRepository;
+    private final EmbeddingRepository embeddingRepository;
+    private final SubjectRepository subjectRepository;
+    private final EmbeddingCacheProperties embeddingCacheProperties;
+
+    /**
+     * @return current time of the database clock, changes are recorded with
+     */
+    public LocalDateTime getCurrentTime() {
+        return embeddingChangeRepository.getCurrentTimestamp().toLocalDateTime();
+    }
+
+    public List<EmbeddingChange> getChanges(final String apiKey, final LocalDateTime after) {
+        return embeddingChangeRepository.findByApiKeyAndCreatedDateAfterOrderById(apiKey, after);
+    }
+
+    public List<EnhancedEmbeddingProjection> getEmbeddings(final String apiKey, final Collection<UUID> embeddingIds) {
+        return inBatches(embeddingIds, batch -> embeddingRepository.findBySubjectApiKeyAndIdIn(apiKey, batch));
+    }
+
+    public List<EnhancedEmbeddingProjection> getSubjectEmbeddings(final String apiKey, final Collection<String> subjectNames) {
+        return inBatches(subjectNames, batch -> embeddingRepository.findBySubjectApiKeyAndSubjectNameIn(apiKey, batch));
+    }
+
+    /**
+     * @return current names of the subjects, subjects, which do not exist (in the model) anymore, are not included
+     */
+    public Map<UUID, String> getSubjectNames(final String apiKey, final Collection<UUID> subjectIds) {
+        val result = new HashMap<UUID, String>();
+        inBatches(subjectIds, batch -> subjectRepository.findByApiKeyAndIdIn(apiKey, batch))
+                .forEach(subject -> result.put(subject.getId(), subject.getSubjectName()));
+
+        return result;
+    }
+
+    /**
+     * Snapshots, older than the retention period, are not caught up (but reloaded), so their changes are not needed.
+     */
+    @Transactional
+    @Scheduled(cron = CLEANUP_CRON_PLACEHOLDER, zone = "UTC")
+    public void deleteExpiredChanges() {
+        val retention = embeddingCacheProperties.getSnapshot().getChangeRetention();
+        val deleted = embeddingChangeRepository.deleteByCreatedDateBefore(getCurrentTime().minus(retention));
+
+        log.debug("{} expired embedding changes deleted", deleted);
+    }
+
+    private static <T, R> List<R> inBatches(final Collection<T> values, final Function<List<T>, List<R>> query) {
+        val result = new ArrayList<R>();
+        for (val batch : Iterables.partition(values, QUERY_BATCH_SIZE)) {
+            result.addAll(query.apply(batch));
+        }
+
+        return result;
+    }
+}
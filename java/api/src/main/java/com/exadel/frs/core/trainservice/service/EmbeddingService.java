@@ -39,6 +39,14 @@ public class EmbeddingService {
         }
     }
 
+    public List<EnhancedEmbeddingProjection> getEnhancedEmbeddings(String apiKey, List<UUID> embeddingIds) {
+        return embeddingRepository.findBySubjectApiKeyAndIdIn(apiKey, embeddingIds);
+    }
+
+    public int countEmbeddings(String apiKey) {
+        return Math.toIntExact(embeddingRepository.countBySubjectApiKey(apiKey));
+    }
+
     public List<Embedding> getWithImgAndCalculatorNotEq(String calculator) {
         return embeddingRepository.getWithImgAndCalculatorNotEq(calculator);
     }
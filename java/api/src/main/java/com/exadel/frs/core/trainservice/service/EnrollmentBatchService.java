@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.service;
+
+import static com.exadel.frs.core.trainservice.service.FaceRecognizeBatchService.toErrorResponse;
+import static com.exadel.frs.core.trainservice.system.global.Constants.SUBJECT;
+import static com.exadel.frs.core.trainservice.system.global.Constants.SUBJECT_NAME_IS_EMPTY;
+import com.exadel.frs.commonservice.entity.Embedding;
+import com.exadel.frs.commonservice.exception.ConstraintViolationException;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.cache.EmbeddingDelta;
+import com.exadel.frs.core.trainservice.dao.SubjectDao;
+import com.exadel.frs.core.trainservice.dto.BatchEnrollmentResultDto;
+import com.exadel.frs.core.trainservice.dto.EmbeddingDto;
+import com.exadel.frs.core.trainservice.dto.EmbeddingInfo;
+import com.exadel.frs.core.trainservice.system.global.EnrollmentBatchProperties;
+import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.stereotype.Service;
+
+/**
+ * Adds many faces at once. Each request sends at most {@link EnrollmentBatchProperties#getConcurrency()} of its images
+ * to the embedding calculator at a time, and each of them waits for its turn in {@link CalculatorLimiter}, so a large
+ * batch shares the calculator fairly with the other api keys (images do not wait in a pool queue, shared by all the
+ * requests, where the limiter would not see them).
+ * Calculated embeddings are saved by batch inserts, {@link EnrollmentBatchProperties#getFlushSize()} per transaction,
+ * while the rest of the images are still being calculated. The cache is updated once, when the whole request is done.
+ */
+@Service
+@Slf4j
+public class EnrollmentBatchService {
+
+    private final SubjectService subjectService;
+    private final SubjectDao subjectDao;
+    private final EmbeddingCacheProvider embeddingCacheProvider;
+    private final ImageExtensionValidator imageValidator;
+    private final EnrollmentBatchProperties properties;
+    private final ExecutorService calculatorCalls;
+
+    public EnrollmentBatchService(final SubjectService subjectService,
+                                  final SubjectDao subjectDao,
+                                  final EmbeddingCacheProvider embeddingCacheProvider,
+                                  final ImageExtensionValidator imageValidator,
+                                  final EnrollmentBatchProperties properties) {
+        this.subjectService = subjectService;
+        this.subjectDao = subjectDao;
+        this.embeddingCacheProvider = embeddingCacheProvider;
+        this.imageValidator = imageValidator;
+        this.properties = properties;
+        // threads are bounded by the concurrency of each request
+        this.calculatorCalls = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "enrollment-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Image of the bulk enrollment.
+     */
+    @Value
+    public static class Item {
+
+        String subjectName;
+
+        /**
+         * Name of the archive entry, its extension is validated, {@code null} for base64 images.
+         */
+        String fileName;
+
+        String imageBase64;
+    }
+
+    /**
+     * Reads images of the archive, each of them is expected in a directory named after its subject, e.g.
+     * {@code John Smith/1.jpg}. Hidden files and the ones added by macOS archiver are skipped.
+     * <p>
+     * Only the compressed archive is limited by the upload size, so entries are decompressed no further than
+     * {@link EnrollmentBatchProperties#getMaxImageSize()} each and {@link EnrollmentBatchProperties#getMaxArchiveSize()}
+     * in total, a larger archive is rejected.
+     */
+    public List<Item> readArchive(final InputStream archive) throws IOException {
+        val maxImageSize = properties.getMaxImageSize().toBytes();
+        val items = new ArrayList<Item>();
+        long remaining = properties.getMaxArchiveSize().toBytes();
+        try (val zip = new ZipInputStream(archive)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                val path = entry.getName();
+                val fileNameStart = path.lastIndexOf('/') + 1;
+                val fileName = path.substring(fileNameStart);
+                if (entry.isDirectory() || fileName.startsWith(".") || path.startsWith("__MACOSX/")) {
+                    continue;
+                }
+                if (items.size() == properties.getMaxImages()) {
+                    throw tooManyImages();
+                }
+
+                // one byte over the limit is enough to know that the entry exceeds it
+                val image = zip.readNBytes((int) Math.min(Math.min(maxImageSize, remaining) + 1, Integer.MAX_VALUE));
+                if (image.length > maxImageSize) {
+                    throw new ConstraintViolationException("images", path + " is larger than " + maxImageSize + " bytes");
+                }
+                if (image.length > remaining) {
+                    throw new ConstraintViolationException(
+                            "images",
+                            "images of the archive are larger than " + properties.getMaxArchiveSize().toBytes() + " bytes in total"
+                    );
+                }
+                remaining -= image.length;
+
+                val subjectStart = fileNameStart < 2 ? 0 : path.lastIndexOf('/', fileNameStart - 2) + 1;
+                items.add(new Item(
+                        path.substring(subjectStart, Math.max(fileNameStart - 1, subjectStart)),
+                        fileName,
+                        Base64.getEncoder().encodeToString(image)
+                ));
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * @return result of each image, in the order of the images
+     */
+    public List<BatchEnrollmentResultDto> enroll(final String apiKey,
+                                                 final List<Item> items,
+                                                 final Double detProbThreshold) {
+        if (items.isEmpty() || items.size() > properties.getMaxImages()) {
+            throw tooManyImages();
+        }
+
+        val calculated = new LinkedBlockingQueue<Calculated>();
+        val next = new AtomicInteger();
+        for (int i = 0; i < Math.min(properties.getConcurrency(), items.size()); i++) {
+            calculatorCalls.execute(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < items.size()) {
+                    calculated.add(calculate(apiKey, index, items.get(index), detProbThreshold));
+                }
+            });
+        }
+
+        val results = new BatchEnrollmentResultDto[items.size()];
+        val saved = new ArrayList<Embedding>();
+        val pending = new ArrayList<Calculated>(properties.getFlushSize());
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                val image = calculated.take();
+                if (image.error != null) {
+                    results[image.index] = failed(image.index, image.error);
+                    continue;
+                }
+
+                pending.add(image);
+                if (pending.size() == properties.getFlushSize()) {
+                    flush(apiKey, pending, results, saved);
+                }
+            }
+            flush(apiKey, pending, results, saved);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Enrollment is interrupted", e);
+        } finally {
+            // images, which are not sent to the calculator yet, are skipped
+            next.set(items.size());
+
+            // saved embeddings are added even if the rest of the request has failed, all of them by a single delta
+            if (!saved.isEmpty()) {
+                embeddingCacheProvider.ifPresent(
+                        apiKey,
+                        collection -> saved.forEach(collection::addEmbedding),
+                        EmbeddingDelta.embeddings(saved.stream().map(Embedding::getId).collect(Collectors.toList()))
+                );
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        calculatorCalls.shutdownNow();
+    }
+
+    private Calculated calculate(final String apiKey, final int index, final Item item, final Double detProbThreshold) {
+        try {
+            if (StringUtils.isBlank(item.getSubjectName())) {
+                throw new ConstraintViolationException(SUBJECT, SUBJECT_NAME_IS_EMPTY);
+            }
+            if (item.getFileName() != null) {
+                imageValidator.validateFileName(item.getFileName());
+            } else {
+                imageValidator.validateBase64(item.getImageBase64());
+            }
+
+            val embedding = subjectService.calculateEmbedding(item.getImageBase64(), detProbThreshold, apiKey);
+
+            return new Calculated(index, item.getSubjectName(), embedding, null);
+        } catch (RuntimeException e) {
+            return new Calculated(index, item.getSubjectName(), null, e);
+        }
+    }
+
+    private void flush(final String apiKey,
+                       final List<Calculated> pending,
+                       final BatchEnrollmentResultDto[] results,
+                       final List<Embedding> saved) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            val embeddings = subjectDao.addEmbeddings(
+                    apiKey,
+                    pending.stream()
+                           .map(image -> Pair.of(image.subjectName, image.embedding))
+                           .collect(Collectors.toList())
+            );
+            for (int i = 0; i < pending.size(); i++) {
+                val image = pending.get(i);
+                results[image.index] = BatchEnrollmentResultDto.builder()
+                                                               .index(image.index)
+                                                               .embedding(new EmbeddingDto(
+                                                                       embeddings.get(i).getId().toString(),
+                                                                       image.subjectName
+                                                               ))
+                                                               .build();
+            }
+            saved.addAll(embeddings);
+        } catch (RuntimeException e) {
+            // the whole transaction is rolled back
+            pending.forEach(image -> results[image.index] = failed(image.index, e));
+        }
+        pending.clear();
+    }
+
+    private static BatchEnrollmentResultDto failed(final int index, final RuntimeException error) {
+        return BatchEnrollmentResultDto.builder()
+                                       .index(index)
+                                       .error(toErrorResponse(error))
+                                       .build();
+    }
+
+    private ConstraintViolationException tooManyImages() {
+        return new ConstraintViolationException(
+                "images",
+                "number of images should be from 1 to " + properties.getMaxImages()
+        );
+    }
+
+    @RequiredArgsConstructor
+    private static final class Calculated {
+
+        private final int index;
+        private final String subjectName;
+        private final EmbeddingInfo embedding;
+        private final RuntimeException error;
+    }
+}
@@ -1,5 +1,6 @@
 package com.exadel.frs.core.trainservice.service;
 
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.DETECTION;
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
 import com.exadel.frs.core.trainservice.dto.FacesDetectionResponseDto;
@@ -17,6 +18,7 @@ public class FaceDetectionProcessServiceImpl implements FaceProcessService {
     private final FacesApiClient facesApiClient;
     private final ImageExtensionValidator imageExtensionValidator;
     private final FacesMapper facesMapper;
+    private final CalculatorLimiter calculatorLimiter;
 
     @Override
     public FacesDetectionResponseDto processImage(ProcessImageParams processImageParams) {
@@ -28,10 +30,14 @@ public class FaceDetectionProcessServiceImpl implements FaceProcessService {
         if (processImageParams.getFile() != null) {
             MultipartFile file = (MultipartFile) processImageParams.getFile();
             imageExtensionValidator.validate(file);
-            findFacesResponse = facesApiClient.findFaces(file, limit, detProbThreshold, facePlugins);
+            findFacesResponse = calculatorLimiter.call(DETECTION, processImageParams.getApiKey(), () -> facesApiClient.findFaces(file, limit, detProbThreshold, facePlugins));
         } else {
             imageExtensionValidator.validateBase64(processImageParams.getImageBase64());
-            findFacesResponse = facesApiClient.findFacesBase64(processImageParams.getImageBase64(), limit, detProbThreshold, facePlugins);
+            findFacesResponse = calculatorLimiter.call(
+                    DETECTION,
+                    processImageParams.getApiKey(),
+                    () -> facesApiClient.findFacesBase64(processImageParams.getImageBase64(), limit, detProbThreshold, facePlugins)
+            );
         }
 
         FacesDetectionResponseDto facesDetectionResponseDto = facesMapper.toFacesDetectionResponseDto(findFacesResponse);
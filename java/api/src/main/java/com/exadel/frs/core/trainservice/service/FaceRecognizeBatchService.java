@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.service;
+
+import static com.exadel.frs.commonservice.handler.CommonExceptionCode.UNDEFINED;
+import com.exadel.frs.commonservice.dto.ExceptionResponseDto;
+import com.exadel.frs.commonservice.exception.BasicException;
+import com.exadel.frs.commonservice.exception.ConstraintViolationException;
+import com.exadel.frs.core.trainservice.dto.BatchRecognitionResultDto;
+import com.exadel.frs.core.trainservice.dto.FacesRecognitionResponseDto;
+import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
+import com.exadel.frs.core.trainservice.system.global.RecognitionBatchProperties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.stereotype.Service;
+
+/**
+ * Recognizes many images per request. Each request sends at most {@link RecognitionBatchProperties#getConcurrency()}
+ * of its images to the embedding calculator at a time, so that the images of all the requests wait for their turn in
+ * {@link CalculatorLimiter}, which shares the calculator fairly between api keys, rather than in a pool queue.
+ * Faces of the images, found while the previous ones are scored, are scored together, in a single pass over
+ * the collection, and results are handed over as soon as they are ready.
+ */
+@Service
+@Slf4j
+public class FaceRecognizeBatchService {
+
+    private final FaceRecognizeProcessServiceImpl recognitionService;
+    private final RecognitionBatchProperties properties;
+    private final ExecutorService calculatorCalls;
+
+    public FaceRecognizeBatchService(final FaceRecognizeProcessServiceImpl recognitionService,
+                                     final RecognitionBatchProperties properties) {
+        this.recognitionService = recognitionService;
+        this.properties = properties;
+        // threads are bounded by the concurrency of each request
+        this.calculatorCalls = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "recognition-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param images   images of the batch, all of them share api key and the other parameters
+     * @param consumer receives result of each image once it is ready, never concurrently
+     * @return completed once results of all the images are consumed
+     */
+    public CompletableFuture<Void> recognize(final List<ProcessImageParams> images,
+                                             final Consumer<BatchRecognitionResultDto> consumer) {
+        if (images.isEmpty() || images.size() > properties.getMaxImages()) {
+            throw new ConstraintViolationException(
+                    "images",
+                    "number of images should be from 1 to " + properties.getMaxImages()
+            );
+        }
+        val predictionCount = recognitionService.getPredictionCount(images.get(0));
+
+        val batch = new Batch(images, predictionCount, consumer);
+        for (int i = 0; i < Math.min(properties.getConcurrency(), images.size()); i++) {
+            calculatorCalls.execute(batch::findAll);
+        }
+
+        return batch.completion;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        calculatorCalls.shutdownNow();
+    }
+
+    @RequiredArgsConstructor
+    private static final class Found {
+
+        private final int index;
+        private final FacesRecognitionResponseDto faces;
+        private final RuntimeException error;
+    }
+
+    private final class Batch {
+
+        private final List<ProcessImageParams> images;
+        private final Integer predictionCount;
+        private final Consumer<BatchRecognitionResultDto> consumer;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        // next image to be sent to the calculator
+        private final AtomicInteger next = new AtomicInteger();
+
+        // images with found faces, waiting to be scored; whoever holds the lock scores all of them at once
+        private final Queue<Found> found = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock scoring = new ReentrantLock();
+        // guarded by 'scoring'
+        private int consumed;
+
+        private Batch(final List<ProcessImageParams> images, final Integer predictionCount,
+                      final Consumer<BatchRecognitionResultDto> consumer) {
+            this.images = images;
+            this.predictionCount = predictionCount;
+            this.consumer = consumer;
+        }
+
+        private void findAll() {
+            int index;
+            while ((index = next.getAndIncrement()) < images.size()) {
+                find(index);
+            }
+        }
+
+        private void find(final int index) {
+            if (completion.isDone()) {
+                return;
+            }
+
+            try {
+                found.add(new Found(index, recognitionService.findFaces(images.get(index)), null));
+            } catch (RuntimeException e) {
+                found.add(new Found(index, null, e));
+            }
+
+            // the queue is checked once more after the lock is released, so that nothing is left unscored
+            while (!found.isEmpty() && scoring.tryLock()) {
+                try {
+                    scoreFound();
+                } catch (RuntimeException e) {
+                    completion.completeExceptionally(e);
+                } finally {
+                    scoring.unlock();
+                }
+            }
+        }
+
+        private void scoreFound() {
+            val recognized = new ArrayList<Found>();
+            Found next;
+            while ((next = found.poll()) != null) {
+                if (next.error != null) {
+                    consume(next.index, null, next.error);
+                } else {
+                    recognized.add(next);
+                }
+            }
+            if (recognized.isEmpty()) {
+                return;
+            }
+
+            try {
+                val faces = new ArrayList<FacesRecognitionResponseDto>(recognized.size());
+                recognized.stream().filter(image -> image.faces != null).forEach(image -> faces.add(image.faces));
+                recognitionService.recognizeFaces(images.get(0).getApiKey(), predictionCount, faces);
+            } catch (RuntimeException e) {
+                recognized.forEach(image -> consume(image.index, null, e));
+                return;
+            }
+
+            recognized.forEach(image -> consume(
+                    image.index,
+                    image.faces == null
+                            ? FacesRecognitionResponseDto.builder().build()
+                            : image.faces.prepareResponse(images.get(image.index)),
+                    null
+            ));
+        }
+
+        private void consume(final int index, final FacesRecognitionResponseDto recognition, final RuntimeException error) {
+            val result = BatchRecognitionResultDto.builder()
+                                                  .index(index)
+                                                  .recognition(recognition)
+                                                  .error(error == null ? null : toErrorResponse(error))
+                                                  .build();
+            consumer.accept(result);
+
+            if (++consumed == images.size()) {
+                completion.complete(null);
+            }
+        }
+    }
+
+    static ExceptionResponseDto toErrorResponse(final RuntimeException error) {
+        if (error instanceof BasicException) {
+            val basicException = (BasicException) error;
+            log.debug("Image of the batch is not processed", error);
+
+            return ExceptionResponseDto.builder()
+                                       .code(basicException.getExceptionCode().getCode())
+                                       .message(basicException.getMessage())
+                                       .build();
+        }
+
+        log.error("Image of the batch is not processed", error);
+
+        return ExceptionResponseDto.builder()
+                                   .code(UNDEFINED.getCode())
+                                   .message("Something went wrong, please try again")
+                                   .build();
+    }
+}
@@ -0,0 +1,27 @@
+package com.exadel.frs.core.trainservice.service;
+
+import com.exadel.frs.core.trainservice.dto.EmbeddingsRecognitionResponseDto;
+import com.exadel.frs.core.trainservice.dto.FacesRecognitionResponseDto;
+import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
+import java.util.concurrent.CompletableFuture;
+
+public interface FaceRecognizeProcessService extends FaceProcessService {
+
+    @Override
+    FacesRecognitionResponseDto processImage(ProcessImageParams processImageParams);
+
+    /**
+     * Same as {@link #processImage(ProcessImageParams)}, without waiting for the calculator.
+     */
+    CompletableFuture<FacesRecognitionResponseDto> processImageAsync(ProcessImageParams processImageParams);
+
+    /**
+     * Recognizes embeddings, calculated by the client (with the same model), so the calculator is not called at all.
+     */
+    EmbeddingsRecognitionResponseDto recognizeEmbeddings(String apiKey, String calculator, double[][] embeddings, Integer predictionCount);
+
+    /**
+     * Same as {@link #recognizeEmbeddings(String, String, double[][], Integer)}, for the compact encoding.
+     */
+    EmbeddingsRecognitionResponseDto recognizeEmbeddings(String apiKey, String calculator, byte[] data, int dimension, Integer predictionCount);
+}
@@ -1,75 +1,240 @@
 package com.exadel.frs.core.trainservice.service;
 
+import com.exadel.frs.commonservice.exception.ConstraintViolationException;
 import com.exadel.frs.commonservice.exception.IncorrectPredictionCountException;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
 import com.exadel.frs.core.trainservice.component.FaceClassifierPredictor;
+import com.exadel.frs.core.trainservice.dto.EmbeddingRecognitionResultDto;
+import com.exadel.frs.core.trainservice.dto.EmbeddingsRecognitionResponseDto;
 import com.exadel.frs.core.trainservice.dto.FacePredictionResultDto;
 import com.exadel.frs.core.trainservice.dto.FaceSimilarityDto;
 import com.exadel.frs.core.trainservice.dto.FacesRecognitionResponseDto;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
 import com.exadel.frs.core.trainservice.mapper.FacesMapper;
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.core.trainservice.system.global.RecognitionBatchProperties;
 import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.RECOGNITION;
+import static com.exadel.frs.core.trainservice.system.global.Constants.CALCULATOR;
+import static com.exadel.frs.core.trainservice.system.global.Constants.EMBEDDINGS;
 import static com.exadel.frs.core.trainservice.system.global.Constants.PREDICTION_COUNT;
 import static java.math.RoundingMode.HALF_UP;
+import static java.util.stream.Collectors.toList;
 
 @Service("recognitionService")
 @RequiredArgsConstructor
 @Slf4j
-public class FaceRecognizeProcessServiceImpl implements FaceProcessService {
+public class FaceRecognizeProcessServiceImpl implements FaceRecognizeProcessService {
 
     private final FaceClassifierPredictor classifierPredictor;
+    private final EmbeddingCacheProvider embeddingCacheProvider;
     private final FacesApiClient facesApiClient;
     private final ImageExtensionValidator imageExtensionValidator;
+    private final CalculatorLimiter calculatorLimiter;
     private final FacesMapper facesMapper;
+    private final RecognitionBatchProperties recognitionBatchProperties;
+    private final Executor applicationTaskExecutor;
 
     @Override
     public FacesRecognitionResponseDto processImage(ProcessImageParams processImageParams) {
+        Integer predictionCount = getPredictionCount(processImageParams);
+
+        val facesRecognitionDto = findFaces(processImageParams);
+        if (facesRecognitionDto == null) {
+            return FacesRecognitionResponseDto.builder().build();
+        }
+
+        recognizeFaces(processImageParams.getApiKey(), predictionCount, List.of(facesRecognitionDto));
+
+        return facesRecognitionDto.prepareResponse(processImageParams);
+    }
+
+    /**
+     * Same as {@link #processImage(ProcessImageParams)}, no thread waits for the calculator if its client supports it.
+     * Found faces are recognized by the application task executor, not by the thread of the calculator client, as
+     * scoring may take a while, or even load the collection.
+     */
+    @Override
+    public CompletableFuture<FacesRecognitionResponseDto> processImageAsync(ProcessImageParams processImageParams) {
+        Integer predictionCount = getPredictionCount(processImageParams);
+
+        return findFacesAsync(processImageParams).thenApplyAsync(facesRecognitionDto -> {
+            if (facesRecognitionDto == null) {
+                return FacesRecognitionResponseDto.builder().build();
+            }
+
+            recognizeFaces(processImageParams.getApiKey(), predictionCount, List.of(facesRecognitionDto));
+
+            return facesRecognitionDto.prepareResponse(processImageParams);
+        }, applicationTaskExecutor);
+    }
+
+    /**
+     * @return validated prediction count of the request
+     */
+    public Integer getPredictionCount(ProcessImageParams processImageParams) {
         Object predictionCountObj = processImageParams.getAdditionalParams().get(PREDICTION_COUNT);
         Integer predictionCount = (Integer) predictionCountObj;
         if (predictionCount == 0 || predictionCount < -1) {
             throw new IncorrectPredictionCountException();
         }
 
+        return predictionCount;
+    }
+
+    /**
+     * Finds faces in the image and calculates their embeddings, faces are not recognized yet.
+     *
+     * @return found faces, or null if the calculator response is empty
+     */
+    public FacesRecognitionResponseDto findFaces(ProcessImageParams processImageParams) {
         FindFacesResponse findFacesResponse;
 
         if (processImageParams.getFile() != null) {
             MultipartFile file = (MultipartFile) processImageParams.getFile();
             imageExtensionValidator.validate(file);
-            findFacesResponse = facesApiClient.findFacesWithCalculator(file, processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins());
+            findFacesResponse = calculatorLimiter.call(
+                    RECOGNITION,
+                    processImageParams.getApiKey(),
+                    () -> facesApiClient.findFacesWithCalculator(file, processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins())
+            );
         } else {
             imageExtensionValidator.validateBase64(processImageParams.getImageBase64());
-            findFacesResponse = facesApiClient.findFacesBase64WithCalculator(processImageParams.getImageBase64(), processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins());
+            findFacesResponse = calculatorLimiter.call(
+                    RECOGNITION,
+                    processImageParams.getApiKey(),
+                    () -> facesApiClient.findFacesBase64WithCalculator(processImageParams.getImageBase64(), processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins())
+            );
         }
 
-        val facesRecognitionDto = facesMapper.toFacesRecognitionResponseDto(findFacesResponse);
-        if (facesRecognitionDto == null) {
-            return FacesRecognitionResponseDto.builder().build();
+        return facesMapper.toFacesRecognitionResponseDto(findFacesResponse);
+    }
+
+    /**
+     * Same as {@link #findFaces(ProcessImageParams)}, without waiting for the calculator.
+     */
+    public CompletableFuture<FacesRecognitionResponseDto> findFacesAsync(ProcessImageParams processImageParams) {
+        CompletableFuture<FindFacesResponse> findFacesResponse;
+
+        if (processImageParams.getFile() != null) {
+            MultipartFile file = (MultipartFile) processImageParams.getFile();
+            imageExtensionValidator.validate(file);
+            findFacesResponse = calculatorLimiter.callAsync(
+                    RECOGNITION,
+                    processImageParams.getApiKey(),
+                    () -> facesApiClient.findFacesWithCalculatorAsync(file, processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins())
+            );
+        } else {
+            imageExtensionValidator.validateBase64(processImageParams.getImageBase64());
+            findFacesResponse = calculatorLimiter.callAsync(
+                    RECOGNITION,
+                    processImageParams.getApiKey(),
+                    () -> facesApiClient.findFacesBase64WithCalculatorAsync(processImageParams.getImageBase64(), processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins())
+            );
         }
 
-        String apiKey = processImageParams.getApiKey();
-        for (val findResult : facesRecognitionDto.getResult()) {
-            final ArrayList<FaceSimilarityDto> faces = processFaceResult(predictionCount, apiKey, findResult);
+        return findFacesResponse.thenApply(facesMapper::toFacesRecognitionResponseDto);
+    }
+
+    /**
+     * Recognizes faces of all the given images, they are scored in a single pass over the collection.
+     */
+    public void recognizeFaces(String apiKey, Integer predictionCount, List<FacesRecognitionResponseDto> facesRecognitionDtos) {
+        val findResults = facesRecognitionDtos.stream()
+                                              .filter(facesRecognitionDto -> facesRecognitionDto.getResult() != null)
+                                              .flatMap(facesRecognitionDto -> facesRecognitionDto.getResult().stream())
+                                              .collect(toList());
+        val inputs = findResults.stream()
+                                .map(findResult -> Stream.of(findResult.getEmbedding()).mapToDouble(d -> d).toArray())
+                                .toArray(double[][]::new);
+        val predictions = classifierPredictor.predictAll(apiKey, inputs, predictionCount);
+        for (int i = 0; i < findResults.size(); i++) {
+            final ArrayList<FaceSimilarityDto> faces = processFaceResult(predictions.get(i), findResults.get(i));
 
-            findResult.setSubjects(faces);
+            findResults.get(i).setSubjects(faces);
         }
+    }
 
-        return facesRecognitionDto.prepareResponse(processImageParams);
+    /**
+     * Recognizes embeddings, calculated by the client (with the same model), so the calculator is not called at all.
+     *
+     * @param calculator version of the calculator, the embeddings are calculated by, should be the current one
+     * @return predictions of each embedding, in the order of the embeddings
+     */
+    @Override
+    public EmbeddingsRecognitionResponseDto recognizeEmbeddings(String apiKey, String calculator, double[][] embeddings, Integer predictionCount) {
+        if (predictionCount == 0 || predictionCount < -1) {
+            throw new IncorrectPredictionCountException();
+        }
+        if (embeddings.length > recognitionBatchProperties.getMaxEmbeddings()) {
+            throw new ConstraintViolationException(EMBEDDINGS, "number of embeddings should not exceed " + recognitionBatchProperties.getMaxEmbeddings());
+        }
+        for (val embedding : embeddings) {
+            if (embedding == null || embedding.length == 0 || embedding.length != embeddings[0].length) {
+                throw new ConstraintViolationException(EMBEDDINGS, "embeddings should be non-empty and of the same length");
+            }
+        }
+        val calculatorVersion = facesApiClient.getStatus().getCalculatorVersion();
+        if (!Objects.equals(calculator, calculatorVersion)) {
+            throw new ConstraintViolationException(CALCULATOR, "embeddings are calculated by " + calculator + ", current calculator is " + calculatorVersion);
+        }
+
+        val dimension = embeddingCacheProvider.getOrLoad(apiKey).getSnapshot().columns();
+        if (embeddings.length > 0 && dimension > 0 && embeddings[0].length != dimension) {
+            throw new ConstraintViolationException(EMBEDDINGS, "embeddings should be of length " + dimension + ", as the embeddings of the model");
+        }
+
+        val results = classifierPredictor.predictAll(apiKey, embeddings, predictionCount)
+                                         .stream()
+                                         .map(predictions -> new EmbeddingRecognitionResultDto(toFaceSimilarities(predictions)))
+                                         .collect(toList());
+
+        return new EmbeddingsRecognitionResponseDto(results);
     }
 
-    private ArrayList<FaceSimilarityDto> processFaceResult(Integer predictionCount, String apiKey, FacePredictionResultDto findResult) {
-        double[] input = Stream.of(findResult.getEmbedding()).mapToDouble(d -> d).toArray();
-        val predictions = classifierPredictor.predict(apiKey, input, predictionCount);
+    /**
+     * Same as {@link #recognizeEmbeddings(String, String, double[][], Integer)}, for the compact encoding.
+     *
+     * @param data      embeddings one after another, each of them as {@code dimension} little-endian float32 values
+     * @param dimension number of values of each embedding
+     */
+    @Override
+    public EmbeddingsRecognitionResponseDto recognizeEmbeddings(String apiKey, String calculator, byte[] data, int dimension, Integer predictionCount) {
+        val embeddingBytes = (long) dimension * Float.BYTES;
+        if (data.length == 0 || data.length % embeddingBytes != 0) {
+            throw new ConstraintViolationException(EMBEDDINGS, "body should consist of embeddings of " + embeddingBytes + " bytes");
+        }
+
+        val values = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        val embeddings = new double[(int) (data.length / embeddingBytes)][dimension];
+        for (val embedding : embeddings) {
+            for (int i = 0; i < dimension; i++) {
+                embedding[i] = values.get();
+            }
+        }
+
+        return recognizeEmbeddings(apiKey, calculator, embeddings, predictionCount);
+    }
+
+    private ArrayList<FaceSimilarityDto> toFaceSimilarities(List<Pair<Double, String>> predictions) {
         val faces = new ArrayList<FaceSimilarityDto>();
         for (val prediction : predictions) {
             var pred = BigDecimal.valueOf(prediction.getLeft());
@@ -77,6 +242,12 @@ public class FaceRecognizeProcessServiceImpl implements FaceProcessService {
             faces.add(new FaceSimilarityDto(prediction.getRight(), pred.floatValue()));
         }
 
+        return faces;
+    }
+
+    private ArrayList<FaceSimilarityDto> processFaceResult(List<Pair<Double, String>> predictions, FacePredictionResultDto findResult) {
+        val faces = toFaceSimilarities(predictions);
+
         var inBoxProb = BigDecimal.valueOf(findResult.getBox().getProbability());
         inBoxProb = inBoxProb.setScale(5, HALF_UP);
         findResult.getBox().setProbability(inBoxProb.doubleValue());
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.VERIFICATION;
 import static com.exadel.frs.core.trainservice.system.global.Constants.SOURCE_IMAGE;
 import static com.exadel.frs.core.trainservice.system.global.Constants.TARGET_IMAGE;
 import static java.math.RoundingMode.HALF_UP;
@@ -40,6 +41,7 @@ public class FaceVerificationProcessServiceImpl implements FaceProcessService {
     private final FacesApiClient client;
     private final ImageExtensionValidator imageValidator;
     private final FacesMapper mapper;
+    private final CalculatorLimiter calculatorLimiter;
 
     @Override
     public VerifyFacesResponse processImage(ProcessImageParams processImageParams) {
@@ -89,12 +91,12 @@ public class FaceVerificationProcessServiceImpl implements FaceProcessService {
 
         @Override
         FindFacesResponse findFace(MultipartFile photo, ProcessImageParams processImageParams) {
-            return client.findFacesWithCalculator(
+            return calculatorLimiter.call(VERIFICATION, processImageParams.getApiKey(), () -> client.findFacesWithCalculator(
                     photo,
                     processImageParams.getLimit(),
                     processImageParams.getDetProbThreshold(),
                     processImageParams.getFacePlugins()
-            );
+            ));
         }
     }
 
@@ -111,12 +113,12 @@ public class FaceVerificationProcessServiceImpl implements FaceProcessService {
 
         @Override
         FindFacesResponse findFace(String photo, ProcessImageParams processImageParams) {
-            return client.findFacesBase64WithCalculator(
+            return calculatorLimiter.call(VERIFICATION, processImageParams.getApiKey(), () -> client.findFacesBase64WithCalculator(
                     photo,
                     processImageParams.getLimit(),
                     processImageParams.getDetProbThreshold(),
                     processImageParams.getFacePlugins()
-            );
+            ));
         }
     }
 
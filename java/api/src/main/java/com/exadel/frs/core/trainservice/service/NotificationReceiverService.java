@@ -80,7 +80,9 @@ public class NotificationReceiverService {
                     && !StringUtils.isBlank(cacheActionDto.getCacheAction())
             ) {
 
-                if (cacheActionDto.getCacheAction().equals("UPDATE")) {
+                if (cacheActionDto.getCacheAction().equals("UPDATE") && cacheActionDto.getSequence() != null) {
+                    embeddingCacheProvider.receiveDelta(cacheActionDto);
+                } else if (cacheActionDto.getCacheAction().equals("UPDATE")) {
                     embeddingCacheProvider.receivePutOnCache(cacheActionDto.getApiKey());
                 } else if (cacheActionDto.getCacheAction().equals("DELETE")) {
                     embeddingCacheProvider.receiveInvalidateCache(cacheActionDto.getApiKey());
@@ -11,8 +11,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 
 @Service("notificationSenderService")
@@ -32,21 +32,16 @@ public class NotificationSenderService {
         }
     }
 
+    /**
+     * Payload is passed as a bind parameter of {@code pg_notify}, not formatted into {@code NOTIFY}, as it contains
+     * subject names, given by users.
+     */
     public void notifyCacheChange(CacheActionDto cacheActionDto) {
-        try {
-            Statement statement = this.connection.createStatement();
-
-            try {
-                ObjectMapper objectMapper = new ObjectMapper();
-                String actionString = String.format("NOTIFY face_collection_update_msg, '%s'",
-                        objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(cacheActionDto));
-                statement.execute(actionString);
-            } catch (JsonProcessingException e) {
-                log.error(e.getMessage());
-            }
-
-            statement.close();
-        } catch (SQLException e) {
+        try (PreparedStatement statement = this.connection.prepareStatement("SELECT pg_notify('face_collection_update_msg', ?)")) {
+            ObjectMapper objectMapper = new ObjectMapper();
+            statement.setString(1, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(cacheActionDto));
+            statement.execute();
+        } catch (JsonProcessingException | SQLException e) {
             log.error(e.getMessage());
         }
     }
@@ -9,6 +9,7 @@ import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResult;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.PluginsVersions;
 import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.cache.EmbeddingDelta;
 import com.exadel.frs.core.trainservice.component.FaceClassifierPredictor;
 import com.exadel.frs.core.trainservice.component.classifiers.EuclideanDistanceClassifier;
 import com.exadel.frs.core.trainservice.dao.SubjectDao;
@@ -29,6 +30,8 @@ import java.math.BigDecimal;
 import java.util.*;
 import java.util.stream.Stream;
 
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.ENROLLMENT;
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.VERIFICATION;
 import static java.math.RoundingMode.HALF_UP;
 
 @Service
@@ -44,6 +47,7 @@ public class SubjectService {
     private final EmbeddingCacheProvider embeddingCacheProvider;
     private final FaceClassifierPredictor predictor;
     private final EuclideanDistanceClassifier classifier;
+    private final CalculatorLimiter calculatorLimiter;
 
     public Collection<String> getSubjectsNames(final String apiKey) {
         return subjectDao.getSubjectNames(apiKey);
@@ -69,7 +73,8 @@ public class SubjectService {
             if (removed > 0) {
                 embeddingCacheProvider.ifPresent(
                         apiKey,
-                        c -> c.removeEmbeddingsBySubjectName(subjectName)
+                        c -> c.removeEmbeddingsBySubjectName(subjectName),
+                        EmbeddingDelta.subjectRemoved(subjectName)
                 );
             }
         } else {
@@ -94,7 +99,8 @@ public class SubjectService {
         // remove subject from cache if required
         embeddingCacheProvider.ifPresent(
                 apiKey,
-                c -> c.removeEmbeddingsBySubjectName(subjectName)
+                c -> c.removeEmbeddingsBySubjectName(subjectName),
+                EmbeddingDelta.subjectRemoved(subjectName)
         );
 
         return subject;
@@ -106,7 +112,8 @@ public class SubjectService {
         // remove embedding from cache if required
         embeddingCacheProvider.ifPresent(
                 apiKey,
-                c -> c.removeEmbedding(embedding)
+                c -> c.removeEmbedding(embedding),
+                EmbeddingDelta.embeddings(List.of(embedding.getId()))
         );
 
         return embedding;
@@ -135,7 +142,8 @@ public class SubjectService {
             // update cache if required
             embeddingCacheProvider.ifPresent(
                     apiKey,
-                    c -> c.updateSubjectName(oldSubjectName, newSubjectName)
+                    c -> c.updateSubjectName(oldSubjectName, newSubjectName),
+                    EmbeddingDelta.subjectRenamed(oldSubjectName, newSubjectName)
             );
         }
 
@@ -147,12 +155,12 @@ public class SubjectService {
             final String subjectName,
             final Double detProbThreshold,
             final String modelKey) {
-        var findFacesResponse = facesApiClient.findFacesBase64WithCalculator(
+        var findFacesResponse = calculatorLimiter.call(ENROLLMENT, modelKey, () -> facesApiClient.findFacesBase64WithCalculator(
                 base64photo,
                 MAX_FACES_TO_RECOGNIZE,
                 detProbThreshold,
                 null
-        );
+        ));
 
         return saveCalculatedEmbedding(
                 Base64.getDecoder().decode(base64photo),
@@ -168,12 +176,12 @@ public class SubjectService {
             final Double detProbThreshold,
             final String modelKey
     ) throws IOException {
-        var findFacesResponse = facesApiClient.findFacesWithCalculator(
+        var findFacesResponse = calculatorLimiter.call(ENROLLMENT, modelKey, () -> facesApiClient.findFacesWithCalculator(
                 file,
                 MAX_FACES_TO_RECOGNIZE,
                 detProbThreshold,
                 null
-        );
+        ));
 
         return saveCalculatedEmbedding(
                 file.getBytes(),
@@ -183,11 +191,39 @@ public class SubjectService {
         );
     }
 
+    /**
+     * Calculates embedding of the only face of the image, without saving it.
+     */
+    public EmbeddingInfo calculateEmbedding(final String base64photo, final Double detProbThreshold, final String modelKey) {
+        var findFacesResponse = calculatorLimiter.call(ENROLLMENT, modelKey, () -> facesApiClient.findFacesBase64WithCalculator(
+                base64photo,
+                MAX_FACES_TO_RECOGNIZE,
+                detProbThreshold,
+                null
+        ));
+
+        return toEmbeddingInfo(Base64.getDecoder().decode(base64photo), findFacesResponse);
+    }
+
     private Pair<Subject, Embedding> saveCalculatedEmbedding(byte[] content,
                                                              String subjectName,
                                                              String modelKey,
                                                              FindFacesResponse findFacesResponse) {
 
+        var embeddingToSave = toEmbeddingInfo(content, findFacesResponse);
+
+        final Pair<Subject, Embedding> pair = subjectDao.addEmbedding(modelKey, subjectName, embeddingToSave);
+
+        embeddingCacheProvider.ifPresent(
+                modelKey,
+                subjectCollection -> subjectCollection.addEmbedding(pair.getRight()),
+                EmbeddingDelta.embeddings(List.of(pair.getRight().getId()))
+        );
+
+        return pair;
+    }
+
+    private EmbeddingInfo toEmbeddingInfo(byte[] content, FindFacesResponse findFacesResponse) {
         // if we are here => at least one face exists
         List<FindFacesResult> result = findFacesResponse.getResult();
 
@@ -198,29 +234,20 @@ public class SubjectService {
         Double[] embedding = result.stream().findFirst().orElseThrow().getEmbedding();
         double[] normalized = classifier.normalizeOne(Arrays.stream(embedding).mapToDouble(d -> d).toArray());
 
-        var embeddingToSave = new EmbeddingInfo(
+        return new EmbeddingInfo(
                 findFacesResponse.getPluginsVersions().getCalculator(),
                 normalized,
                 content
         );
-
-        final Pair<Subject, Embedding> pair = subjectDao.addEmbedding(modelKey, subjectName, embeddingToSave);
-
-        embeddingCacheProvider.ifPresent(
-                modelKey,
-                subjectCollection -> subjectCollection.addEmbedding(pair.getRight())
-        );
-
-        return pair;
     }
 
     public Pair<List<FaceVerification>, PluginsVersions> verifyFace(ProcessImageParams processImageParams) {
         FindFacesResponse findFacesResponse;
         if (processImageParams.getFile() != null) {
             MultipartFile file = (MultipartFile) processImageParams.getFile();
-            findFacesResponse = facesApiClient.findFacesWithCalculator(file, processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins());
+            findFacesResponse = calculatorLimiter.call(VERIFICATION, processImageParams.getApiKey(), () -> facesApiClient.findFacesWithCalculator(file, processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins()));
         } else {
-            findFacesResponse = facesApiClient.findFacesBase64WithCalculator(processImageParams.getImageBase64(), processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins());
+            findFacesResponse = calculatorLimiter.call(VERIFICATION, processImageParams.getApiKey(), () -> facesApiClient.findFacesBase64WithCalculator(processImageParams.getImageBase64(), processImageParams.getLimit(), processImageParams.getDetProbThreshold(), processImageParams.getFacePlugins()));
         }
 
         if (findFacesResponse == null) {
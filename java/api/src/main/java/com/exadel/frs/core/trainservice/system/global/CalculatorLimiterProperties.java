@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.system.global;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the concurrency limits of the embedding calculator requests, see {@code CalculatorLimiter}.
+ * Each bulkhead (detection, recognition, verification, enrollment) has its own limit with these settings, api keys
+ * share it by the scheduling weights of their models.
+ */
+@Component
+@ConfigurationProperties(prefix = "app.calculator-limiter")
+@Data
+public class CalculatorLimiterProperties {
+
+    /**
+     * Calculator requests are not limited by default, as they were not before the limiter.
+     */
+    private boolean enabled = false;
+
+    private int initialLimit = 20;
+
+    private int minLimit = 2;
+
+    private int maxLimit = 200;
+
+    /**
+     * Limit is multiplied by it once a request is slower than {@link #latencyThreshold} or fails (at most once
+     * per the requests in flight), it grows by one after a limit's worth of fast requests.
+     */
+    private double backoffRatio = 0.9;
+
+    private Duration latencyThreshold = Duration.ofSeconds(5);
+
+    /**
+     * Maximum number of requests waiting for their turn, the rest are rejected at once.
+     */
+    private int maxQueue = 100;
+
+    /**
+     * Waiting requests are rejected after this time.
+     */
+    private Duration maxWait = Duration.ofSeconds(5);
+
+    /**
+     * Scheduling weights and limits of the models are reloaded from the database after this time.
+     */
+    private Duration quotaRefreshInterval = Duration.ofSeconds(30);
+}
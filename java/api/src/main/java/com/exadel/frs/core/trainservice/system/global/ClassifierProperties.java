@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.system.global;
+
+import com.exadel.frs.core.trainservice.component.classifiers.ClassifierType;
+import com.exadel.frs.core.trainservice.component.classifiers.HnswParameters;
+import com.exadel.frs.core.trainservice.component.classifiers.IvfPqParameters;
+import com.exadel.frs.core.trainservice.component.classifiers.ScoringKernel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "app.classifier")
+@Data
+public class ClassifierProperties {
+
+    private ClassifierType type = ClassifierType.EUCLIDEAN;
+
+    /**
+     * Implementation of the exact (euclidean) scoring.
+     */
+    private ScoringKernel kernel = ScoringKernel.ND4J;
+
+    private HnswParameters hnsw = new HnswParameters();
+
+    private IvfPqParameters ivfPq = new IvfPqParameters();
+
+    /**
+     * Overrides of the default settings, by model api key.
+     */
+    private Map<String, ModelClassifierProperties> models = new HashMap<>();
+
+    public ClassifierType getType(final String apiKey) {
+        return Optional.ofNullable(models.get(apiKey))
+                       .map(ModelClassifierProperties::getType)
+                       .orElse(type);
+    }
+
+    public HnswParameters getHnsw(final String apiKey) {
+        return Optional.ofNullable(models.get(apiKey))
+                       .map(ModelClassifierProperties::getHnsw)
+                       .orElse(hnsw);
+    }
+
+    public IvfPqParameters getIvfPq(final String apiKey) {
+        return Optional.ofNullable(models.get(apiKey))
+                       .map(ModelClassifierProperties::getIvfPq)
+                       .orElse(ivfPq);
+    }
+
+    @Data
+    public static class ModelClassifierProperties {
+
+        private ClassifierType type;
+        private HnswParameters hnsw;
+        private IvfPqParameters ivfPq;
+    }
+}
@@ -34,12 +34,22 @@ public class Constants {
     public static final String PREDICTION_COUNT_REQUEST_PARAM = "prediction_count";
     public static final String API_KEY_DESC = "Api key of application and model";
     public static final String IMAGE_FILE_DESC = "Image for recognizing";
+    public static final String IMAGE_FILES_DESC = "Images for recognizing";
+    public static final String ENROLLMENT_ARCHIVE_DESC = "Zip archive of pictures with one face each, every picture in a directory named after its subject";
     public static final String LIMIT_DESC = "Maximum number of faces to be recognized";
     public static final String LIMIT_MIN_DESC = "Limit should be equal or greater than 0";
     public static final String PREDICTION_COUNT_DESC = "Maximum number of predictions per faces";
     public static final String PREDICTION_COUNT_MIN_DESC = "prediction_count should be equal or greater than 1";
     public static final String DET_PROB_THRESHOLD_DESC = "The minimal percent confidence that found face is actually a face.";
     public static final String FACE_PLUGINS_DESC = "Comma-separated types of face plugins. Empty value - face plugins disabled, returns only bounding boxes";
+    public static final String CALCULATOR = "calculator";
+    public static final String CALCULATOR_DESC = "Version of the calculator, the embeddings are calculated by (calculator_version of the status), should be the current one";
+    public static final String EMBEDDINGS = "embeddings";
+    public static final String EMBEDDINGS_DESC = "Embeddings, calculated by the client";
+    public static final String EMBEDDINGS_BINARY_DESC = "Embeddings, calculated by the client, one after another, each of them as little-endian float32 values";
+    public static final String DIMENSION = "dimension";
+    public static final String DIMENSION_DESC = "Number of values of each embedding";
+    public static final String DIMENSION_MIN_DESC = "dimension should be equal or greater than 1";
     public static final String STATUS_DESC = "Special parameter to show execution_time and plugin_version fields. Empty value - both fields eliminated, true - both fields included";
     public static final String PREDICTION_COUNT = "predictionCount";
     public static final String STATUS_DEFAULT_VALUE = "false";
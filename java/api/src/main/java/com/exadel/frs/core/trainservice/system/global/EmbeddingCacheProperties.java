@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.core.trainservice.system.global;
+
+import com.exadel.frs.core.trainservice.cache.EmbeddingStorageType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Component
+@ConfigurationProperties(prefix = "app.embedding-cache")
+@Data
+public class EmbeddingCacheProperties {
+
+    private EmbeddingStorageType storageType = EmbeddingStorageType.DOUBLE;
+
+    /**
+     * Rows are scaled to unit length once, as they are loaded, so that the exact scoring is a dot product.
+     */
+    private boolean normalize = false;
+
+    /**
+     * Memory budget of all the cached collections, both off-heap (embeddings) and on-heap (projections, indexes).
+     */
+    private DataSize maxMemory = DataSize.ofGigabytes(4);
+
+    /**
+     * Collection, which is not requested this long, is evicted regardless of the budget.
+     */
+    private Duration expireAfterAccess = Duration.ofDays(1);
+
+    /**
+     * Collection, changed on another node, keeps being served while it is reloaded in background.
+     */
+    private boolean serveStale = false;
+
+    private SnapshotProperties snapshot = new SnapshotProperties();
+
+    private PreloadProperties preload = new PreloadProperties();
+
+    private CompactionProperties compaction = new CompactionProperties();
+
+    /**
+     * Settings of the collections, persisted on disk for fast warm start, see {@code EmbeddingSnapshotStore}.
+     */
+    @Data
+    public static class SnapshotProperties {
+
+        private boolean enabled = false;
+
+        private String directory = "/tmp/frs/embedding-snapshots";
+
+        /**
+         * Smaller collections are loaded from the database faster than caught up, so they are not persisted.
+         */
+        private int minSize = 1000;
+
+        /**
+         * How long recorded changes are kept, older snapshots are not caught up, but reloaded.
+         */
+        private Duration changeRetention = Duration.ofDays(7);
+
+        /**
+         * Changes, recorded this long before the snapshot, are applied once more, as the ones committed late
+         * (by long transactions) could be not yet visible while the snapshot was loaded.
+         */
+        private Duration changeOverlap = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Settings of the collections, loaded on startup, see {@code EmbeddingCachePreloader}.
+     */
+    @Data
+    public static class PreloadProperties {
+
+        private boolean enabled = true;
+
+        /**
+         * Number of collections, loaded at the same time.
+         */
+        private int concurrency = 2;
+
+        /**
+         * Maximum number of the most requested models to load, their collections should fit into the cache budget.
+         */
+        private int maxModels = 10;
+
+        /**
+         * Period, requests are counted for.
+         */
+        private Duration statisticPeriod = Duration.ofDays(7);
+
+        /**
+         * Models, loaded in any case (before the most requested ones).
+         */
+        private List<String> apiKeys = new ArrayList<>();
+    }
+
+    /**
+     * Settings of the background compaction, removed embeddings are only marked dead until the collection is compacted.
+     */
+    @Data
+    public static class CompactionProperties {
+
+        /**
+         * Share of dead rows, the collection is compacted at.
+         */
+        private double deadRatio = 0.2;
+
+        /**
+         * Minimal number of dead rows, small collections are not compacted after each removal.
+         */
+        private int minDeadRows = 100;
+    }
+}
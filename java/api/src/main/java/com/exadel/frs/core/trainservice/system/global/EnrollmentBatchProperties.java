@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.system.global;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of the bulk enrollment, see {@code EnrollmentBatchService}.
+ */
+@Component
+@ConfigurationProperties(prefix = "app.enrollment.batch")
+@Data
+public class EnrollmentBatchProperties {
+
+    /**
+     * Maximum number of images in a single request.
+     */
+    private int maxImages = 1000;
+
+    /**
+     * Maximum size of a single image of an archive, after it is decompressed.
+     */
+    private DataSize maxImageSize = DataSize.ofMegabytes(5);
+
+    /**
+     * Maximum size of all the images of an archive, after they are decompressed, they are kept in memory until
+     * the request is done.
+     */
+    private DataSize maxArchiveSize = DataSize.ofMegabytes(100);
+
+    /**
+     * Number of images of a request, sent to the embedding calculator at the same time. Images of all the requests
+     * wait for their turn in {@code CalculatorLimiter}, which shares the calculator between api keys.
+     */
+    private int concurrency = 4;
+
+    /**
+     * Number of calculated embeddings, saved to the database by a single transaction, while the rest of the images
+     * are still being calculated.
+     */
+    private int flushSize = 200;
+}
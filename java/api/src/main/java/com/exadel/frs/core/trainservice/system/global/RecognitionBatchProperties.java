@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.system.global;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the batch recognition, see {@code FaceRecognizeBatchService}.
+ */
+@Component
+@ConfigurationProperties(prefix = "app.recognition.batch")
+@Data
+public class RecognitionBatchProperties {
+
+    /**
+     * Maximum number of images in a single request.
+     */
+    private int maxImages = 100;
+
+    /**
+     * Number of images of a request, sent to the embedding calculator at the same time. Images of all the requests
+     * wait for their turn in {@code CalculatorLimiter}, which shares the calculator between api keys.
+     */
+    private int concurrency = 4;
+
+    /**
+     * Maximum number of embeddings in a single request, see {@code /recognition/recognize/embeddings}.
+     */
+    private int maxEmbeddings = 1000;
+
+    /**
+     * Batch request is completed with an error, if its results are not streamed back in time.
+     */
+    private Duration timeout = Duration.ofMinutes(5);
+}
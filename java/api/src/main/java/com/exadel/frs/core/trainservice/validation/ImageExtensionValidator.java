@@ -39,12 +39,15 @@ public class ImageExtensionValidator {
             return;
         }
 
+        validateFileName(file.getOriginalFilename());
+    }
+
+    public void validateFileName(final String fileName) {
         val formats = imageProperties.getTypes();
-        String originalFilename = file.getOriginalFilename();
-        val isWrongFormat = StringUtils.isEmpty(originalFilename) || !formats.contains(getFileExtension(originalFilename.toLowerCase()));
+        val isWrongFormat = StringUtils.isEmpty(fileName) || !formats.contains(getFileExtension(fileName.toLowerCase()));
 
         if (isWrongFormat) {
-            throw new FileExtensionException(originalFilename);
+            throw new FileExtensionException(fileName);
         }
     }
 
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.exadel.frs.core.trainservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.entity.Model;
+import com.exadel.frs.commonservice.entity.ModelRequestCountProjection;
+import com.exadel.frs.commonservice.enums.ModelType;
+import com.exadel.frs.commonservice.repository.ModelRepository;
+import com.exadel.frs.commonservice.repository.ModelStatisticRepository;
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class EmbeddingCachePreloaderTest {
+
+    @Mock
+    private EmbeddingCacheProvider embeddingCacheProvider;
+
+    @Mock
+    private ModelRepository modelRepository;
+
+    @Mock
+    private ModelStatisticRepository modelStatisticRepository;
+
+    @Spy
+    private EmbeddingCacheProperties embeddingCacheProperties = new EmbeddingCacheProperties();
+
+    @InjectMocks
+    private EmbeddingCachePreloader embeddingCachePreloader;
+
+    @BeforeEach
+    void setUp() {
+        // single thread, so that the load order is deterministic
+        embeddingCacheProperties.getPreload().setConcurrency(1);
+    }
+
+    @Test
+    void preloadsMostRequestedModelsFirst() {
+        embeddingCacheProperties.getPreload().setMaxModels(2);
+        embeddingCacheProperties.getPreload().setApiKeys(List.of("configured"));
+
+        when(modelRepository.findAllByType(ModelType.RECOGNITION)).thenReturn(List.of(
+                model(1L, "rare"), model(2L, "frequent"), model(3L, "middle"), model(4L, "unused")
+        ));
+        when(modelStatisticRepository.getRequestCountsSince(any())).thenReturn(List.of(
+                new ModelRequestCountProjection(1L, 5L),
+                new ModelRequestCountProjection(2L, 500L),
+                new ModelRequestCountProjection(3L, 50L)
+        ));
+
+        List<String> loaded = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> loaded.add(invocation.getArgument(0))).when(embeddingCacheProvider).preload(anyString());
+
+        assertThat(embeddingCachePreloader.isFinished()).isFalse();
+
+        embeddingCachePreloader.preload().join();
+
+        assertThat(loaded).containsExactly("configured", "frequent", "middle");
+        assertThat(embeddingCachePreloader.isFinished()).isTrue();
+        assertThat(embeddingCachePreloader.getPreloadedCount()).isEqualTo(3);
+        assertThat(embeddingCachePreloader.getTotalCount()).isEqualTo(3);
+    }
+
+    @Test
+    void finishesWhenModelIsNotLoaded() {
+        when(modelRepository.findAllByType(ModelType.RECOGNITION)).thenReturn(List.of(model(1L, "broken"), model(2L, "fine")));
+        when(modelStatisticRepository.getRequestCountsSince(any())).thenReturn(List.of(
+                new ModelRequestCountProjection(1L, 10L),
+                new ModelRequestCountProjection(2L, 1L)
+        ));
+        doThrow(new IllegalStateException()).when(embeddingCacheProvider).preload("broken");
+
+        embeddingCachePreloader.preload().join();
+
+        verify(embeddingCacheProvider).preload("fine");
+        assertThat(embeddingCachePreloader.isFinished()).isTrue();
+        assertThat(embeddingCachePreloader.getPreloadedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void finishesImmediatelyWhenDisabled() {
+        embeddingCacheProperties.getPreload().setEnabled(false);
+
+        embeddingCachePreloader.preload().join();
+
+        assertThat(embeddingCachePreloader.isFinished()).isTrue();
+        verifyNoInteractions(modelRepository, embeddingCacheProvider);
+    }
+
+    private static Model model(final Long id, final String apiKey) {
+        return Model.builder()
+                    .id(id)
+                    .apiKey(apiKey)
+                    .type(ModelType.RECOGNITION)
+                    .build();
+    }
+}
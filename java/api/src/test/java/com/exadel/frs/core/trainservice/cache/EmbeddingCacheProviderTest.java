@@ -19,20 +19,38 @@ package com.exadel.frs.core.trainservice.cache;
 import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEnhancedEmbeddingProjection;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.dto.CacheActionDto;
 import com.exadel.frs.core.trainservice.service.EmbeddingService;
 import com.exadel.frs.core.trainservice.service.NotificationSenderService;
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
 
 @ExtendWith(MockitoExtension.class)
 class EmbeddingCacheProviderTest {
@@ -45,6 +63,12 @@ class EmbeddingCacheProviderTest {
     @Mock
     private NotificationSenderService notificationSenderService;
 
+    @Spy
+    private EmbeddingCacheProperties embeddingCacheProperties = new EmbeddingCacheProperties();
+
+    @Mock
+    private EmbeddingSnapshotStore embeddingSnapshotStore;
+
     @InjectMocks
     private EmbeddingCacheProvider embeddingCacheProvider;
 
@@ -67,6 +91,252 @@ class EmbeddingCacheProviderTest {
         assertThat(actual, notNullValue());
         assertThat(actual.getProjections(), notNullValue());
         assertThat(actual.getProjections().size(), is(projections.length));
-        assertThat(actual.getEmbeddings(), notNullValue());
+        assertThat(actual.getSnapshot().rows(), is(projections.length));
+    }
+
+    @Test
+    void recordsStatistics() {
+        mockLoad();
+
+        embeddingCacheProvider.getOrLoad(API_KEY);
+        embeddingCacheProvider.getOrLoad(API_KEY);
+
+        var stats = embeddingCacheProvider.getCache().stats();
+        assertThat(stats.missCount(), is(1L));
+        assertThat(stats.hitCount(), is(1L));
+        assertThat(stats.loadSuccessCount(), is(1L));
+        assertThat(embeddingCacheProvider.getMemoryUsage() > 0, is(true));
+    }
+
+    @Test
+    void evictsCollectionsOverMemoryBudget() {
+        mockLoad();
+        // each of the tiny collections weighs the minimal weight (1KB)
+        embeddingCacheProperties.setMaxMemory(DataSize.ofKilobytes(2));
+        var provider = new EmbeddingCacheProvider(
+                embeddingService, notificationSenderService, embeddingCacheProperties, embeddingSnapshotStore
+        );
+
+        provider.getOrLoad("first");
+        provider.getOrLoad("second");
+        provider.getOrLoad("third");
+        provider.getCache().cleanUp();
+
+        assertThat(provider.getCache().estimatedSize(), is(2L));
+        assertThat(provider.getCache().stats().evictionCount(), is(1L));
+    }
+
+    @Test
+    void loadsMissingCollectionOnceForConcurrentCallers() throws Exception {
+        var loadStarted = new CountDownLatch(1);
+        var loadAllowed = new CountDownLatch(1);
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any()))
+                .thenAnswer(invocation -> {
+                    loadStarted.countDown();
+                    loadAllowed.await();
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var leader = executor.submit(() -> embeddingCacheProvider.getOrLoad(API_KEY));
+            loadStarted.await();
+            var followers = new ArrayList<Future<EmbeddingCollection>>();
+            for (int i = 0; i < 3; i++) {
+                followers.add(executor.submit(() -> embeddingCacheProvider.getOrLoad(API_KEY)));
+            }
+            loadAllowed.countDown();
+
+            var collection = leader.get(10, TimeUnit.SECONDS);
+            for (var follower : followers) {
+                assertThat(follower.get(10, TimeUnit.SECONDS), sameInstance(collection));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(embeddingService).doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any());
+        // nothing is changed by a load, so other nodes are not notified
+        verify(notificationSenderService, never()).notifyCacheChange(any());
+    }
+
+    @Test
+    void servesStaleCollectionWhileReloading() throws Exception {
+        embeddingCacheProperties.setServeStale(true);
+        mockLoad();
+        var stale = embeddingCacheProvider.getOrLoad(API_KEY);
+
+        var reloadAllowed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            reloadAllowed.await();
+            var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+            return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A"), makeEnhancedEmbeddingProjection("B")));
+        }).when(embeddingService).doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any());
+
+        embeddingCacheProvider.receivePutOnCache(API_KEY);
+        assertThat(embeddingCacheProvider.getOrLoad(API_KEY), sameInstance(stale));
+
+        reloadAllowed.countDown();
+        var deadline = System.currentTimeMillis() + 10_000;
+        while (embeddingCacheProvider.getOrLoad(API_KEY) == stale && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(embeddingCacheProvider.getOrLoad(API_KEY).getProjections().size(), is(2));
+    }
+
+    @Test
+    void sendsNumberedDeltas() {
+        var embeddingId = UUID.randomUUID();
+
+        embeddingCacheProvider.ifPresent(API_KEY, collection -> {}, EmbeddingDelta.embeddings(List.of(embeddingId)));
+        embeddingCacheProvider.ifPresent(API_KEY, collection -> {}, EmbeddingDelta.subjectRenamed("A", "B"));
+
+        var captor = ArgumentCaptor.forClass(CacheActionDto.class);
+        verify(notificationSenderService, times(2)).notifyCacheChange(captor.capture());
+
+        var first = captor.getAllValues().get(0);
+        assertThat(first.getCacheAction(), is("UPDATE"));
+        assertThat(first.getSequence(), is(1L));
+        assertThat(first.getEmbeddingIds(), is(List.of(embeddingId)));
+
+        var second = captor.getAllValues().get(1);
+        assertThat(second.getSequence(), is(2L));
+        assertThat(second.getOldSubjectName(), is("A"));
+        assertThat(second.getNewSubjectName(), is("B"));
+    }
+
+    @Test
+    void numbersDeltasInOrderOfTheirLocalApply() throws Exception {
+        mockLoad();
+        embeddingCacheProvider.getOrLoad(API_KEY);
+        var applied = new ArrayList<String>();
+        var renaming = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<?> first = executor.submit(() -> embeddingCacheProvider.ifPresent(API_KEY, collection -> {
+                applied.add("B");
+                renaming.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, EmbeddingDelta.subjectRenamed("A", "B")));
+            renaming.await(5, TimeUnit.SECONDS);
+            Future<?> second = executor.submit(() -> embeddingCacheProvider.ifPresent(
+                    API_KEY, collection -> applied.add("C"), EmbeddingDelta.subjectRenamed("A", "C")
+            ));
+            Thread.sleep(100);
+            // the second rename waits until the first one is applied
+            assertThat(applied, is(List.of("B")));
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var captor = ArgumentCaptor.forClass(CacheActionDto.class);
+        verify(notificationSenderService, times(2)).notifyCacheChange(captor.capture());
+        assertThat(applied, is(List.of("B", "C")));
+        assertThat(captor.getAllValues().get(0).getNewSubjectName(), is("B"));
+        assertThat(captor.getAllValues().get(0).getSequence(), is(1L));
+        assertThat(captor.getAllValues().get(1).getNewSubjectName(), is("C"));
+        assertThat(captor.getAllValues().get(1).getSequence(), is(2L));
+    }
+
+    @Test
+    void appliesChangesWhileNotificationIsSent() throws Exception {
+        mockLoad();
+        embeddingCacheProvider.getOrLoad(API_KEY);
+        var sending = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await(30, TimeUnit.SECONDS);
+            return null;
+        }).doNothing().when(notificationSenderService).notifyCacheChange(any());
+        var applied = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<?> first = executor.submit(() -> embeddingCacheProvider.ifPresent(
+                    API_KEY, collection -> {}, EmbeddingDelta.subjectRenamed("A", "B")
+            ));
+            sending.await(5, TimeUnit.SECONDS);
+            Future<?> second = executor.submit(() -> embeddingCacheProvider.ifPresent(
+                    API_KEY, collection -> applied.countDown(), EmbeddingDelta.subjectRenamed("B", "C")
+            ));
+            // the second rename is not blocked by the notification of the first one
+            assertThat(applied.await(5, TimeUnit.SECONDS), is(true));
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var captor = ArgumentCaptor.forClass(CacheActionDto.class);
+        verify(notificationSenderService, times(2)).notifyCacheChange(captor.capture());
+        assertThat(captor.getAllValues().get(0).getNewSubjectName(), is("B"));
+        assertThat(captor.getAllValues().get(0).getSequence(), is(1L));
+        assertThat(captor.getAllValues().get(1).getNewSubjectName(), is("C"));
+        assertThat(captor.getAllValues().get(1).getSequence(), is(2L));
+    }
+
+    @Test
+    void appliesReceivedDeltas() {
+        mockLoad();
+        var collection = embeddingCacheProvider.getOrLoad(API_KEY);
+        var added = makeEnhancedEmbeddingProjection("B");
+        when(embeddingService.getEnhancedEmbeddings(API_KEY, List.of(added.getEmbeddingId()))).thenReturn(List.of(added));
+
+        embeddingCacheProvider.receiveDelta(delta(1L, List.of(added.getEmbeddingId()), null, null));
+        embeddingCacheProvider.receiveDelta(delta(2L, null, "A", "C"));
+
+        assertThat(embeddingCacheProvider.getOrLoad(API_KEY), sameInstance(collection));
+        assertThat(collection.getProjections().size(), is(2));
+        assertThat(collection.getSnapshot().getProjection(0).getSubjectName(), is("C"));
+        assertThat(collection.getSnapshot().getProjection(1).getEmbeddingId(), is(added.getEmbeddingId()));
+        // the same delta is not applied twice
+        embeddingCacheProvider.receiveDelta(delta(2L, null, "C", "D"));
+        assertThat(collection.getSnapshot().getProjection(0).getSubjectName(), is("C"));
+    }
+
+    @Test
+    void reloadsCollectionWhenDeltaIsMissed() {
+        mockLoad();
+        var collection = embeddingCacheProvider.getOrLoad(API_KEY);
+
+        embeddingCacheProvider.receiveDelta(delta(1L, null, "A", "B"));
+        embeddingCacheProvider.receiveDelta(delta(3L, null, "B", "C"));
+
+        assertThat(embeddingCacheProvider.getOrLoad(API_KEY), not(sameInstance(collection)));
+        verify(embeddingService, times(2)).doWithEnhancedEmbeddingProjectionStream(eq(API_KEY), any());
+    }
+
+    private static CacheActionDto delta(final Long sequence, final List<UUID> embeddingIds,
+                                        final String oldSubjectName, final String newSubjectName) {
+        var action = new CacheActionDto("UPDATE", API_KEY, "other-node");
+        action.setSequence(sequence);
+        action.setEmbeddingIds(embeddingIds);
+        action.setOldSubjectName(oldSubjectName);
+        action.setNewSubjectName(newSubjectName);
+
+        return action;
+    }
+
+    private void mockLoad() {
+        when(embeddingService.doWithEnhancedEmbeddingProjectionStream(any(), any()))
+                .thenAnswer(invocation -> {
+                    var function = (Function<Stream<EnhancedEmbeddingProjection>, ?>) invocation.getArgument(1);
+                    return function.apply(Stream.of(makeEnhancedEmbeddingProjection("A")));
+                });
     }
 }
@@ -19,11 +19,18 @@ package com.exadel.frs.core.trainservice.cache;
 import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEmbedding;
 import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEnhancedEmbeddingProjection;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
 import com.exadel.frs.commonservice.entity.EmbeddingProjection;
 import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.commonservice.exception.IncorrectImageIdException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.buffer.DataType;
 
 class EmbeddingCollectionTest {
 
@@ -40,13 +47,13 @@ class EmbeddingCollectionTest {
     @Test
     void testAddToEmpty() {
         var embeddingCollection = EmbeddingCollection.from(Stream.of());
-        assertThat(embeddingCollection.getEmbeddings().isEmpty()).isTrue();
+        assertThat(embeddingCollection.getSnapshot().isEmpty()).isTrue();
         assertThat(embeddingCollection.getIndexMap()).isEmpty();
         assertThat(embeddingCollection.getProjections()).isEmpty();
 
         embeddingCollection.addEmbedding(makeEmbedding("A", API_KEY));
 
-        assertThat(embeddingCollection.getEmbeddings().isEmpty()).isFalse();
+        assertThat(embeddingCollection.getSnapshot().isEmpty()).isFalse();
         assertThat(embeddingCollection.getProjections()).hasSize(1);
     }
 
@@ -94,8 +101,267 @@ class EmbeddingCollectionTest {
 
         embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection1));
 
+        // removed row is only marked dead, rows are not shifted
         assertThat(embeddingCollection.getProjections()).hasSize(projections.length - 1);
+        assertThat(embeddingCollection.getIndexMap()).containsEntry(1, EmbeddingProjection.from(projection2));
+        assertThat(embeddingCollection.getIndexMap()).containsEntry(2, EmbeddingProjection.from(projection3));
+        assertThat(embeddingCollection.getSnapshot().size()).isEqualTo(2);
+        assertThat(embeddingCollection.getSnapshot().rows()).isEqualTo(3);
+        assertThat(embeddingCollection.getSnapshot().isLive(0)).isFalse();
+
+        assertThat(embeddingCollection.compact()).isTrue();
+
         assertThat(embeddingCollection.getIndexMap()).containsEntry(0, EmbeddingProjection.from(projection2));
         assertThat(embeddingCollection.getIndexMap()).containsEntry(1, EmbeddingProjection.from(projection3));
+        assertThat(embeddingCollection.getSnapshot().rows()).isEqualTo(2);
+        assertThat(embeddingCollection.getSnapshot().deadRatio()).isZero();
+        assertThat(embeddingCollection.compact()).isFalse();
+    }
+
+    @Test
+    void testRemoveBySubjectName() {
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(
+                makeEnhancedEmbeddingProjection("A"),
+                makeEnhancedEmbeddingProjection("B"),
+                makeEnhancedEmbeddingProjection("A")
+        ));
+
+        var removed = embeddingCollection.removeEmbeddingsBySubjectName("A");
+
+        assertThat(removed).hasSize(2);
+        assertThat(embeddingCollection.getSnapshot().size()).isEqualTo(1);
+        assertThat(embeddingCollection.getSnapshot().liveRows()).containsExactly(1);
+    }
+
+    @Test
+    void testCreateFloat() {
+        var projections = IntStream.range(0, 20)
+                .mapToObj(i -> makeEnhancedEmbeddingProjection("subject" + i))
+                .toArray(EnhancedEmbeddingProjection[]::new);
+
+        // expected size is lower than actual, matrix should grow
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projections), EmbeddingStorageType.FLOAT, 1, false);
+
+        var snapshot = embeddingCollection.getSnapshot();
+        assertThat(snapshot.dataType()).isEqualTo(DataType.FLOAT);
+        assertThat(snapshot.rows()).isEqualTo(projections.length);
+        assertThat(snapshot.getRow(19).toDoubleVector()).containsExactly(new double[]{1.1, 2.2, 3.3}, within(1e-6));
+        assertThat(embeddingCollection.getIndexMap()).containsEntry(19, EmbeddingProjection.from(projections[19]));
+    }
+
+    @Test
+    void testAddToFloat() {
+        var embeddingCollection = EmbeddingCollection.from(
+                Stream.of(makeEnhancedEmbeddingProjection("A")),
+                EmbeddingStorageType.FLOAT,
+                1,
+                false
+        );
+
+        embeddingCollection.addEmbedding(makeEmbedding("B", API_KEY));
+
+        assertThat(embeddingCollection.getSnapshot().dataType()).isEqualTo(DataType.FLOAT);
+        assertThat(embeddingCollection.getSnapshot().getSegment(1).dataType()).isEqualTo(DataType.FLOAT);
+        assertThat(embeddingCollection.getSnapshot().rows()).isEqualTo(2);
+    }
+
+    @Test
+    void testNormalizedRows() {
+        var embeddingCollection = EmbeddingCollection.from(
+                Stream.of(makeEnhancedEmbeddingProjection("A")),
+                EmbeddingStorageType.DOUBLE,
+                1,
+                true
+        );
+
+        embeddingCollection.addEmbedding(makeEmbedding("B", API_KEY));
+
+        var norm = Math.sqrt(1.1 * 1.1 + 2.2 * 2.2 + 3.3 * 3.3);
+        var snapshot = embeddingCollection.getSnapshot();
+        assertThat(embeddingCollection.isNormalized()).isTrue();
+        assertThat(snapshot.getRow(0).toDoubleVector()).containsExactly(new double[]{1.1 / norm, 2.2 / norm, 3.3 / norm}, within(1e-9));
+        assertThat(snapshot.getRow(1).toDoubleVector()).containsExactly(new double[]{1.1 / norm, 2.2 / norm, 3.3 / norm}, within(1e-9));
+        assertThat(snapshot.getSegmentNorms(1).getDouble(0)).isCloseTo(1, within(1e-9));
+    }
+
+    @Test
+    void testSnapshotIsNotModifiedByWriters() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("B");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2));
+        var snapshot = embeddingCollection.getSnapshot();
+
+        embeddingCollection.addEmbedding(makeEmbedding("C", API_KEY));
+        embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection1));
+        embeddingCollection.updateSubjectName("B", "D");
+
+        assertThat(snapshot.size()).isEqualTo(2);
+        assertThat(snapshot.rows()).isEqualTo(2);
+        assertThat(snapshot.getSegment(0).rows()).isEqualTo(2);
+        assertThat(snapshot.getProjection(0)).isEqualTo(EmbeddingProjection.from(projection1));
+        assertThat(snapshot.getProjection(1)).isEqualTo(EmbeddingProjection.from(projection2));
+
+        var actual = embeddingCollection.getSnapshot();
+        assertThat(actual.size()).isEqualTo(2);
+        assertThat(actual.rows()).isEqualTo(3);
+                assertThat(actual.getProjection(1).getSubjectName()).isEqualTo("D");
+        assertThat(actual.getProjection(2).getSubjectName()).isEqualTo("C");
+
+        embeddingCollection.compact();
+
+        assertThat(actual.rows()).isEqualTo(3);
+        var compacted = embeddingCollection.getSnapshot();
+        assertThat(compacted.size()).isEqualTo(2);
+        assertThat(compacted.segmentCount()).isEqualTo(1);
+        assertThat(compacted.getSegment(0).rows()).isEqualTo(2);
+        assertThat(compacted.getSegmentNorms(0).length()).isEqualTo(2);
+        assertThat(compacted.getProjection(0).getSubjectName()).isEqualTo("D");
+        assertThat(compacted.getProjection(1).getSubjectName()).isEqualTo("C");
+    }
+
+    @Test
+    void testAppendDoesNotCopyStoredRows() {
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(makeEnhancedEmbeddingProjection("A")));
+        var loaded = embeddingCollection.getSnapshot().getSegment(0);
+
+        var added = IntStream.range(0, 100)
+                .mapToObj(i -> embeddingCollection.addEmbedding(makeEmbedding("subject" + i, API_KEY)
+                        .setId(UUID.randomUUID())
+                        .setEmbedding(new double[]{i, i, i})))
+                .toArray(EmbeddingProjection[]::new);
+
+        var snapshot = embeddingCollection.getSnapshot();
+        assertThat(snapshot.rows()).isEqualTo(101);
+        assertThat(snapshot.getSegment(0)).isSameAs(loaded);
+        assertThat(snapshot.segmentCount()).isGreaterThan(2).isLessThan(10);
+        assertThat(snapshot.getProjection(100)).isEqualTo(added[99]);
+        assertThat(snapshot.getRow(100).toDoubleVector()).containsExactly(99, 99, 99);
+        assertThat(snapshot.getRows(new int[]{0, 50, 51, 100}).getColumn(0).toDoubleVector())
+                .containsExactly(new double[]{1.1, 49, 50, 99}, within(1e-9));
+
+        var segment = snapshot.segmentCount() - 1;
+        var lastRow = snapshot.segmentOffset(segment) + snapshot.getSegment(segment).rows() - 1;
+        assertThat(lastRow).isEqualTo(100);
+        assertThat(snapshot.getSegmentNorms(segment).getDouble(snapshot.getSegment(segment).rows() - 1))
+                .isCloseTo(3 * 99 * 99, within(1e-9));
+    }
+
+    @Test
+    void testLookupsFollowChanges() {
+        var projection1 = makeEnhancedEmbeddingProjection("A");
+        var projection2 = makeEnhancedEmbeddingProjection("A");
+        var projection3 = makeEnhancedEmbeddingProjection("B");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection1, projection2, projection3));
+
+        embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection1));
+        embeddingCollection.updateSubjectName("A", "B");
+
+        assertThat(embeddingCollection.getSubjectNameByEmbeddingId(projection2.getEmbeddingId())).contains("B");
+        assertThatThrownBy(() -> embeddingCollection.getSubjectNameByEmbeddingId(projection1.getEmbeddingId()))
+                .isInstanceOf(IncorrectImageIdException.class);
+        assertThat(embeddingCollection.removeEmbeddingsBySubjectName("A")).isEmpty();
+
+        embeddingCollection.compact();
+
+        assertThat(embeddingCollection.getRawEmbeddingById(projection3.getEmbeddingId()).get().toDoubleVector())
+                .containsExactly(projection3.getEmbeddingData());
+        assertThat(embeddingCollection.removeEmbeddingsBySubjectName("B"))
+                .containsExactlyInAnyOrder(EmbeddingProjection.from(projection2).withNewSubjectName("B"), EmbeddingProjection.from(projection3));
+        assertThat(embeddingCollection.getSnapshot().size()).isZero();
+    }
+
+    @Test
+    void testRenameChangesOnlyDictionary() {
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(
+                makeEnhancedEmbeddingProjection("A"),
+                makeEnhancedEmbeddingProjection("B"),
+                makeEnhancedEmbeddingProjection("A")
+        ));
+        var snapshot = embeddingCollection.getSnapshot();
+
+        embeddingCollection.updateSubjectName("A", "C");
+
+        var renamed = embeddingCollection.getSnapshot();
+        assertThat(renamed.subjectCount()).isEqualTo(2);
+        assertThat(renamed.getSubjectId(2)).isEqualTo(snapshot.getSubjectId(2));
+        assertThat(renamed.getSubjectName(0)).isEqualTo("C");
+        assertThat(renamed.getSubjectName(2)).isEqualTo("C");
+        assertThat(snapshot.getSubjectName(0)).isEqualTo("A");
+
+        // subjects are merged
+        embeddingCollection.updateSubjectName("B", "C");
+
+        assertThat(embeddingCollection.getSnapshot().getSubjectName(1)).isEqualTo("C");
+        assertThat(embeddingCollection.removeEmbeddingsBySubjectName("C")).hasSize(3);
+    }
+
+    @Test
+    void testAddAfterMerge() {
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(
+                makeEnhancedEmbeddingProjection("A"),
+                makeEnhancedEmbeddingProjection("B")
+        ));
+
+        embeddingCollection.updateSubjectName("B", "A");
+        embeddingCollection.addEmbedding(makeEmbedding(UUID.randomUUID(), "A", API_KEY));
+        embeddingCollection.addEmbedding(makeEmbedding(UUID.randomUUID(), "C", API_KEY));
+
+        var snapshot = embeddingCollection.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(4);
+        assertThat(snapshot.getSubjectName(2)).isEqualTo("A");
+        assertThat(snapshot.getSubjectName(3)).isEqualTo("C");
+        assertThat(embeddingCollection.removeEmbeddingsBySubjectName("A")).hasSize(3);
+    }
+
+    @Test
+    void testIndexGetsChangesMadeWhileItIsBuilt() {
+        var projection = makeEnhancedEmbeddingProjection("A");
+        var embeddingCollection = EmbeddingCollection.from(Stream.of(projection));
+
+        assertThat(embeddingCollection.startIndexBuild("index")).isTrue();
+        assertThat(embeddingCollection.startIndexBuild("index")).isFalse();
+        embeddingCollection.addEmbedding(makeEmbedding(UUID.randomUUID(), "B", API_KEY));
+        embeddingCollection.removeEmbedding(EmbeddingProjection.from(projection));
+        assertThat(embeddingCollection.<EmbeddingIndex>getIndex("index")).isNull();
+
+        var index = embeddingCollection.buildIndex("index", snapshot -> {
+            assertThat(snapshot.rows()).isEqualTo(1);
+            return new RecordingIndex();
+        });
+        embeddingCollection.updateSubjectName("B", "C");
+
+        assertThat(embeddingCollection.<EmbeddingIndex>getIndex("index")).isSameAs(index);
+        assertThat(embeddingCollection.startIndexBuild("index")).isFalse();
+        assertThat(index.changes).containsExactly("add 1", "remove 0", "rename 1");
+    }
+
+    private static class RecordingIndex implements EmbeddingIndex {
+
+        private final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void add(int row, EmbeddingProjection projection, double[] embedding, EmbeddingSnapshot snapshot) {
+            changes.add("add " + row);
+        }
+
+        @Override
+        public void remove(int row, EmbeddingProjection projection, EmbeddingSnapshot snapshot) {
+            changes.add("remove " + row);
+        }
+
+        @Override
+        public void rename(int row, EmbeddingProjection oldProjection, EmbeddingProjection newProjection, EmbeddingSnapshot snapshot) {
+            changes.add("rename " + row);
+        }
+
+        @Override
+        public void compact(int[] rows, EmbeddingSnapshot snapshot) {
+            changes.add("compact");
+        }
+
+        @Override
+        public long estimateSize() {
+            return 0;
+        }
     }
-}
\ No newline at end of file
+}
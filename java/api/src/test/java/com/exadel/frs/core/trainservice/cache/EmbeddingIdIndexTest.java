@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.core.trainservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class EmbeddingIdIndexTest {
+
+    @Test
+    void testPutGetRemove() {
+        var index = new EmbeddingIdIndex(0);
+        // sequential ids collide in the low bits, so probing and shifting on removal are exercised
+        var ids = IntStream.range(0, 1000).mapToObj(i -> new UUID(0, i)).toArray(UUID[]::new);
+
+        for (int i = 0; i < ids.length; i++) {
+            index.put(ids[i], i);
+        }
+        for (int i = 0; i < ids.length; i += 2) {
+            assertThat(index.remove(ids[i])).isEqualTo(i);
+        }
+
+        assertThat(index.size()).isEqualTo(500);
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(index.get(ids[i])).isEqualTo(i % 2 == 0 ? EmbeddingIdIndex.NOT_FOUND : i);
+        }
+        assertThat(index.remove(ids[0])).isEqualTo(EmbeddingIdIndex.NOT_FOUND);
+    }
+
+    @Test
+    void testPutReplacesRow() {
+        var index = new EmbeddingIdIndex(1);
+        var id = UUID.randomUUID();
+
+        index.put(id, 1);
+        index.put(id, 7);
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.get(id)).isEqualTo(7);
+    }
+}
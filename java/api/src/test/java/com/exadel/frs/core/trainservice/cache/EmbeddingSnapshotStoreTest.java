@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.entity.EmbeddingChange;
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.service.EmbeddingChangeService;
+import com.exadel.frs.core.trainservice.system.global.EmbeddingCacheProperties;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class EmbeddingSnapshotStoreTest {
+
+    private static final String API_KEY = "api-key";
+    private static final LocalDateTime WATERMARK = LocalDateTime.of(2021, 6, 1, 12, 0);
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private EmbeddingChangeService embeddingChangeService;
+
+    private EmbeddingCacheProperties embeddingCacheProperties;
+    private EmbeddingSnapshotStore embeddingSnapshotStore;
+
+    private EnhancedEmbeddingProjection[] projections;
+
+    @BeforeEach
+    void setUp() {
+        embeddingCacheProperties = new EmbeddingCacheProperties();
+        embeddingCacheProperties.getSnapshot().setEnabled(true);
+        embeddingCacheProperties.getSnapshot().setDirectory(directory.toString());
+        embeddingSnapshotStore = new EmbeddingSnapshotStore(embeddingChangeService, embeddingCacheProperties);
+
+        projections = new EnhancedEmbeddingProjection[]{
+                new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1.1, 2.2, 3.3}, "A"),
+                new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{4.4, 5.5, 6.6}, "A"),
+                new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{7.7, 8.8, 9.9}, "B"),
+                new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1.0, 2.0, 3.0}, "C")
+        };
+
+        when(embeddingChangeService.getChanges(eq(API_KEY), any())).thenReturn(List.of());
+        when(embeddingChangeService.getEmbeddings(eq(API_KEY), anyCollection())).thenReturn(List.of());
+        when(embeddingChangeService.getSubjectEmbeddings(eq(API_KEY), anyCollection())).thenReturn(List.of());
+        when(embeddingChangeService.getSubjectNames(eq(API_KEY), anyCollection())).thenReturn(Map.of());
+    }
+
+    @Test
+    void testLoadWithoutChanges() throws IOException {
+        persist(EmbeddingStorageType.DOUBLE);
+
+        var collection = embeddingSnapshotStore.load(API_KEY, WATERMARK.plusHours(1));
+
+        assertThat(collection).isPresent();
+        assertThat(collection.get().getProjections()).containsExactlyInAnyOrderElementsOf(
+                Stream.of(projections).map(EmbeddingProjection::from).collect(Collectors.toList())
+        );
+        assertThat(collection.get().getRawEmbeddingById(projections[2].getEmbeddingId()).get().toDoubleVector())
+                .containsExactly(projections[2].getEmbeddingData());
+    }
+
+    @Test
+    void testLoadFloatSnapshot() throws IOException {
+        persist(EmbeddingStorageType.FLOAT);
+
+        var collection = embeddingSnapshotStore.load(API_KEY, WATERMARK.plusHours(1));
+
+        assertThat(collection).isPresent();
+        assertThat(collection.get().getProjections()).hasSize(projections.length);
+        assertThat(collection.get().getRawEmbeddingById(projections[3].getEmbeddingId()).get().toDoubleVector())
+                .containsExactly(projections[3].getEmbeddingData());
+    }
+
+    @Test
+    void testCatchUp() throws IOException {
+        persist(EmbeddingStorageType.DOUBLE);
+
+        var subjectId = UUID.randomUUID();
+        var added = new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{3.0, 2.0, 1.0}, "C");
+        var renamed = new EnhancedEmbeddingProjection(projections[2].getEmbeddingId(), projections[2].getEmbeddingData(), "D");
+        when(embeddingChangeService.getChanges(eq(API_KEY), any())).thenReturn(List.of(
+                new EmbeddingChange(1L, API_KEY, projections[0].getEmbeddingId(), null, null, WATERMARK.plusMinutes(1)),
+                new EmbeddingChange(2L, API_KEY, added.getEmbeddingId(), null, null, WATERMARK.plusMinutes(2)),
+                new EmbeddingChange(3L, API_KEY, null, subjectId, "B", WATERMARK.plusMinutes(3))
+        ));
+        when(embeddingChangeService.getEmbeddings(eq(API_KEY), anyCollection())).thenReturn(List.of(added));
+        when(embeddingChangeService.getSubjectNames(eq(API_KEY), anyCollection())).thenReturn(Map.of(subjectId, "D"));
+        when(embeddingChangeService.getSubjectEmbeddings(eq(API_KEY), anyCollection())).thenReturn(List.of(renamed));
+
+        var collection = embeddingSnapshotStore.load(API_KEY, WATERMARK.plusHours(1));
+
+        assertThat(collection).isPresent();
+        assertThat(collection.get().getProjections()).containsExactlyInAnyOrder(
+                EmbeddingProjection.from(projections[1]),
+                EmbeddingProjection.from(renamed),
+                EmbeddingProjection.from(projections[3]),
+                EmbeddingProjection.from(added)
+        );
+    }
+
+    @Test
+    void testExpiredSnapshotIsNotLoaded() throws IOException {
+        persist(EmbeddingStorageType.DOUBLE);
+
+        var collection = embeddingSnapshotStore.load(API_KEY, WATERMARK.plusDays(8));
+
+        assertThat(collection).isEmpty();
+    }
+
+    @Test
+    void testCorruptedSnapshotIsDeleted() throws IOException {
+        var path = directory.resolve(API_KEY + ".snapshot");
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        var collection = embeddingSnapshotStore.load(API_KEY, WATERMARK);
+
+        assertThat(collection).isEmpty();
+        assertThat(path).doesNotExist();
+    }
+
+    @Test
+    void testMissingSnapshot() {
+        assertThat(embeddingSnapshotStore.load(API_KEY, WATERMARK)).isEmpty();
+    }
+
+    private void persist(EmbeddingStorageType storageType) throws IOException {
+        var snapshot = EmbeddingCollection.from(Stream.of(projections), storageType, projections.length, false).getSnapshot();
+        PersistedEmbeddings.write(directory.resolve(API_KEY + ".snapshot"), snapshot, WATERMARK);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEmbedding;
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeSubject;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingStorageType;
+import com.exadel.frs.core.trainservice.system.global.ClassifierProperties;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class EuclideanDistanceClassifierTest {
+
+    private static final String API_KEY = "apiKey";
+    private static final int LOADED = 200;
+    private static final int APPENDED = 50;
+    private static final int DIMENSIONS = 16;
+
+    @Mock
+    private EmbeddingCacheProvider embeddingCacheProvider;
+
+    @Mock
+    private FacesApiClient facesApiClient;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testPredictAllSameAsPredict(boolean normalized) {
+        var random = new Random(1);
+        var collection = EmbeddingCollection.from(
+                IntStream.range(0, LOADED)
+                         .mapToObj(i -> new EnhancedEmbeddingProjection(
+                                 UUID.randomUUID(),
+                                 random.doubles(DIMENSIONS).toArray(),
+                                 "subject" + i
+                         )),
+                EmbeddingStorageType.DOUBLE,
+                LOADED,
+                normalized
+        );
+        // appended rows go to new segments, removed ones stay in the matrix
+        IntStream.range(0, APPENDED).forEach(i -> collection.addEmbedding(
+                makeEmbedding(makeSubject(API_KEY, "appended" + i), null, random.doubles(DIMENSIONS).toArray(), null)
+                        .setId(UUID.randomUUID())
+        ));
+        IntStream.range(0, 10).forEach(i -> collection.removeEmbedding(
+                new EmbeddingProjection(collection.getSnapshot().getEmbeddingId(i * 7), "subject" + i * 7)
+        ));
+
+        when(embeddingCacheProvider.getOrLoad(API_KEY)).thenReturn(collection);
+        when(facesApiClient.getStatus()).thenReturn(new FacesStatusResponse().setSimilarityCoefficients(List.of(1.1, 5.0)));
+        var classifier = new EuclideanDistanceClassifier(embeddingCacheProvider, facesApiClient, new ClassifierProperties());
+
+        var inputs = IntStream.range(0, 5)
+                              .mapToObj(i -> random.doubles(DIMENSIONS).toArray())
+                              .toArray(double[][]::new);
+        var predictions = classifier.predictAll(inputs, API_KEY, 5);
+
+        assertThat(predictions).hasSize(inputs.length);
+        for (int i = 0; i < inputs.length; i++) {
+            var expected = classifier.predict(inputs[i], API_KEY, 5);
+            var actual = predictions.get(i);
+
+            assertThat(actual).hasSize(expected.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertThat(actual.get(j).getRight()).isEqualTo(expected.get(j).getRight());
+                assertThat(actual.get(j).getLeft()).isCloseTo(expected.get(j).getLeft(), within(1e-9));
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEmbedding;
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeSubject;
+import static org.assertj.core.api.Assertions.assertThat;
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HnswIndexTest {
+
+    private static final int SIZE = 500;
+    private static final int DIMENSIONS = 16;
+    private static final String INDEX_NAME = "hnsw";
+
+    private EmbeddingCollection collection;
+    private HnswIndex index;
+    private EnhancedEmbeddingProjection[] projections;
+
+    @BeforeEach
+    void setUp() {
+        var random = new Random(1);
+        projections = IntStream.range(0, SIZE)
+                               .mapToObj(i -> new EnhancedEmbeddingProjection(
+                                       UUID.randomUUID(),
+                                       random.doubles(DIMENSIONS).toArray(),
+                                       "subject" + i
+                               ))
+                               .toArray(EnhancedEmbeddingProjection[]::new);
+
+        collection = EmbeddingCollection.from(Arrays.stream(projections));
+        collection.startIndexBuild(INDEX_NAME);
+        index = collection.buildIndex(INDEX_NAME, snapshot -> HnswIndex.build(snapshot, new HnswParameters()));
+    }
+
+    @Test
+    void testSearchFindsExactMatch() {
+        IntStream.range(0, SIZE).filter(i -> i % 10 == 0).forEach(i -> {
+            var result = index.search(toFloat(projections[i].getEmbeddingData()), 3, 64);
+
+            assertThat(result).hasSize(3);
+            assertThat(result.get(0).getProjection()).isEqualTo(projection(i));
+            assertThat(result.get(0).getDistance()).isLessThan(1e-6);
+            assertThat(result.get(1).getDistance()).isGreaterThanOrEqualTo(result.get(0).getDistance());
+        });
+    }
+
+    @Test
+    void testEmbeddingsWithoutIdsAreKeptApart() {
+        // embeddings of the same subject without ids have equal projections, but different rows
+        var random = new Random(2);
+        var first = new EnhancedEmbeddingProjection(null, random.doubles(DIMENSIONS).toArray(), "subject");
+        var second = new EnhancedEmbeddingProjection(null, random.doubles(DIMENSIONS).toArray(), "subject");
+        collection = EmbeddingCollection.from(Stream.of(first, second));
+        collection.startIndexBuild(INDEX_NAME);
+        index = collection.buildIndex(INDEX_NAME, snapshot -> HnswIndex.build(snapshot, new HnswParameters()));
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.search(toFloat(first.getEmbeddingData()), 1, 64).get(0).getDistance()).isLessThan(1e-6);
+        assertThat(index.search(toFloat(second.getEmbeddingData()), 1, 64).get(0).getDistance()).isLessThan(1e-6);
+    }
+
+    @Test
+    void testRemovedIsNotFound() {
+        collection.removeEmbedding(projection(7));
+
+        var result = index.search(toFloat(projections[7].getEmbeddingData()), 1, 64);
+
+        assertThat(index.size()).isEqualTo(SIZE - 1);
+        assertThat(result.get(0).getProjection()).isNotEqualTo(projection(7));
+    }
+
+    @Test
+    void testRemoveMostOfNodes() {
+        // graph is rebuilt once half of the nodes are removed
+        IntStream.range(0, SIZE - 5).forEach(i -> collection.removeEmbedding(projection(i)));
+
+        var result = index.search(toFloat(projections[SIZE - 1].getEmbeddingData()), 10, 64);
+
+        assertThat(index.size()).isEqualTo(5);
+        assertThat(result).hasSize(5);
+        assertThat(result.get(0).getProjection()).isEqualTo(projection(SIZE - 1));
+    }
+
+    @Test
+    void testCompactRemapsRows() {
+        IntStream.range(0, SIZE).filter(i -> i % 3 == 0).forEach(i -> collection.removeEmbedding(projection(i)));
+
+        collection.compact();
+
+        assertThat(collection.getSnapshot().rows()).isEqualTo(index.size());
+        IntStream.range(0, SIZE).filter(i -> i % 3 != 0 && i % 10 == 1).forEach(i -> {
+            var result = index.search(toFloat(projections[i].getEmbeddingData()), 1, 64);
+
+            assertThat(result.get(0).getProjection()).isEqualTo(projection(i));
+            assertThat(result.get(0).getDistance()).isLessThan(1e-6);
+        });
+    }
+
+    @Test
+    void testRebuildDoesNotBlockModifications() {
+        var rebuilds = new ArrayList<Runnable>();
+        collection = EmbeddingCollection.from(Arrays.stream(projections));
+        collection.startIndexBuild(INDEX_NAME);
+        index = collection.buildIndex(INDEX_NAME, snapshot -> HnswIndex.build(snapshot, new HnswParameters(), rebuilds::add));
+        var sizeBefore = index.estimateSize();
+
+        IntStream.range(0, SIZE / 2 + 1).forEach(i -> collection.removeEmbedding(projection(i)));
+        assertThat(rebuilds).hasSize(1);
+
+        // the old graph serves searches and modifications, while the new one is being built
+        var embedding = makeEmbedding(makeSubject("apiKey", "added"), null, projections[0].getEmbeddingData(), null)
+                .setId(UUID.randomUUID());
+        var added = collection.addEmbedding(embedding);
+        collection.updateSubjectName("subject" + (SIZE - 2), "renamed");
+        collection.removeEmbedding(projection(SIZE - 1));
+        collection.compact();
+        assertThat(index.search(toFloat(projections[0].getEmbeddingData()), 1, 64).get(0).getProjection()).isEqualTo(added);
+
+        rebuilds.get(0).run();
+
+        assertThat(index.estimateSize()).isLessThan(sizeBefore);
+        assertThat(index.size()).isEqualTo(SIZE / 2 - 1);
+        assertThat(index.search(toFloat(projections[0].getEmbeddingData()), 1, 64).get(0).getProjection()).isEqualTo(added);
+        assertThat(index.search(toFloat(projections[SIZE - 2].getEmbeddingData()), 1, 64).get(0).getProjection().getSubjectName())
+                .isEqualTo("renamed");
+        assertThat(index.search(toFloat(projections[SIZE - 1].getEmbeddingData()), 1, 64).get(0).getProjection())
+                .isNotEqualTo(projection(SIZE - 1));
+    }
+
+    @Test
+    void testRename() {
+        collection.updateSubjectName("subject3", "renamed");
+
+        var result = index.search(toFloat(projections[3].getEmbeddingData()), 1, 64);
+
+        assertThat(result.get(0).getProjection().getSubjectName()).isEqualTo("renamed");
+    }
+
+    private EmbeddingProjection projection(int i) {
+        return EmbeddingProjection.from(projections[i]);
+    }
+
+    private static float[] toFloat(double[] vector) {
+        var result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEmbedding;
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeSubject;
+import static org.assertj.core.api.Assertions.assertThat;
+import com.exadel.frs.commonservice.entity.EmbeddingProjection;
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class IvfPqIndexTest {
+
+    private static final int SIZE = 500;
+    private static final int DIMENSIONS = 16;
+    private static final int PROBES = 8;
+    private static final int RERANK = 10;
+
+    private EmbeddingCollection collection;
+    private IvfPqIndex index;
+    private EnhancedEmbeddingProjection[] projections;
+
+    @BeforeEach
+    void setUp() {
+        var random = new Random(1);
+        projections = IntStream.range(0, SIZE)
+                               .mapToObj(i -> new EnhancedEmbeddingProjection(
+                                       UUID.randomUUID(),
+                                       random.doubles(DIMENSIONS).toArray(),
+                                       "subject" + i
+                               ))
+                               .toArray(EnhancedEmbeddingProjection[]::new);
+
+        var parameters = new IvfPqParameters();
+        parameters.setLists(PROBES);
+        parameters.setSubquantizers(4);
+        parameters.setTrainingIterations(5);
+
+        collection = EmbeddingCollection.from(Arrays.stream(projections));
+        collection.startIndexBuild("ivf-pq");
+        index = collection.buildIndex("ivf-pq", snapshot -> IvfPqIndex.build(snapshot, parameters, new Random(1)));
+    }
+
+    @Test
+    void testSearchFindsExactMatch() {
+        IntStream.range(0, SIZE).filter(i -> i % 10 == 0).forEach(i -> {
+            var result = index.search(toFloat(projections[i].getEmbeddingData()), 3, PROBES, RERANK);
+
+            assertThat(result).hasSize(3);
+            assertThat(result.get(0).getProjection().getEmbeddingId()).isEqualTo(projections[i].getEmbeddingId());
+            assertThat(result.get(0).getDistance()).isLessThan(1e-6);
+            assertThat(result.get(1).getDistance()).isGreaterThanOrEqualTo(result.get(0).getDistance());
+        });
+    }
+
+    @Test
+    void testRemove() {
+        collection.removeEmbedding(projection(7));
+
+        var removed = index.search(toFloat(projections[7].getEmbeddingData()), 1, PROBES, RERANK);
+        var last = index.search(toFloat(projections[SIZE - 1].getEmbeddingData()), 1, PROBES, RERANK);
+
+        assertThat(index.size()).isEqualTo(SIZE - 1);
+        assertThat(removed.get(0).getProjection()).isNotEqualTo(projection(7));
+        assertThat(last.get(0).getProjection()).isEqualTo(projection(SIZE - 1));
+    }
+
+    @Test
+    void testCompactRemapsRows() {
+        IntStream.range(0, SIZE).filter(i -> i % 3 == 0).forEach(i -> collection.removeEmbedding(projection(i)));
+
+        collection.compact();
+
+        assertThat(collection.getSnapshot().rows()).isEqualTo(index.size());
+        IntStream.range(0, SIZE).filter(i -> i % 3 != 0 && i % 10 == 1).forEach(i -> {
+            var result = index.search(toFloat(projections[i].getEmbeddingData()), 1, PROBES, RERANK);
+
+            assertThat(result.get(0).getProjection()).isEqualTo(projection(i));
+            assertThat(result.get(0).getDistance()).isLessThan(1e-6);
+        });
+    }
+
+    @Test
+    void testAdd() {
+        var embedding = makeEmbedding(makeSubject("apiKey", "new"), null, new Random(2).doubles(DIMENSIONS).toArray(), null)
+                .setId(UUID.randomUUID());
+        var projection = collection.addEmbedding(embedding);
+
+        var result = index.search(toFloat(embedding.getEmbedding()), 1, PROBES, RERANK);
+
+        assertThat(index.size()).isEqualTo(SIZE + 1);
+        assertThat(result.get(0).getProjection()).isEqualTo(projection);
+    }
+
+    @Test
+    void testRename() {
+        collection.updateSubjectName("subject3", "renamed");
+
+        var result = index.search(toFloat(projections[3].getEmbeddingData()), 1, PROBES, RERANK);
+
+        assertThat(result.get(0).getProjection().getSubjectName()).isEqualTo("renamed");
+    }
+
+    private EmbeddingProjection projection(int i) {
+        return EmbeddingProjection.from(projections[i]);
+    }
+
+    private static float[] toFloat(double[] vector) {
+        var result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEmbedding;
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeSubject;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingStorageType;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class JavaScoringKernelTest {
+
+    private static final int LOADED = 99;
+    private static final int APPENDED = 70;
+    private static final int DIMENSIONS = 13;
+    private static final double COEFFICIENT0 = 1.1;
+    private static final double COEFFICIENT1 = 5.0;
+
+    private final Random random = new Random(1);
+
+    @Test
+    void testDoubleStorageMatchesReference() {
+        assertMatchesReference(EmbeddingStorageType.DOUBLE, 1e-9);
+    }
+
+    @Test
+    void testFloatStorageMatchesReference() {
+        assertMatchesReference(EmbeddingStorageType.FLOAT, 1e-5);
+    }
+
+    private void assertMatchesReference(final EmbeddingStorageType storageType, final double tolerance) {
+        var rows = IntStream.range(0, LOADED + APPENDED)
+                            .mapToObj(i -> random.doubles(DIMENSIONS).toArray())
+                            .toArray(double[][]::new);
+
+        var collection = EmbeddingCollection.from(
+                IntStream.range(0, LOADED)
+                         .mapToObj(i -> new EnhancedEmbeddingProjection(UUID.randomUUID(), rows[i], "subject" + i)),
+                storageType,
+                LOADED,
+                false
+        );
+        // appended rows go to new segments
+        IntStream.range(LOADED, rows.length).forEach(i -> collection.addEmbedding(
+                makeEmbedding(makeSubject("apiKey", "subject" + i), null, rows[i], null).setId(UUID.randomUUID())
+        ));
+
+        var snapshot = collection.getSnapshot();
+        assertThat(snapshot.segmentCount()).isGreaterThan(1);
+
+        var query = normalize(random.doubles(DIMENSIONS).toArray());
+        var result = JavaScoringKernel.similarities(query, snapshot, COEFFICIENT0, COEFFICIENT1);
+
+        assertThat(result).hasSize(rows.length);
+        for (int row = 0; row < rows.length; row++) {
+            var expected = JavaScoringKernel.similarity(distance(query, rows[row]), COEFFICIENT0, COEFFICIENT1);
+            assertThat(result[row]).isCloseTo(expected, within(tolerance));
+        }
+    }
+
+    private static double distance(final double[] a, final double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+
+        return Math.sqrt(sum);
+    }
+
+    private static double[] normalize(final double[] vector) {
+        var norm = Math.sqrt(Arrays.stream(vector).map(value -> value * value).sum());
+
+        return Arrays.stream(vector).map(value -> value / norm).toArray();
+    }
+}
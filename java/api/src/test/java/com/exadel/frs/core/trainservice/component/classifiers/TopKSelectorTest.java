@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.core.trainservice.component.classifiers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TopKSelectorTest {
+
+    @Test
+    void testTopOne() {
+        var values = new double[]{0.1, 0.9, 0.5, 0.7};
+
+        assertThat(TopKSelector.topIndexes(values, 1)).containsExactly(1);
+    }
+
+    @Test
+    void testEqualValuesKeepIndexOrder() {
+        var values = new double[]{0.5, 0.9, 0.5, 0.5};
+
+        assertThat(TopKSelector.topIndexes(values, 3)).containsExactly(1, 0, 2);
+    }
+
+    @Test
+    void testEmpty() {
+        assertThat(TopKSelector.topIndexes(new double[0], 5)).isEmpty();
+        assertThat(TopKSelector.topIndexes(new double[]{0.1}, 0)).isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 10, 100, 1000})
+    void testSameAsFullSort(int k) {
+        var random = new Random(k);
+        var values = random.doubles(100).toArray();
+
+        var expected = IntStream.range(0, values.length)
+                                .boxed()
+                                .sorted(Comparator.comparingDouble((Integer i) -> values[i]).reversed())
+                                .limit(k)
+                                .mapToInt(i -> i)
+                                .toArray();
+
+        assertThat(TopKSelector.topIndexes(values, k)).containsExactly(expected);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 3, 10, 100, 1000})
+    void testAccumulatorSameAsTopIndexes(int k) {
+        var random = new Random(k);
+        // repeated values check that ties are broken the same way
+        var values = random.ints(100, 0, 20).asDoubleStream().toArray();
+
+        var accumulator = new TopKSelector.Accumulator(Math.min(k, values.length));
+        IntStream.range(0, values.length).forEach(i -> accumulator.offer(values[i], i));
+
+        var expected = TopKSelector.topIndexes(values, k);
+        assertThat(accumulator.size()).isEqualTo(expected.length);
+        IntStream.range(0, expected.length).forEach(i -> {
+            assertThat(accumulator.getIndex(i)).isEqualTo(expected[i]);
+            assertThat(accumulator.getValue(i)).isEqualTo(values[expected[i]]);
+        });
+    }
+}
@@ -16,14 +16,19 @@
 
 package com.exadel.frs.core.trainservice.controller;
 
+import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
 import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesBox;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResult;
 import com.exadel.frs.commonservice.system.global.Constants;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
 import com.exadel.frs.core.trainservice.component.FaceClassifierPredictor;
 import com.exadel.frs.core.trainservice.config.IntegrationTest;
 import com.exadel.frs.core.trainservice.dto.Base64File;
+import com.exadel.frs.core.trainservice.dto.EmbeddingsRecognitionRequest;
 import com.exadel.frs.core.trainservice.service.NotificationReceiverService;
 import com.exadel.frs.core.trainservice.service.NotificationSenderService;
 import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
@@ -35,20 +40,33 @@ import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import static com.exadel.frs.core.trainservice.system.global.Constants.API_V1;
 import static com.exadel.frs.core.trainservice.system.global.Constants.X_FRS_API_KEY_HEADER;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @IntegrationTest
@@ -72,11 +90,15 @@ class RecognizeControllerTest {
     @MockBean
     private FacesApiClient client;
 
+    @SpyBean
+    private EmbeddingCacheProvider embeddingCacheProvider;
+
     @Autowired
     private ObjectMapper objectMapper;
 
     private static final String MODEL_KEY = "model_key";
     private static final String API_KEY = MODEL_KEY;
+    private static final String CALCULATOR_VERSION = "Facenet2018";
 
     @Test
     void recognize() throws Exception {
@@ -89,15 +111,18 @@ class RecognizeControllerTest {
                 ))
                 .build();
 
-        when(client.findFacesWithCalculator(any(), any(), any(), isNull())).thenReturn(findFacesResponse);
-        when(predictor.predict(any(), any(), anyInt())).thenReturn(List.of(Pair.of(1.0, "")));
+        when(client.findFacesWithCalculatorAsync(any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(findFacesResponse));
+        when(predictor.predictAll(any(), any(), anyInt())).thenReturn(List.of(List.of(Pair.of(1.0, ""))));
         doNothing().when(validator).validate(mockFile);
 
-        mockMvc.perform(
+        val result = mockMvc.perform(
                 multipart(API_V1 + "/recognition/recognize")
                         .file(mockFile)
                         .header(X_FRS_API_KEY_HEADER, API_KEY)
-        ).andExpect(status().isOk());
+        ).andExpect(request().asyncStarted()).andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+               .andExpect(status().isOk());
     }
 
     @Test
@@ -110,14 +135,14 @@ class RecognizeControllerTest {
                 ))
                 .build();
 
-        when(client.findFacesBase64WithCalculator(any(), any(), any(), isNull())).thenReturn(findFacesResponse);
-        when(predictor.predict(any(), any(), anyInt())).thenReturn(List.of(Pair.of(1.0, "")));
+        when(client.findFacesBase64WithCalculatorAsync(any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(findFacesResponse));
+        when(predictor.predictAll(any(), any(), anyInt())).thenReturn(List.of(List.of(Pair.of(1.0, ""))));
         doNothing().when(validator).validateBase64(any());
 
         Base64File request = new Base64File();
         request.setContent(Base64.getEncoder().encodeToString(new byte[]{(byte) 0xCA}));
 
-        mockMvc.perform(
+        val result = mockMvc.perform(
                 post(API_V1 + "/recognition/recognize")
                         .queryParam("limit", "4")
                         .queryParam(Constants.DET_PROB_THRESHOLD, "0.7")
@@ -126,6 +151,69 @@ class RecognizeControllerTest {
                         .queryParam("prediction_count", "44")
                         .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))
                         .header(X_FRS_API_KEY_HEADER, API_KEY)
-        ).andExpect(status().isOk());
+        ).andExpect(request().asyncStarted()).andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+               .andExpect(status().isOk());
+    }
+
+    @Test
+    void recognizeEmbeddings() throws Exception {
+        val request = new EmbeddingsRecognitionRequest();
+        request.setEmbeddings(new double[][]{{1.0, 2.0}, {3.0, 4.0}});
+
+        doReturn(EmbeddingCollection.from(Stream.of(new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1.0, 2.0}, "A")))).when(embeddingCacheProvider).getOrLoad(API_KEY);
+        when(client.getStatus()).thenReturn(new FacesStatusResponse().setCalculatorVersion(CALCULATOR_VERSION));
+        when(predictor.predictAll(any(), any(), anyInt())).thenReturn(List.of(List.of(Pair.of(1.0, "A")), List.of(Pair.of(0.5, "B"))));
+
+        mockMvc.perform(
+                post(API_V1 + "/recognition/recognize/embeddings")
+                        .queryParam("calculator", CALCULATOR_VERSION)
+                        .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))
+                        .header(X_FRS_API_KEY_HEADER, API_KEY)
+        ).andExpect(status().isOk())
+         .andExpect(jsonPath("$.result.length()").value(2))
+         .andExpect(jsonPath("$.result[1].subjects[0].subject").value("B"));
+
+        verify(predictor).predictAll(eq(API_KEY), argThat(actual -> Arrays.deepEquals(actual, request.getEmbeddings())), eq(1));
+    }
+
+    @Test
+    void recognizeEmbeddingsBinary() throws Exception {
+        val embeddings = ByteBuffer.allocate(4 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                                   .putFloat(1).putFloat(2).putFloat(3).putFloat(4)
+                                   .array();
+
+        doReturn(EmbeddingCollection.from(Stream.of(new EnhancedEmbeddingProjection(UUID.randomUUID(), new double[]{1.0, 2.0}, "A")))).when(embeddingCacheProvider).getOrLoad(API_KEY);
+        when(client.getStatus()).thenReturn(new FacesStatusResponse().setCalculatorVersion(CALCULATOR_VERSION));
+        when(predictor.predictAll(any(), any(), anyInt())).thenReturn(List.of(List.of(Pair.of(1.0, "A")), List.of(Pair.of(0.5, "B"))));
+
+        mockMvc.perform(
+                post(API_V1 + "/recognition/recognize/embeddings")
+                        .queryParam("calculator", CALCULATOR_VERSION)
+                        .queryParam("dimension", "2")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(embeddings)
+                        .header(X_FRS_API_KEY_HEADER, API_KEY)
+        ).andExpect(status().isOk())
+         .andExpect(jsonPath("$.result.length()").value(2));
+
+        verify(predictor).predictAll(eq(API_KEY), argThat(actual -> Arrays.deepEquals(actual, new double[][]{{1.0, 2.0}, {3.0, 4.0}})), eq(1));
+    }
+
+    @Test
+    void recognizeEmbeddingsOfAnotherCalculator() throws Exception {
+        val request = new EmbeddingsRecognitionRequest();
+        request.setEmbeddings(new double[][]{{1.0, 2.0}});
+
+        when(client.getStatus()).thenReturn(new FacesStatusResponse().setCalculatorVersion(CALCULATOR_VERSION));
+
+        mockMvc.perform(
+                post(API_V1 + "/recognition/recognize/embeddings")
+                        .queryParam("calculator", "another")
+                        .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(request))
+                        .header(X_FRS_API_KEY_HEADER, API_KEY)
+        ).andExpect(status().isBadRequest());
+
+        verify(predictor, never()).predictAll(any(), any(), anyInt());
     }
 }
\ No newline at end of file
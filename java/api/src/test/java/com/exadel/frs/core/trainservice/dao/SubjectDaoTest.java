@@ -19,6 +19,7 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Stream;
@@ -234,6 +235,38 @@ class SubjectDaoTest extends EmbeddedPostgreSQLTest {
         assertThat(img).isPresent();
     }
 
+    @Test
+    void testAddEmbeddings() {
+        var model = dbHelper.insertModel();
+        var existing = dbHelper.insertSubject(model, "Subject");
+
+        final List<Embedding> embeddings = subjectDao.addEmbeddings(
+                model.getApiKey(),
+                List.of(
+                        Pair.of("subject", new EmbeddingInfo("calc", new double[]{1.1, 5.6}, new byte[]{0xC, 0xA})),
+                        Pair.of("new", new EmbeddingInfo("calc", new double[]{2.2, 6.7}, null)),
+                        Pair.of("NEW", new EmbeddingInfo("calc", new double[]{3.3, 7.8}, new byte[]{0xB}))
+                )
+        );
+
+        assertThat(embeddings).hasSize(3);
+        assertThat(embeddings.get(0).getSubject().getId()).isEqualTo(existing.getId());
+        assertThat(embeddings.get(1).getSubject().getSubjectName()).isEqualTo("new");
+        assertThat(embeddings.get(2).getSubject().getId()).isEqualTo(embeddings.get(1).getSubject().getId());
+
+        // existing subject is reused, new one is created once
+        assertThat(embeddingRepository.findBySubjectId(existing.getId())).hasSize(1);
+        var created = subjectRepository.findByApiKeyAndSubjectNameIgnoreCase(model.getApiKey(), "new");
+        assertThat(created).isPresent();
+        assertThat(created.get().getSubjectName()).isEqualTo("new");
+        assertThat(embeddingRepository.findBySubjectId(created.get().getId()))
+                .extracting(Embedding::getEmbedding)
+                .containsExactlyInAnyOrder(new double[]{2.2, 6.7}, new double[]{3.3, 7.8});
+
+        assertThat(imgRepository.getImgByEmbeddingId(model.getApiKey(), embeddings.get(0).getId())).isPresent();
+        assertThat(imgRepository.getImgByEmbeddingId(model.getApiKey(), embeddings.get(1).getId())).isEmpty();
+    }
+
     static Stream<Arguments> namePairs() {
         return Stream.of(
                 Arguments.of("oldSubjectName", "newSubjectName"),
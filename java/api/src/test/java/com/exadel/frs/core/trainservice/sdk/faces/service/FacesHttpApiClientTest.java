@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.sdk.faces.service;
+
+import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
+import static com.exadel.frs.core.trainservice.system.global.Constants.CALCULATOR_PLUGIN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.commonservice.sdk.faces.service.FacesHttpApiClient;
+import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
+import com.exadel.frs.commonservice.system.global.FacesClientProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+class FacesHttpApiClientTest {
+
+    private static final String FIND_FACES_RESPONSE = "{\"plugins_versions\":{\"calculator\":\"Facenet2018\"},"
+            + "\"result\":[{\"embedding\":[1.0,2.0]}],\"unknown\":1}";
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private FacesClientProperties properties;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        serverThreads = Executors.newFixedThreadPool(8);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverThreads);
+        server.start();
+
+        properties = new FacesClientProperties();
+        properties.setType(FacesClientProperties.ClientType.HTTP);
+        properties.setMaxConnectionsPerHost(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    void testFindFacesBase64WithCalculator() {
+        var query = new AtomicReference<String>();
+        var body = new AtomicReference<String>();
+        server.createContext("/find_faces_base64", exchange -> {
+            query.set(exchange.getRequestURI().getRawQuery());
+            body.set(new String(exchange.getRequestBody().readAllBytes(), UTF_8));
+            respond(exchange, 200, FIND_FACES_RESPONSE);
+        });
+
+        var response = client().findFacesBase64WithCalculator("aW1hZ2U=", 1, null, "age");
+
+        assertThat(response.getPluginsVersions().getCalculator()).isEqualTo("Facenet2018");
+        assertThat(response.getResult()).hasSize(1);
+        assertThat(query.get()).isEqualTo("limit=1&face_plugins=" + CALCULATOR_PLUGIN + "%2Cage");
+        assertThat(body.get()).isEqualTo("{\"file\":\"aW1hZ2U=\"}");
+    }
+
+    @Test
+    void testFindFacesWithCalculator() {
+        var contentType = new AtomicReference<String>();
+        var body = new AtomicReference<String>();
+        server.createContext("/find_faces", exchange -> {
+            contentType.set(exchange.getRequestHeaders().getFirst("Content-Type"));
+            body.set(new String(exchange.getRequestBody().readAllBytes(), UTF_8));
+            respond(exchange, 200, FIND_FACES_RESPONSE);
+        });
+        var photo = new MockMultipartFile("file", "photo.jpg", "image/jpeg", "image".getBytes(UTF_8));
+
+        var response = client().findFacesWithCalculator(photo, null, 0.8, null);
+
+        assertThat(response.getResult()).hasSize(1);
+        assertThat(contentType.get()).startsWith("multipart/form-data; boundary=");
+        assertThat(body.get())
+                .contains("name=\"det_prob_threshold\"\r\n\r\n0.8\r\n")
+                .contains("name=\"face_plugins\"\r\n\r\n" + CALCULATOR_PLUGIN + "\r\n")
+                .contains("name=\"file\"; filename=\"photo.jpg\"\r\nContent-Type: image/jpeg\r\n\r\nimage\r\n")
+                .doesNotContain("name=\"limit\"");
+    }
+
+    @Test
+    void testNoFacesFound() {
+        server.createContext("/find_faces_base64", exchange -> respond(exchange, 400, "{\"message\":\"No face is found\"}"));
+
+        assertThatThrownBy(() -> client().findFacesBase64("aW1hZ2U=", 1, null, null))
+                .isInstanceOf(NoFacesFoundException.class);
+    }
+
+    @Test
+    void testServerError() {
+        server.createContext("/status", exchange -> respond(exchange, 500, "{}"));
+
+        assertThatThrownBy(() -> client().getStatus()).isInstanceOf(FacesServiceException.class);
+    }
+
+    @Test
+    void testRequestsOverLimitWaitForTheirTurn() {
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+        server.createContext("/find_faces_base64", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            respond(exchange, 200, FIND_FACES_RESPONSE);
+        });
+        var client = client();
+
+        List<CompletableFuture<?>> responses = IntStream.range(0, 6)
+                                                        .mapToObj(i -> client.findFacesBase64WithCalculatorAsync("aW1hZ2U=", 1, null, null))
+                                                        .collect(Collectors.toList());
+
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).join();
+        assertThat(maxInFlight.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testFailedReplicaIsEjected() throws IOException {
+        var requests = new AtomicInteger();
+        server.createContext("/find_faces_base64", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 200, FIND_FACES_RESPONSE);
+        });
+        var stopped = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        var stoppedUrl = url(stopped);
+        stopped.start();
+        stopped.stop(0);
+        properties.setUrls(List.of(stoppedUrl, url(server)));
+        properties.setEjectAfterFailures(1);
+        var client = client(2);
+
+        IntStream.range(0, 5).forEach(i -> assertThat(client.findFacesBase64("aW1hZ2U=", 1, null, null).getResult()).hasSize(1));
+
+        assertThat(requests.get()).isEqualTo(5);
+    }
+
+    @Test
+    void testSlowRequestIsHedged() throws IOException {
+        var slow = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        slow.setExecutor(serverThreads);
+        slow.createContext("/find_faces_base64", exchange -> {
+            try {
+                TimeUnit.SECONDS.sleep(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, FIND_FACES_RESPONSE);
+        });
+        slow.start();
+        server.createContext("/find_faces_base64", exchange -> respond(exchange, 200, FIND_FACES_RESPONSE));
+        properties.setUrls(List.of(url(slow), url(server)));
+        properties.getHedging().setEnabled(true);
+        var client = client();
+
+        try {
+            for (int i = 0; i < 4; i++) {
+                var response = client.findFacesBase64WithCalculatorAsync("aW1hZ2U=", 1, null, null);
+                assertThat(response).succeedsWithin(Duration.ofSeconds(2));
+            }
+        } finally {
+            slow.stop(0);
+        }
+    }
+
+    @Test
+    void testConcurrentRequestsAreBatched() throws Exception {
+        var batches = new AtomicInteger();
+        var query = new AtomicReference<String>();
+        server.createContext("/find_faces_base64_batch", exchange -> {
+            batches.incrementAndGet();
+            query.set(exchange.getRequestURI().getRawQuery());
+            var files = new ObjectMapper().readTree(exchange.getRequestBody()).get("files");
+            var results = IntStream.range(0, files.size())
+                                   .mapToObj(i -> files.get(i).asText().equals("bm9uZQ==")
+                                           ? "{\"status\":400,\"message\":\"No face is found\"}"
+                                           : "{\"result\":[{\"embedding\":[" + i + ".0]}]}")
+                                   .collect(Collectors.joining(","));
+            respond(exchange, 200, "{\"plugins_versions\":{\"calculator\":\"Facenet2018\"},\"results\":[" + results + "]}");
+        });
+        properties.getBatching().setEnabled(true);
+        properties.getBatching().setMaxSize(3);
+        properties.getBatching().setLinger(Duration.ofSeconds(1));
+        var client = client();
+
+        var first = client.findFacesBase64WithCalculatorAsync("aW1hZ2U=", 1, null, null);
+        var none = client.findFacesBase64WithCalculatorAsync("bm9uZQ==", 1, null, null);
+        var photo = new MockMultipartFile("file", "photo.jpg", "image/jpeg", "image".getBytes(UTF_8));
+        var third = client.findFacesWithCalculatorAsync(photo, 1, null, null);
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getResult().get(0).getEmbedding()).containsExactly(0.0);
+        assertThat(first.get().getPluginsVersions().getCalculator()).isEqualTo("Facenet2018");
+        assertThat(third.get(5, TimeUnit.SECONDS).getResult().get(0).getEmbedding()).containsExactly(2.0);
+        assertThatThrownBy(none::join).hasCauseInstanceOf(NoFacesFoundException.class);
+        assertThat(batches.get()).isEqualTo(1);
+        assertThat(query.get()).isEqualTo("limit=1&face_plugins=" + CALCULATOR_PLUGIN);
+        assertThat(client.getBatcher().orElseThrow().getImages()).isEqualTo(3);
+    }
+
+    @Test
+    void testBatchIsSentAfterLinger() {
+        server.createContext("/find_faces_base64_batch", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            respond(exchange, 200, "{\"results\":[{\"result\":[]}]}");
+        });
+        properties.getBatching().setEnabled(true);
+        properties.getBatching().setLinger(Duration.ofMillis(10));
+
+        var response = client().findFacesBase64WithCalculator("aW1hZ2U=", null, null, null);
+
+        assertThat(response.getResult()).isEmpty();
+    }
+
+    private FacesHttpApiClient client() {
+        return client(1);
+    }
+
+    private FacesHttpApiClient client(final int maxAttempts) {
+        var serverInfo = new EnvironmentProperties.ServerInfo();
+        serverInfo.setUrl(url(server));
+
+        return new FacesHttpApiClient(new EnvironmentProperties(Map.of(PYTHON, serverInfo)), properties, 1000, 5000, maxAttempts);
+    }
+
+    private static String url(final HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        var bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,262 @@
+package com.exadel.frs.core.trainservice.service;
+
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.DETECTION;
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.RECOGNITION;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.entity.Model;
+import com.exadel.frs.commonservice.exception.CalculatorOverloadedException;
+import com.exadel.frs.commonservice.repository.ModelRepository;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.core.trainservice.system.global.CalculatorLimiterProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class CalculatorLimiterTest {
+
+    private static final String API_KEY = "apiKey";
+    private static final String BULK_API_KEY = "bulkApiKey";
+    private static final long MODEL_ID = 1L;
+
+    private CalculatorLimiterProperties properties;
+    private ModelRepository modelRepository;
+    private SimpleMeterRegistry registry;
+    private CalculatorLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        properties = new CalculatorLimiterProperties();
+        properties.setEnabled(true);
+        properties.setInitialLimit(2);
+        properties.setMinLimit(1);
+        properties.setMaxQueue(1);
+        properties.setMaxWait(Duration.ofSeconds(5));
+        modelRepository = mock(ModelRepository.class);
+        registry = new SimpleMeterRegistry();
+        limiter = limiter();
+    }
+
+    @Test
+    void testRequestsOverQueueAreRejected() throws Exception {
+        when(modelRepository.findByApiKey(API_KEY)).thenReturn(Optional.of(Model.builder().id(MODEL_ID).build()));
+        var first = new CompletableFuture<String>();
+        var second = new CompletableFuture<String>();
+        limiter.callAsync(RECOGNITION, API_KEY, () -> first);
+        limiter.callAsync(RECOGNITION, API_KEY, () -> second);
+
+        var queued = limiter.callAsync(RECOGNITION, API_KEY, () -> CompletableFuture.completedFuture("queued"));
+        var rejected = limiter.callAsync(RECOGNITION, API_KEY, () -> CompletableFuture.completedFuture("rejected"));
+
+        assertThat(queued).isNotDone();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(CalculatorOverloadedException.class);
+        // other bulkheads are not affected
+        assertThat(limiter.call(DETECTION, API_KEY, () -> "detected")).isEqualTo("detected");
+
+        first.complete("first");
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("queued");
+        assertThat(registry.get("calculator.limiter.rejected").tags("bulkhead", "recognition", "model", "1")
+                           .counter().count()).isEqualTo(1);
+        assertThat(registry.get("calculator.limiter.wait").tags("bulkhead", "recognition", "model", "1")
+                           .timer().count()).isEqualTo(3);
+        // api keys are credentials, they are not exported
+        assertThat(registry.getMeters()).allSatisfy(meter -> assertThat(meter.getId().getTag("api_key")).isNull());
+    }
+
+    @Test
+    void testQueuedGaugeIsRemovedOnceModelIsIdle() {
+        when(modelRepository.findByApiKey(API_KEY)).thenReturn(Optional.of(Model.builder().id(MODEL_ID).build()));
+        properties.setInitialLimit(1);
+        limiter = limiter();
+
+        var pending = new CompletableFuture<String>();
+        limiter.callAsync(RECOGNITION, API_KEY, () -> pending);
+        var queued = limiter.callAsync(RECOGNITION, API_KEY, () -> CompletableFuture.completedFuture("queued"));
+
+        assertThat(registry.get("calculator.limiter.queued").tags("bulkhead", "recognition", "model", "1")
+                           .gauge().value()).isEqualTo(1);
+
+        pending.complete("done");
+
+        assertThat(queued).isCompletedWithValue("queued");
+        assertThat(registry.find("calculator.limiter.queued").gauges()).isEmpty();
+    }
+
+    @Test
+    void testQueuedRequestIsRejectedAfterMaxWait() {
+        properties.setMaxWait(Duration.ofMillis(50));
+        limiter.callAsync(RECOGNITION, API_KEY, CompletableFuture::new);
+        limiter.callAsync(RECOGNITION, API_KEY, CompletableFuture::new);
+
+        assertThatThrownBy(() -> limiter.call(RECOGNITION, API_KEY, () -> "queued"))
+                .isInstanceOf(CalculatorOverloadedException.class);
+    }
+
+    @Test
+    void testLimitAdaptsToFailures() {
+        properties.setInitialLimit(10);
+        properties.setMaxLimit(20);
+        limiter = limiter();
+
+        for (int i = 0; i < 5; i++) {
+            assertThatThrownBy(() -> limiter.call(RECOGNITION, API_KEY, () -> {
+                throw new FacesServiceException("timeout");
+            })).isInstanceOf(FacesServiceException.class);
+        }
+        var decreased = limiter.getLimit(RECOGNITION);
+        assertThat(decreased).isLessThan(10);
+
+        for (int i = 0; i < 100; i++) {
+            var pending = new CompletableFuture<String>();
+            for (int j = 0; j < decreased; j++) {
+                limiter.callAsync(RECOGNITION, API_KEY, () -> pending);
+            }
+            pending.complete("done");
+        }
+        assertThat(limiter.getLimit(RECOGNITION)).isGreaterThan(decreased);
+    }
+
+    @Test
+    void testRequestsInFlightTogetherBackOffOnce() {
+        properties.setInitialLimit(10);
+        limiter = limiter();
+
+        var pending = new CompletableFuture<String>();
+        for (int i = 0; i < 10; i++) {
+            limiter.callAsync(RECOGNITION, API_KEY, () -> pending);
+        }
+        pending.completeExceptionally(new FacesServiceException("timeout"));
+
+        assertThat(limiter.getLimit(RECOGNITION)).isEqualTo(9);
+    }
+
+    @Test
+    void testWaitingApiKeysShareCapacityByWeight() {
+        when(modelRepository.findByApiKey(API_KEY)).thenReturn(Optional.of(Model.builder().schedulingWeight(2).build()));
+        properties.setInitialLimit(1);
+        properties.setMaxLimit(1);
+        properties.setMaxQueue(100);
+        limiter = limiter();
+
+        var order = new ArrayList<String>();
+        var blocker = new CompletableFuture<String>();
+        limiter.callAsync(RECOGNITION, BULK_API_KEY, () -> blocker);
+        // a bulk job is waiting, when an interactive api key comes
+        for (int i = 0; i < 6; i++) {
+            limiter.callAsync(RECOGNITION, BULK_API_KEY, () -> {
+                order.add(BULK_API_KEY);
+                return CompletableFuture.completedFuture("");
+            });
+        }
+        for (int i = 0; i < 4; i++) {
+            limiter.callAsync(RECOGNITION, API_KEY, () -> {
+                order.add(API_KEY);
+                return CompletableFuture.completedFuture("");
+            });
+        }
+
+        blocker.complete("");
+
+        assertThat(order).hasSize(10);
+        // weight 2 gets two requests through for each one of weight 1
+        assertThat(order.subList(0, 6)).filteredOn(API_KEY::equals).hasSize(4);
+    }
+
+    @Test
+    void testQueueFloodedByOneApiKeyDropsItsLatestRequest() {
+        properties.setInitialLimit(1);
+        properties.setMaxLimit(1);
+        properties.setMaxQueue(3);
+        limiter = limiter();
+
+        limiter.callAsync(RECOGNITION, BULK_API_KEY, CompletableFuture::new);
+        List<CompletableFuture<Object>> bulk = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            bulk.add(limiter.callAsync(RECOGNITION, BULK_API_KEY, CompletableFuture::new));
+        }
+        var interactive = limiter.callAsync(RECOGNITION, API_KEY, CompletableFuture::new);
+
+        assertThat(interactive).isNotDone();
+        assertThat(bulk.get(2)).isCompletedExceptionally();
+    }
+
+    @Test
+    void testApiKeyIsLimitedByItsMaxInFlight() {
+        when(modelRepository.findByApiKey(BULK_API_KEY)).thenReturn(Optional.of(Model.builder().maxInFlight(1).build()));
+        properties.setMaxQueue(10);
+
+        limiter.callAsync(RECOGNITION, BULK_API_KEY, CompletableFuture::new);
+        var waiting = limiter.callAsync(RECOGNITION, BULK_API_KEY, CompletableFuture::new);
+
+        assertThat(waiting).isNotDone();
+        assertThat(limiter.call(RECOGNITION, API_KEY, () -> "recognized")).isEqualTo("recognized");
+    }
+
+    @Test
+    void testDisabled() {
+        properties.setEnabled(false);
+        properties.setMaxQueue(0);
+        limiter.callAsync(RECOGNITION, API_KEY, CompletableFuture::new);
+        limiter.callAsync(RECOGNITION, API_KEY, CompletableFuture::new);
+
+        assertThat(limiter.call(RECOGNITION, API_KEY, () -> "called")).isEqualTo("called");
+    }
+
+    @Test
+    @Timeout(10)
+    void testBlockingCallsAreNotRunByReleasingThread() throws Exception {
+        properties.setInitialLimit(1);
+        properties.setMaxLimit(1);
+        properties.setMaxQueue(10);
+        limiter = new CalculatorLimiter(properties, modelRepository, registry);
+
+        var latches = new ArrayList<CountDownLatch>();
+        var results = new ArrayList<CompletableFuture<String>>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                var latch = new CountDownLatch(1);
+                latches.add(latch);
+                // blocking client, as the default Feign one
+                results.add(limiter.callAsync(RECOGNITION, API_KEY, () -> {
+                    await(latch);
+                    return CompletableFuture.completedFuture("done");
+                }));
+            }
+
+            latches.get(0).countDown();
+
+            // the next call is blocked, but it does not hold the response of the released one
+            assertThat(results.get(0).get(5, TimeUnit.SECONDS)).isEqualTo("done");
+            assertThat(results.get(1)).isNotDone();
+            latches.get(1).countDown();
+            latches.get(2).countDown();
+            assertThat(results.get(2).get(5, TimeUnit.SECONDS)).isEqualTo("done");
+        } finally {
+            latches.forEach(CountDownLatch::countDown);
+            limiter.shutdown();
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CalculatorLimiter limiter() {
+        // calls are started by the releasing thread, so that the order of the calls is deterministic
+        return new CalculatorLimiter(properties, modelRepository, registry, Runnable::run);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.entity.Embedding;
+import com.exadel.frs.commonservice.entity.Subject;
+import com.exadel.frs.commonservice.exception.ConstraintViolationException;
+import com.exadel.frs.commonservice.exception.TooManyFacesException;
+import com.exadel.frs.commonservice.handler.CommonExceptionCode;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.cache.EmbeddingDelta;
+import com.exadel.frs.core.trainservice.dao.SubjectDao;
+import com.exadel.frs.core.trainservice.dto.BatchEnrollmentResultDto;
+import com.exadel.frs.core.trainservice.dto.EmbeddingInfo;
+import com.exadel.frs.core.trainservice.service.EnrollmentBatchService.Item;
+import com.exadel.frs.core.trainservice.system.global.EnrollmentBatchProperties;
+import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class EnrollmentBatchServiceTest {
+
+    private static final String API_KEY = "apiKey";
+
+    @Mock
+    private SubjectService subjectService;
+
+    @Mock
+    private SubjectDao subjectDao;
+
+    @Mock
+    private EmbeddingCacheProvider embeddingCacheProvider;
+
+    @Mock
+    private ImageExtensionValidator imageValidator;
+
+    private EnrollmentBatchService batchService;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new EnrollmentBatchProperties();
+        properties.setMaxImages(10);
+        properties.setConcurrency(2);
+        properties.setFlushSize(2);
+        properties.setMaxImageSize(DataSize.ofBytes(100));
+        properties.setMaxArchiveSize(DataSize.ofBytes(250));
+        batchService = new EnrollmentBatchService(
+                subjectService,
+                subjectDao,
+                embeddingCacheProvider,
+                imageValidator,
+                properties
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchService.shutdown();
+    }
+
+    @Test
+    void testEachImageHasResult() {
+        var items = IntStream.range(0, 5).mapToObj(EnrollmentBatchServiceTest::item).collect(Collectors.toList());
+        when(subjectService.calculateEmbedding(anyString(), any(), eq(API_KEY))).thenAnswer(invocation -> {
+            if ("image3".equals(invocation.getArgument(0))) {
+                throw new TooManyFacesException();
+            }
+            return new EmbeddingInfo("calc", new double[]{1.0, 2.0}, null);
+        });
+        when(subjectDao.addEmbeddings(eq(API_KEY), anyList())).thenAnswer(invocation -> {
+            List<Pair<String, EmbeddingInfo>> embeddings = invocation.getArgument(1);
+            return embeddings.stream().map(pair -> embedding(pair.getLeft())).collect(Collectors.toList());
+        });
+
+        var results = batchService.enroll(API_KEY, items, null);
+
+        assertThat(results).extracting(BatchEnrollmentResultDto::getIndex).containsExactly(0, 1, 2, 3, 4);
+        assertThat(results.get(3).getEmbedding()).isNull();
+        assertThat(results.get(3).getError().getCode()).isEqualTo(CommonExceptionCode.TOO_MANY_FACES.getCode());
+        assertThat(results).filteredOn(result -> result.getIndex() != 3)
+                           .allSatisfy(result -> {
+                               assertThat(result.getEmbedding().getSubjectName()).isEqualTo("subject" + result.getIndex());
+                               assertThat(result.getError()).isNull();
+                           });
+
+        // four embeddings are saved by two transactions, the cache is updated once
+        verify(subjectDao, times(2)).addEmbeddings(eq(API_KEY), anyList());
+        var delta = ArgumentCaptor.forClass(EmbeddingDelta.class);
+        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any(), delta.capture());
+        assertThat(delta.getValue().getEmbeddingIds())
+                .hasSize(4)
+                .containsExactlyInAnyOrderElementsOf(
+                        results.stream()
+                               .filter(result -> result.getEmbedding() != null)
+                               .map(result -> UUID.fromString(result.getEmbedding().getEmbeddingId()))
+                               .collect(Collectors.toList())
+                );
+    }
+
+    @Test
+    void testRequestDoesNotTakeCalculatorCallsOfOtherRequests() throws Exception {
+        var otherApiKey = "otherApiKey";
+        var release = new CountDownLatch(1);
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+        when(subjectService.calculateEmbedding(anyString(), any(), eq(API_KEY))).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            release.await();
+            inFlight.decrementAndGet();
+            return new EmbeddingInfo("calc", new double[]{1.0, 2.0}, null);
+        });
+        when(subjectService.calculateEmbedding(anyString(), any(), eq(otherApiKey)))
+                .thenReturn(new EmbeddingInfo("calc", new double[]{1.0, 2.0}, null));
+        when(subjectDao.addEmbeddings(anyString(), anyList())).thenAnswer(invocation -> {
+            List<Pair<String, EmbeddingInfo>> embeddings = invocation.getArgument(1);
+            return embeddings.stream().map(pair -> embedding(pair.getLeft())).collect(Collectors.toList());
+        });
+
+        var items = IntStream.range(0, 10).mapToObj(EnrollmentBatchServiceTest::item).collect(Collectors.toList());
+        var large = CompletableFuture.supplyAsync(() -> batchService.enroll(API_KEY, items, null));
+
+        // images of the other request are not queued behind the blocked ones
+        var results = CompletableFuture.supplyAsync(() -> batchService.enroll(otherApiKey, List.of(item(0)), null))
+                                       .get(10, TimeUnit.SECONDS);
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getError()).isNull();
+
+        release.countDown();
+        assertThat(large.get(10, TimeUnit.SECONDS)).hasSize(10);
+        assertThat(maxInFlight.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testSavingErrorIsReportedForItsImages() {
+        var items = List.of(item(0), item(1));
+        when(subjectService.calculateEmbedding(anyString(), any(), eq(API_KEY)))
+                .thenReturn(new EmbeddingInfo("calc", new double[]{1.0, 2.0}, null));
+        when(subjectDao.addEmbeddings(eq(API_KEY), anyList())).thenThrow(new IllegalStateException("saving failed"));
+
+        var results = batchService.enroll(API_KEY, items, null);
+
+        assertThat(results).hasSize(2)
+                           .allSatisfy(result -> assertThat(result.getError().getCode())
+                                   .isEqualTo(CommonExceptionCode.UNDEFINED.getCode()));
+        verifyNoInteractions(embeddingCacheProvider);
+    }
+
+    @Test
+    void testTooManyImages() {
+        var items = IntStream.range(0, 11).mapToObj(EnrollmentBatchServiceTest::item).collect(Collectors.toList());
+
+        assertThatThrownBy(() -> batchService.enroll(API_KEY, items, null))
+                .isInstanceOf(ConstraintViolationException.class);
+    }
+
+    @Test
+    void testReadArchive() throws IOException {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            for (var name : List.of("people/John/1.jpg", "Jane/2.png", "3.jpg", "John/", "John/.DS_Store", "__MACOSX/John/1.jpg")) {
+                zip.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) {
+                    zip.write(name.getBytes());
+                }
+                zip.closeEntry();
+            }
+        }
+
+        var items = batchService.readArchive(new ByteArrayInputStream(archive.toByteArray()));
+
+        assertThat(items).extracting(Item::getSubjectName, Item::getFileName)
+                         .containsExactly(
+                                 tuple("John", "1.jpg"),
+                                 tuple("Jane", "2.png"),
+                                 tuple("", "3.jpg")
+                         );
+    }
+
+    @Test
+    void testReadArchiveWithTooLargeImage() throws IOException {
+        var archive = archive(List.of(new byte[100], new byte[101]));
+
+        assertThatThrownBy(() -> batchService.readArchive(new ByteArrayInputStream(archive)))
+                .isInstanceOf(ConstraintViolationException.class)
+                .hasMessageContaining("John/1.jpg");
+    }
+
+    @Test
+    void testReadArchiveWithTooLargeImages() throws IOException {
+        var archive = archive(List.of(new byte[100], new byte[100], new byte[50]));
+        var tooLarge = archive(List.of(new byte[100], new byte[100], new byte[51]));
+
+        assertThat(batchService.readArchive(new ByteArrayInputStream(archive))).hasSize(3);
+        assertThatThrownBy(() -> batchService.readArchive(new ByteArrayInputStream(tooLarge)))
+                .isInstanceOf(ConstraintViolationException.class);
+    }
+
+    private static byte[] archive(final List<byte[]> images) throws IOException {
+        var archive = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(archive)) {
+            for (int i = 0; i < images.size(); i++) {
+                zip.putNextEntry(new ZipEntry("John/" + i + ".jpg"));
+                zip.write(images.get(i));
+                zip.closeEntry();
+            }
+        }
+
+        return archive.toByteArray();
+    }
+
+    private static Item item(final int index) {
+        return new Item("subject" + index, null, "image" + index);
+    }
+
+    private static Embedding embedding(final String subjectName) {
+        return new Embedding()
+                .setId(UUID.randomUUID())
+                .setSubject(new Subject().setApiKey(API_KEY).setSubjectName(subjectName));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.service;
+
+import static com.exadel.frs.core.trainservice.system.global.Constants.PREDICTION_COUNT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.exception.ConstraintViolationException;
+import com.exadel.frs.commonservice.exception.TooManyFacesException;
+import com.exadel.frs.commonservice.handler.CommonExceptionCode;
+import com.exadel.frs.core.trainservice.dto.BatchRecognitionResultDto;
+import com.exadel.frs.core.trainservice.dto.FacesRecognitionResponseDto;
+import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
+import com.exadel.frs.core.trainservice.system.global.RecognitionBatchProperties;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class FaceRecognizeBatchServiceTest {
+
+    private static final String API_KEY = "apiKey";
+
+    @Mock
+    private FaceRecognizeProcessServiceImpl recognitionService;
+
+    private FaceRecognizeBatchService batchService;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new RecognitionBatchProperties();
+        properties.setMaxImages(10);
+        properties.setConcurrency(2);
+        batchService = new FaceRecognizeBatchService(recognitionService, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchService.shutdown();
+    }
+
+    @Test
+    void testEachImageHasResult() throws Exception {
+        var images = IntStream.range(0, 5).mapToObj(FaceRecognizeBatchServiceTest::image).collect(Collectors.toList());
+        when(recognitionService.getPredictionCount(images.get(0))).thenReturn(1);
+        images.forEach(image -> {
+            if (image.equals(images.get(3))) {
+                when(recognitionService.findFaces(image)).thenThrow(new TooManyFacesException());
+            } else {
+                when(recognitionService.findFaces(image)).thenReturn(new FacesRecognitionResponseDto());
+            }
+        });
+
+        var results = Collections.synchronizedList(new ArrayList<BatchRecognitionResultDto>());
+        batchService.recognize(images, results::add).get(5, TimeUnit.SECONDS);
+
+        results.sort(Comparator.comparingInt(BatchRecognitionResultDto::getIndex));
+        assertThat(results).extracting(BatchRecognitionResultDto::getIndex).containsExactly(0, 1, 2, 3, 4);
+        assertThat(results.get(3).getRecognition()).isNull();
+        assertThat(results.get(3).getError().getCode()).isEqualTo(CommonExceptionCode.TOO_MANY_FACES.getCode());
+        assertThat(results).filteredOn(result -> result.getIndex() != 3)
+                           .allSatisfy(result -> {
+                               assertThat(result.getRecognition()).isNotNull();
+                               assertThat(result.getError()).isNull();
+                           });
+        verify(recognitionService, atLeastOnce()).recognizeFaces(eq(API_KEY), eq(1), anyList());
+    }
+
+    @Test
+    void testTooManyImages() {
+        var images = IntStream.range(0, 11).mapToObj(FaceRecognizeBatchServiceTest::image).collect(Collectors.toList());
+
+        assertThatThrownBy(() -> batchService.recognize(images, result -> {
+        })).isInstanceOf(ConstraintViolationException.class);
+    }
+
+    @Test
+    void testScoringErrorIsReportedForItsImages() throws Exception {
+        var images = List.of(image(0), image(1));
+        when(recognitionService.getPredictionCount(images.get(0))).thenReturn(1);
+        when(recognitionService.findFaces(any())).thenReturn(new FacesRecognitionResponseDto());
+        doThrow(new IllegalStateException("scoring failed"))
+                .when(recognitionService).recognizeFaces(eq(API_KEY), eq(1), anyList());
+
+        var results = Collections.synchronizedList(new ArrayList<BatchRecognitionResultDto>());
+        batchService.recognize(images, results::add).get(5, TimeUnit.SECONDS);
+
+        assertThat(results).hasSize(2)
+                           .allSatisfy(result -> assertThat(result.getError().getCode())
+                                   .isEqualTo(CommonExceptionCode.UNDEFINED.getCode()));
+    }
+
+    private static ProcessImageParams image(final int index) {
+        return ProcessImageParams.builder()
+                                 .apiKey(API_KEY)
+                                 .imageBase64("image" + index)
+                                 .additionalParams(Collections.singletonMap(PREDICTION_COUNT, 1))
+                                 .build();
+    }
+}
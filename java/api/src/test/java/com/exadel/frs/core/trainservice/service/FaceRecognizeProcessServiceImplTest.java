@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.exadel.frs.core.trainservice.service;
+
+import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEnhancedEmbeddingProjection;
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.RECOGNITION;
+import static com.exadel.frs.core.trainservice.system.global.Constants.PREDICTION_COUNT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.commonservice.exception.ConstraintViolationException;
+import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
+import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import com.exadel.frs.core.trainservice.component.FaceClassifierPredictor;
+import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
+import com.exadel.frs.core.trainservice.mapper.FacesMapper;
+import com.exadel.frs.core.trainservice.system.global.RecognitionBatchProperties;
+import com.exadel.frs.core.trainservice.validation.ImageExtensionValidator;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class FaceRecognizeProcessServiceImplTest {
+
+    private static final String API_KEY = "apiKey";
+
+    @Mock
+    private FaceClassifierPredictor classifierPredictor;
+
+    @Mock
+    private EmbeddingCacheProvider embeddingCacheProvider;
+
+    @Mock
+    private FacesApiClient facesApiClient;
+
+    @Mock
+    private CalculatorLimiter calculatorLimiter;
+
+    @Mock
+    private ImageExtensionValidator imageExtensionValidator;
+
+    @Mock
+    private FacesMapper facesMapper;
+
+    @Mock
+    private Executor applicationTaskExecutor;
+
+    @Spy
+    private RecognitionBatchProperties recognitionBatchProperties = new RecognitionBatchProperties();
+
+    @InjectMocks
+    private FaceRecognizeProcessServiceImpl recognitionService;
+
+    @Test
+    void testEmbeddingsOfAnotherCalculatorAreRejectedBeforeLoadingCollection() {
+        when(facesApiClient.getStatus()).thenReturn(new FacesStatusResponse().setCalculatorVersion("calculator"));
+
+        assertThatThrownBy(() -> recognitionService.recognizeEmbeddings(API_KEY, "another", new double[][]{{1.0, 2.0}}, 1))
+                .isInstanceOf(ConstraintViolationException.class);
+        verify(embeddingCacheProvider, never()).getOrLoad(any());
+    }
+
+    @Test
+    void testEmbeddingsOfAnotherDimensionAreRejected() {
+        when(facesApiClient.getStatus()).thenReturn(new FacesStatusResponse().setCalculatorVersion("calculator"));
+        when(embeddingCacheProvider.getOrLoad(API_KEY))
+                .thenReturn(EmbeddingCollection.from(Stream.of(makeEnhancedEmbeddingProjection("A"))));
+
+        assertThatThrownBy(() -> recognitionService.recognizeEmbeddings(API_KEY, "calculator", new double[][]{{1.0, 2.0}}, 1))
+                .isInstanceOf(ConstraintViolationException.class);
+        verify(classifierPredictor, never()).predictAll(any(), any(), anyInt());
+    }
+
+    @Test
+    void testFacesAreRecognizedByApplicationExecutor() {
+        var tasks = new ArrayList<Runnable>();
+        doAnswer(invocation -> tasks.add(invocation.getArgument(0))).when(applicationTaskExecutor).execute(any());
+        when(calculatorLimiter.callAsync(eq(RECOGNITION), eq(API_KEY), any()))
+                .thenReturn(CompletableFuture.completedFuture(new FindFacesResponse()));
+
+        var result = recognitionService.processImageAsync(
+                ProcessImageParams.builder()
+                                  .apiKey(API_KEY)
+                                  .imageBase64("image")
+                                  .additionalParams(Map.of(PREDICTION_COUNT, 1))
+                                  .build()
+        );
+
+        // the calculator has answered, but the thread of its client does not recognize the faces
+        assertThat(result).isNotDone();
+        tasks.forEach(Runnable::run);
+        assertThat(result).isDone();
+    }
+}
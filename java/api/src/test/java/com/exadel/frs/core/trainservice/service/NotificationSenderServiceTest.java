@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.core.trainservice.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import com.exadel.frs.core.trainservice.dto.CacheActionDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.impossibl.postgres.api.jdbc.PGConnection;
+import com.impossibl.postgres.jdbc.PGDataSource;
+import java.sql.PreparedStatement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationSenderServiceTest {
+
+    @Mock
+    private PGDataSource dataSource;
+
+    @Mock
+    private PGConnection connection;
+
+    @Mock
+    private PreparedStatement statement;
+
+    private NotificationSenderService notificationSenderService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        notificationSenderService = new NotificationSenderService(dataSource);
+        notificationSenderService.setUp();
+    }
+
+    @Test
+    void sendsSubjectNamesAsParameter() throws Exception {
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        var action = new CacheActionDto("UPDATE", "api_key", "server");
+        action.setOldSubjectName("O'Brien");
+        action.setNewSubjectName("O'Brien'); DROP TABLE subject; --");
+
+        notificationSenderService.notifyCacheChange(action);
+
+        var payload = ArgumentCaptor.forClass(String.class);
+        verify(connection).prepareStatement("SELECT pg_notify('face_collection_update_msg', ?)");
+        verify(statement).setString(eq(1), payload.capture());
+        verify(statement).execute();
+        verify(statement).close();
+        assertThat(new ObjectMapper().readValue(payload.getValue(), CacheActionDto.class)).isEqualTo(action);
+    }
+}
@@ -17,6 +17,8 @@
 package com.exadel.frs.core.trainservice.service;
 
 import static com.exadel.frs.core.trainservice.ItemsBuilder.makeEnhancedEmbeddingProjection;
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.ENROLLMENT;
+import static com.exadel.frs.core.trainservice.service.CalculatorLimiter.Bulkhead.VERIFICATION;
 import static com.exadel.frs.core.trainservice.service.SubjectService.MAX_FACES_TO_RECOGNIZE;
 import static com.exadel.frs.core.trainservice.system.global.Constants.IMAGE_ID;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -41,14 +43,17 @@ import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResult;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.PluginsVersions;
 import com.exadel.frs.core.trainservice.cache.EmbeddingCacheProvider;
 import com.exadel.frs.core.trainservice.cache.EmbeddingCollection;
+import com.exadel.frs.core.trainservice.cache.EmbeddingDelta;
 import com.exadel.frs.core.trainservice.component.FaceClassifierPredictor;
 import com.exadel.frs.core.trainservice.component.classifiers.EuclideanDistanceClassifier;
 import com.exadel.frs.core.trainservice.dao.SubjectDao;
 import com.exadel.frs.core.trainservice.dto.ProcessImageParams;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -83,12 +88,16 @@ class SubjectServiceTest {
     @Mock
     private EuclideanDistanceClassifier euclideanDistanceClassifier;
 
+    @Mock
+    private CalculatorLimiter calculatorLimiter;
+
     @InjectMocks
     private SubjectService subjectService;
 
     @BeforeEach
     void setUp() {
         initMocks(this);
+        when(calculatorLimiter.call(any(), any(), any())).thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(2).get());
     }
 
     @Test
@@ -112,7 +121,7 @@ class SubjectServiceTest {
         // verify deleted from DB
         verify(subjectDao).removeAllSubjectEmbeddings(API_KEY, subjectName);
         // verify cache
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any(), eq(EmbeddingDelta.subjectRemoved(subjectName)));
     }
 
     @Test
@@ -123,21 +132,23 @@ class SubjectServiceTest {
         // verify deleted from DB
         verify(subjectDao).deleteSubjectByName(API_KEY, subjectName);
         // verify cache
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any(), eq(EmbeddingDelta.subjectRemoved(subjectName)));
     }
 
     @Test
     void testRemoveSubjectEmbedding() {
         var embeddingId = UUID.randomUUID();
 
-        when(subjectDao.removeSubjectEmbedding(API_KEY, embeddingId)).thenReturn(new Embedding());
+        var embedding = new Embedding();
+        embedding.setId(embeddingId);
+        when(subjectDao.removeSubjectEmbedding(API_KEY, embeddingId)).thenReturn(embedding);
 
         subjectService.removeSubjectEmbedding(API_KEY, embeddingId);
 
         // verify deleted from DB
         verify(subjectDao).removeSubjectEmbedding(API_KEY, embeddingId);
         // verify cache update attempt
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any(), eq(EmbeddingDelta.embeddings(List.of(embeddingId))));
     }
 
     static Stream<Arguments> subjectNamePairsFailed() {
@@ -172,7 +183,11 @@ class SubjectServiceTest {
         assertThat(updated).isTrue();
 
         // verify cache update attempt
-        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any());
+        verify(embeddingCacheProvider).ifPresent(
+                eq(API_KEY),
+                any(),
+                eq(EmbeddingDelta.subjectRenamed(oldSubjectName, newSubjectName))
+        );
     }
 
     @Test
@@ -185,12 +200,16 @@ class SubjectServiceTest {
                 .thenReturn(findFacesResponse(1));
         when(euclideanDistanceClassifier.normalizeOne(any()))
                 .thenReturn(new double[]{1.1, 2.2});
+        var embedding = new Embedding();
+        embedding.setId(UUID.randomUUID());
         when(subjectDao.addEmbedding(eq(API_KEY), eq(subjectName), any()))
-                .thenReturn(Pair.of(new Subject(), new Embedding()));
+                .thenReturn(Pair.of(new Subject(), embedding));
 
         var pair = subjectService.saveCalculatedEmbedding(file, subjectName, detProbThreshold, API_KEY);
 
         assertThat(pair).isNotNull();
+        verify(embeddingCacheProvider).ifPresent(eq(API_KEY), any(), eq(EmbeddingDelta.embeddings(List.of(embedding.getId()))));
+        verify(calculatorLimiter).call(eq(ENROLLMENT), eq(API_KEY), any());
     }
 
     @Test
@@ -239,6 +258,7 @@ class SubjectServiceTest {
 
         var verifications = result.getLeft();
         assertThat(verifications).hasSize(2);
+        verify(calculatorLimiter).call(eq(VERIFICATION), eq(API_KEY), any());
 
         if (status) {
             verifications.forEach(v -> assertThat(v.getExecutionTime()).isNotNull());
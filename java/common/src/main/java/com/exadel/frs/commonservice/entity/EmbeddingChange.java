@@ -0,0 +1,46 @@
+package com.exadel.frs.commonservice.entity;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Change of the embeddings of a model, recorded by database triggers. Either {@link #embeddingId} is set (embedding is
+ * added, removed, recalculated or reassigned), or {@link #subjectId} with the previous {@link #subjectName}
+ * (subject is renamed or removed together with all its embeddings).
+ */
+@Entity
+@Table(name = "embedding_change", schema = "public")
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmbeddingChange {
+
+    @Id
+    private Long id;
+
+    @Column(name = "api_key")
+    private String apiKey;
+
+    @Column(name = "embedding_id")
+    private UUID embeddingId;
+
+    @Column(name = "subject_id")
+    private UUID subjectId;
+
+    @Column(name = "subject_name")
+    private String subjectName;
+
+    @Column(name = "created_date")
+    private LocalDateTime createdDate;
+
+    public boolean isSubjectChange() {
+        return embeddingId == null;
+    }
+}
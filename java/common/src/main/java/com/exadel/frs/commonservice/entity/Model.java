@@ -57,6 +57,8 @@ public class Model {
         this.apiKey = randomUUID().toString();
         this.app = model.getApp();
         this.type = model.type;
+        this.schedulingWeight = model.schedulingWeight;
+        this.maxInFlight = model.maxInFlight;
         this.createdDate = LocalDateTime.now();
     }
 
@@ -81,4 +83,17 @@ public class Model {
 
     @Column(name = "created_date")
     private LocalDateTime createdDate;
+
+    /**
+     * Share of the calculator capacity, which requests of the model get, while requests of several models are waiting,
+     * 1 if not set.
+     */
+    @Column(name = "scheduling_weight")
+    private Integer schedulingWeight;
+
+    /**
+     * Maximum number of concurrent calculator requests of the model, not limited if not set.
+     */
+    @Column(name = "max_in_flight")
+    private Integer maxInFlight;
 }
@@ -0,0 +1,10 @@
+package com.exadel.frs.commonservice.entity;
+
+import lombok.Value;
+
+@Value
+public class ModelRequestCountProjection {
+
+    Long modelId;
+    Long requestCount;
+}
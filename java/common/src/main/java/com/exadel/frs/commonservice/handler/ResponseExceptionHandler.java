@@ -23,6 +23,7 @@ import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import com.exadel.frs.commonservice.dto.ExceptionResponseDto;
 import com.exadel.frs.commonservice.exception.BasicException;
+import com.exadel.frs.commonservice.exception.CalculatorOverloadedException;
 import com.exadel.frs.commonservice.exception.ConstraintViolationException;
 import com.exadel.frs.commonservice.exception.DemoNotAvailableException;
 import com.exadel.frs.commonservice.exception.EmptyRequiredFieldException;
@@ -51,6 +52,8 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 @Slf4j
 public class ResponseExceptionHandler extends ResponseEntityExceptionHandler {
 
+    private static final String RETRY_AFTER_SECONDS = "1";
+
     @ExceptionHandler(BasicException.class)
     public ResponseEntity<ExceptionResponseDto> handleDefinedExceptions(final BasicException ex) {
         switch (ex.getLogLevel()) {
@@ -67,6 +70,16 @@ public class ResponseExceptionHandler extends ResponseEntityExceptionHandler {
                 .body(buildBody(ex));
     }
 
+    @ExceptionHandler(CalculatorOverloadedException.class)
+    public ResponseEntity<ExceptionResponseDto> handleCalculatorOverloadedException(final CalculatorOverloadedException ex) {
+        log.debug("Request is rejected: {}", ex.getMessage());
+
+        return ResponseEntity
+                .status(ex.getExceptionCode().getHttpStatus())
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(buildBody(ex));
+    }
+
     @ExceptionHandler(value = {MissingRequestHeaderException.class})
     public ResponseEntity<ExceptionResponseDto> handleMissingRequestHeader(final MissingRequestHeaderException e) {
         return handleMissingRequestHeader(e.getHeaderName());
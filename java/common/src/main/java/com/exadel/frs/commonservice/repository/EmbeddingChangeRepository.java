@@ -0,0 +1,23 @@
+package com.exadel.frs.commonservice.repository;
+
+import com.exadel.frs.commonservice.entity.EmbeddingChange;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface EmbeddingChangeRepository extends JpaRepository<EmbeddingChange, Long> {
+
+    // database clock, the same one triggers record changes with
+    @Query(value = "select cast(clock_timestamp() as timestamp)", nativeQuery = true)
+    Timestamp getCurrentTimestamp();
+
+    List<EmbeddingChange> findByApiKeyAndCreatedDateAfterOrderById(String apiKey, LocalDateTime createdDate);
+
+    @Modifying
+    @Query("delete from EmbeddingChange c where c.createdDate < :createdDate")
+    int deleteByCreatedDateBefore(@Param("createdDate") LocalDateTime createdDate);
+}
@@ -4,6 +4,7 @@ import com.exadel.frs.commonservice.entity.Embedding;
 import com.exadel.frs.commonservice.entity.EmbeddingProjection;
 import com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection;
 import com.exadel.frs.commonservice.entity.Subject;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Stream;
@@ -28,6 +29,33 @@ public interface EmbeddingRepository extends JpaRepository<Embedding, UUID> {
             "   s.apiKey = :apiKey")
     Stream<EnhancedEmbeddingProjection> findBySubjectApiKey(@Param("apiKey") String apiKey);
 
+    @Query("select " +
+            " new com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection(e.id, e.embedding, s.subjectName)" +
+            " from " +
+            "   Embedding e " +
+            " left join " +
+            "   e.subject s " +
+            " where " +
+            "   s.apiKey = :apiKey" +
+            "   and e.id in :ids")
+    List<EnhancedEmbeddingProjection> findBySubjectApiKeyAndIdIn(@Param("apiKey") String apiKey,
+                                                                 @Param("ids") Collection<UUID> ids);
+
+    @Query("select " +
+            " new com.exadel.frs.commonservice.entity.EnhancedEmbeddingProjection(e.id, e.embedding, s.subjectName)" +
+            " from " +
+            "   Embedding e " +
+            " left join " +
+            "   e.subject s " +
+            " where " +
+            "   s.apiKey = :apiKey" +
+            "   and s.subjectName in :subjectNames")
+    List<EnhancedEmbeddingProjection> findBySubjectApiKeyAndSubjectNameIn(@Param("apiKey") String apiKey,
+                                                                          @Param("subjectNames") Collection<String> subjectNames);
+
+    @Query("select count(e) from Embedding e where e.subject.apiKey = :apiKey")
+    Long countBySubjectApiKey(@Param("apiKey") String apiKey);
+
     @EntityGraph("embedding-with-subject")
     List<Embedding> findBySubjectId(UUID subjectId);
 
@@ -32,6 +32,10 @@ import java.util.Optional;
 public interface ModelRepository extends JpaRepository<Model, Long> {
     Optional<Model> findByApiKeyAndType(String apiKey, ModelType type);
 
+    Optional<Model> findByApiKey(String apiKey);
+
+    List<Model> findAllByType(ModelType type);
+
     @Query("select distinct m " +
             "from Model m " +
             "where m.app.id = :appId")
@@ -1,5 +1,6 @@
 package com.exadel.frs.commonservice.repository;
 
+import com.exadel.frs.commonservice.entity.ModelRequestCountProjection;
 import com.exadel.frs.commonservice.entity.ModelStatistic;
 import com.exadel.frs.commonservice.entity.ModelStatisticProjection;
 import java.time.LocalDateTime;
@@ -7,6 +8,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -15,4 +18,14 @@ public interface ModelStatisticRepository extends JpaRepository<ModelStatistic,
     Stream<ModelStatistic> findAllByModelIdInAndCreatedDate(Set<Long> modelIds, LocalDateTime createdDate);
 
     List<ModelStatisticProjection> findAllByModelGuidAndCreatedDateBetween(String modelGuid, LocalDateTime from, LocalDateTime to);
+
+    @Query("select " +
+            " new com.exadel.frs.commonservice.entity.ModelRequestCountProjection(s.model.id, sum(s.requestCount))" +
+            " from " +
+            "   ModelStatistic s " +
+            " where " +
+            "   s.createdDate >= :createdDate" +
+            " group by " +
+            "   s.model.id")
+    List<ModelRequestCountProjection> getRequestCountsSince(@Param("createdDate") LocalDateTime createdDate);
 }
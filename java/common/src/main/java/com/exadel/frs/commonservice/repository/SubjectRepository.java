@@ -15,6 +15,8 @@ public interface SubjectRepository extends PagingAndSortingRepository<Subject, U
 
     List<Subject> findByApiKey(String apiKey);
 
+    List<Subject> findByApiKeyAndIdIn(String apiKey, Collection<UUID> ids);
+
     @Query("select s.subjectName from Subject s where s.apiKey = :apiKey")
     Collection<String> getSubjectNames(String apiKey);
 
@@ -19,9 +19,11 @@ package com.exadel.frs.commonservice.sdk.config;
 import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
 import static com.zaxxer.hikari.util.ClockSource.toMillis;
 import static feign.Logger.Level.FULL;
+import static feign.Logger.Level.NONE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import com.exadel.frs.commonservice.sdk.faces.feign.FacesFeignClient;
 import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
+import com.exadel.frs.commonservice.system.global.FacesClientProperties;
 import feign.Feign;
 import feign.Request;
 import feign.Retryer;
@@ -47,13 +49,14 @@ public class FeignClientsConfig {
     private int facesRetryerMaxAttempts;
 
     private final EnvironmentProperties properties;
+    private final FacesClientProperties facesClientProperties;
 
     @Bean
     public FacesFeignClient facesFeignClient() {
         return Feign.builder()
                     .encoder(new SpringFormEncoder(new JacksonEncoder()))
                     .decoder(new JacksonDecoder())
-                    .logLevel(FULL)
+                    .logLevel(facesClientProperties.isLogBodies() ? FULL : NONE)
                     .retryer(facesFeignRetryer())
                     .options(new Request.Options(facesConnectTimeout, MILLISECONDS, facesReadTimeout, MILLISECONDS, true))
                     .target(FacesFeignClient.class, properties.getServers().get(PYTHON).getUrl());
@@ -2,6 +2,7 @@ package com.exadel.frs.commonservice.sdk.faces;
 
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
 import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import java.util.concurrent.CompletableFuture;
 import org.springframework.web.multipart.MultipartFile;
 
 /**
@@ -57,6 +58,38 @@ public interface FacesApiClient {
             Double thresholdC,
             String facePlugins);
 
+    /**
+     * Same as {@link #findFacesWithCalculator(MultipartFile, Integer, Double, String)}, the calling thread is not
+     * blocked if the implementation supports it.
+     */
+    default CompletableFuture<FindFacesResponse> findFacesWithCalculatorAsync(
+            MultipartFile photo,
+            Integer faceLimit,
+            Double thresholdC,
+            String facePlugins) {
+        try {
+            return CompletableFuture.completedFuture(findFacesWithCalculator(photo, faceLimit, thresholdC, facePlugins));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Same as {@link #findFacesBase64WithCalculator(String, Integer, Double, String)}, the calling thread is not
+     * blocked if the implementation supports it.
+     */
+    default CompletableFuture<FindFacesResponse> findFacesBase64WithCalculatorAsync(
+            String imageAsBase64,
+            Integer faceLimit,
+            Double thresholdC,
+            String facePlugins) {
+        try {
+            return CompletableFuture.completedFuture(findFacesBase64WithCalculator(imageAsBase64, faceLimit, thresholdC, facePlugins));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * Calls /status endpoint of Faces API
      *
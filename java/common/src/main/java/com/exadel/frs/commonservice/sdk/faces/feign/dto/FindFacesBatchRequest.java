@@ -0,0 +1,13 @@
+package com.exadel.frs.commonservice.sdk.faces.feign.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+
+@Data
+@RequiredArgsConstructor
+public class FindFacesBatchRequest {
+    @JsonProperty("files")
+    private final List<String> imagesAsBase64;
+}
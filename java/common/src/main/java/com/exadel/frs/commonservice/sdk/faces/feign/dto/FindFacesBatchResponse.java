@@ -0,0 +1,37 @@
+package com.exadel.frs.commonservice.sdk.faces.feign.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Response of {@code /find_faces_base64_batch}, results are in the order of the images.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FindFacesBatchResponse {
+
+    @JsonProperty(value = "plugins_versions")
+    private PluginsVersions pluginsVersions;
+    private List<Item> results;
+
+    /**
+     * Either faces found in the image, or the error status and message, as they would be returned for this image
+     * by {@code /find_faces_base64}.
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+
+        private List<FindFacesResult> result;
+        private Integer status;
+        private String message;
+    }
+}
@@ -0,0 +1,45 @@
+package com.exadel.frs.commonservice.sdk.faces.service;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Semaphore, which does not block: a permit is a future, completed once one is available.
+ */
+final class AsyncPermits {
+
+    private final int limit;
+    private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    // guarded by 'this'
+    private int used;
+
+    AsyncPermits(final int limit) {
+        this.limit = limit;
+    }
+
+    synchronized CompletableFuture<Void> acquire() {
+        if (used < limit) {
+            used++;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        waiting.add(permit);
+        return permit;
+    }
+
+    void release() {
+        final CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                used--;
+                return;
+            }
+        }
+
+        // the permit is handed over, it is completed outside of the lock as it runs the waiting request
+        next.complete(null);
+    }
+}
@@ -0,0 +1,169 @@
+package com.exadel.frs.commonservice.sdk.faces.service;
+
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesBatchResponse;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * Coalesces concurrent calculator requests with the same parameters: a request waits up to the linger time for
+ * others, and they are sent as a single multi-image request, once the batch is full or the time is up.
+ */
+public class CalculatorBatcher {
+
+    private final int maxSize;
+    private final long lingerNanos;
+    private final BiFunction<Params, List<String>, CompletableFuture<FindFacesBatchResponse>> sender;
+    private final ScheduledExecutorService timer;
+    // guarded by 'this'
+    private final Map<Params, Batch> open = new HashMap<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder images = new LongAdder();
+
+    CalculatorBatcher(final int maxSize, final Duration linger,
+                      final BiFunction<Params, List<String>, CompletableFuture<FindFacesBatchResponse>> sender) {
+        this.maxSize = maxSize;
+        this.lingerNanos = linger.toNanos();
+        this.sender = sender;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "calculator-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    CompletableFuture<FindFacesResponse> submit(final String imageAsBase64, final Params params) {
+        val result = new CompletableFuture<FindFacesResponse>();
+        Batch full = null;
+        synchronized (this) {
+            var batch = open.get(params);
+            if (batch == null) {
+                batch = new Batch(params);
+                open.put(params, batch);
+                final Batch created = batch;
+                timer.schedule(() -> flush(created), lingerNanos, TimeUnit.NANOSECONDS);
+            }
+
+            batch.images.add(imageAsBase64);
+            batch.callers.add(result);
+            if (batch.images.size() >= maxSize) {
+                open.remove(params);
+                full = batch;
+            }
+        }
+
+        if (full != null) {
+            send(full);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return number of the sent batches
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of the images in the sent batches
+     */
+    public long getImages() {
+        return images.sum();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void flush(final Batch batch) {
+        synchronized (this) {
+            // it is sent already, if it became full before the linger time
+            if (!open.remove(batch.params, batch)) {
+                return;
+            }
+        }
+
+        send(batch);
+    }
+
+    private void send(final Batch batch) {
+        batches.increment();
+        images.add(batch.images.size());
+
+        CompletableFuture<FindFacesBatchResponse> response;
+        try {
+            response = sender.apply(batch.params, batch.images);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        response.whenComplete((batchResponse, error) -> {
+            for (int i = 0; i < batch.callers.size(); i++) {
+                val caller = batch.callers.get(i);
+                if (error != null) {
+                    caller.completeExceptionally(error);
+                } else if (batchResponse.getResults() == null || batchResponse.getResults().size() <= i) {
+                    caller.completeExceptionally(new FacesServiceException("No result of the image in the batch"));
+                } else {
+                    complete(caller, batchResponse, batchResponse.getResults().get(i));
+                }
+            }
+        });
+    }
+
+    private static void complete(final CompletableFuture<FindFacesResponse> caller, final FindFacesBatchResponse batchResponse,
+                                 final FindFacesBatchResponse.Item item) {
+        if (item.getStatus() == null) {
+            caller.complete(new FindFacesResponse(batchResponse.getPluginsVersions(), item.getResult()));
+        } else if (item.getStatus() == 400) {
+            caller.completeExceptionally(new NoFacesFoundException());
+        } else {
+            caller.completeExceptionally(new FacesServiceException(String.format(
+                    "[%d] of the image in the batch: [%s]",
+                    item.getStatus(),
+                    item.getMessage()
+            )));
+        }
+    }
+
+    /**
+     * Parameters of {@code /find_faces}, only requests with the same ones are batched together.
+     */
+    @Value
+    static class Params {
+
+        Integer faceLimit;
+        Double thresholdC;
+        String facePlugins;
+    }
+
+    private static class Batch {
+
+        private final Params params;
+        private final List<String> images = new ArrayList<>();
+        private final List<CompletableFuture<FindFacesResponse>> callers = new ArrayList<>();
+
+        private Batch(final Params params) {
+            this.params = params;
+        }
+    }
+}
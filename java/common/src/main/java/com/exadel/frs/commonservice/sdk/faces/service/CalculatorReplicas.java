@@ -0,0 +1,117 @@
+package com.exadel.frs.commonservice.sdk.faces.service;
+
+import com.exadel.frs.commonservice.system.global.FacesClientProperties.Balancing;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Replicas of the embedding calculator, a replica is picked for each request by the number of requests, which
+ * are outstanding on it. Replicas, which failed several times in a row, are ejected until they succeed again.
+ */
+@Slf4j
+final class CalculatorReplicas {
+
+    private final List<Replica> replicas;
+    private final Balancing balancing;
+    private final int ejectAfterFailures;
+
+    CalculatorReplicas(final List<URI> urls, final int maxConnectionsPerHost, final Balancing balancing,
+                       final int ejectAfterFailures) {
+        this.replicas = urls.stream()
+                            .map(url -> new Replica(url, new AsyncPermits(maxConnectionsPerHost)))
+                            .collect(Collectors.toUnmodifiableList());
+        this.balancing = balancing;
+        this.ejectAfterFailures = ejectAfterFailures;
+    }
+
+    List<Replica> all() {
+        return replicas;
+    }
+
+    /**
+     * @param excluded replica, which is not picked unless it is the only one, e.g. the one, which has just failed
+     * @return healthy replica to send a request to, or any replica if none of them is healthy
+     */
+    Replica choose(final Replica excluded) {
+        List<Replica> candidates = candidates(excluded, true);
+        if (candidates.isEmpty()) {
+            candidates = candidates(excluded, false);
+        }
+        if (candidates.isEmpty()) {
+            return excluded;
+        }
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        if (balancing == Balancing.POWER_OF_TWO_CHOICES) {
+            final int first = random.nextInt(candidates.size());
+            final int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+            return lessLoaded(candidates.get(first), candidates.get(second));
+        }
+
+        // ties are broken by the random start, so that idle replicas share the load
+        final int start = random.nextInt(candidates.size());
+        Replica chosen = candidates.get(start);
+        for (int i = 1; i < candidates.size(); i++) {
+            chosen = lessLoaded(chosen, candidates.get((start + i) % candidates.size()));
+        }
+
+        return chosen;
+    }
+
+    void succeeded(final Replica replica) {
+        replica.failures.set(0);
+        if (!replica.healthy) {
+            replica.healthy = true;
+            log.info("Calculator {} is healthy again", replica.url);
+        }
+    }
+
+    void failed(final Replica replica) {
+        if (replica.failures.incrementAndGet() >= ejectAfterFailures && replica.healthy) {
+            replica.healthy = false;
+            log.warn("Calculator {} is ejected after {} failures in a row", replica.url, replica.failures.get());
+        }
+    }
+
+    private List<Replica> candidates(final Replica excluded, final boolean healthyOnly) {
+        final List<Replica> candidates = new ArrayList<>(replicas.size());
+        for (final Replica replica : replicas) {
+            if (replica != excluded && (!healthyOnly || replica.healthy)) {
+                candidates.add(replica);
+            }
+        }
+
+        return candidates;
+    }
+
+    private static Replica lessLoaded(final Replica first, final Replica second) {
+        return second.outstanding.get() < first.outstanding.get() ? second : first;
+    }
+
+    static final class Replica {
+
+        final URI url;
+        final AsyncPermits permits;
+        // requests sent or waiting for a connection
+        final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile boolean healthy = true;
+
+        private Replica(final URI url, final AsyncPermits permits) {
+            this.url = url;
+            this.permits = permits;
+        }
+
+        boolean isHealthy() {
+            return healthy;
+        }
+    }
+}
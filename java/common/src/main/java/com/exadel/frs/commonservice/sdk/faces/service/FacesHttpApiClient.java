@@ -0,0 +1,485 @@
+package com.exadel.frs.commonservice.sdk.faces.service;
+
+import static com.exadel.frs.commonservice.sdk.faces.service.FacesRestApiClient.withCalculator;
+import static com.exadel.frs.commonservice.system.global.EnvironmentProperties.ServerType.PYTHON;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import com.exadel.frs.commonservice.sdk.faces.FacesApiClient;
+import com.exadel.frs.commonservice.sdk.faces.exception.FacesServiceException;
+import com.exadel.frs.commonservice.sdk.faces.exception.NoFacesFoundException;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FacesStatusResponse;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesBatchRequest;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesBatchResponse;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesRequest;
+import com.exadel.frs.commonservice.sdk.faces.feign.dto.FindFacesResponse;
+import com.exadel.frs.commonservice.system.global.EnvironmentProperties;
+import com.exadel.frs.commonservice.system.global.FacesClientProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Non-blocking client of the embedding calculator: requests are sent by the JDK {@link HttpClient} over kept-alive
+ * HTTP/1.1 connections, and callers get a future instead of a thread waiting for the inference. Requests to a host
+ * over {@link FacesClientProperties#getMaxConnectionsPerHost()} wait for their turn without a thread as well.
+ * <p>
+ * Requests are balanced between the calculator replicas, see {@link FacesClientProperties#getUrls()}, unhealthy
+ * ones are ejected and slow requests may be hedged. Concurrent calculator requests may be sent as batches,
+ * see {@link CalculatorBatcher}.
+ * <p>
+ * Errors are mapped the same way as by {@link FacesRestApiClient}, failed connections are retried by another replica.
+ */
+@Component
+@ConditionalOnProperty(name = "app.faces-client.type", havingValue = "HTTP")
+@Slf4j
+public class FacesHttpApiClient implements FacesApiClient {
+
+    private static final long RETRY_DELAY_MILLIS = 100;
+
+    private static final int LATENCY_WINDOW = 1024;
+    private static final int LATENCY_MIN_SAMPLES = 100;
+
+    private final FacesClientProperties properties;
+    private final CalculatorReplicas replicas;
+    private final Duration readTimeout;
+    private final int maxAttempts;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW, LATENCY_MIN_SAMPLES);
+    private final ScheduledExecutorService healthChecks;
+    private final CalculatorBatcher batcher;
+
+    public FacesHttpApiClient(final EnvironmentProperties environmentProperties,
+                              final FacesClientProperties properties,
+                              @Value("${app.feign.faces.connect-timeout}") final int connectTimeout,
+                              @Value("${app.feign.faces.read-timeout}") final int readTimeout,
+                              @Value("${app.feign.faces.retryer.max-attempts}") final int maxAttempts) {
+        this.properties = properties;
+        this.readTimeout = Duration.ofMillis(readTimeout);
+        this.maxAttempts = maxAttempts;
+        this.httpClient = HttpClient.newBuilder()
+                                    .version(HttpClient.Version.HTTP_1_1)
+                                    .connectTimeout(Duration.ofMillis(connectTimeout))
+                                    .build();
+
+        val urls = properties.getUrls().isEmpty()
+                ? List.of(environmentProperties.getServers().get(PYTHON).getUrl())
+                : properties.getUrls();
+        this.replicas = new CalculatorReplicas(
+                urls.stream().map(url -> URI.create(StringUtils.removeEnd(url.trim(), "/"))).collect(Collectors.toList()),
+                properties.getMaxConnectionsPerHost(),
+                properties.getBalancing(),
+                properties.getEjectAfterFailures()
+        );
+
+        if (urls.size() > 1) {
+            val interval = properties.getHealthCheckInterval().toMillis();
+            this.healthChecks = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "calculator-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.healthChecks.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.healthChecks = null;
+        }
+
+        val batching = properties.getBatching();
+        this.batcher = batching.isEnabled()
+                ? new CalculatorBatcher(batching.getMaxSize(), batching.getLinger(), this::findFacesBase64BatchAsync)
+                : null;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (healthChecks != null) {
+            healthChecks.shutdownNow();
+        }
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    /**
+     * @return coalescer of the calculator requests, if {@link FacesClientProperties.Batching} is enabled
+     */
+    public Optional<CalculatorBatcher> getBatcher() {
+        return Optional.ofNullable(batcher);
+    }
+
+    @Override
+    public FindFacesResponse findFaces(final MultipartFile photo, final Integer faceLimit, final Double thresholdC,
+                                       final String facePlugins) {
+        return join(findFacesAsync(photo, faceLimit, thresholdC, facePlugins));
+    }
+
+    @Override
+    public FindFacesResponse findFacesBase64(final String imageAsBase64, final Integer faceLimit, final Double thresholdC,
+                                             final String facePlugins) {
+        return join(findFacesBase64Async(imageAsBase64, faceLimit, thresholdC, facePlugins));
+    }
+
+    @Override
+    public FindFacesResponse findFacesWithCalculator(final MultipartFile photo, final Integer faceLimit, final Double thresholdC,
+                                                     final String facePlugins) {
+        return join(findFacesWithCalculatorAsync(photo, faceLimit, thresholdC, facePlugins));
+    }
+
+    @Override
+    public FindFacesResponse findFacesBase64WithCalculator(final String imageAsBase64, final Integer faceLimit,
+                                                           final Double thresholdC, final String facePlugins) {
+        return join(findFacesBase64WithCalculatorAsync(imageAsBase64, faceLimit, thresholdC, facePlugins));
+    }
+
+    @Override
+    public CompletableFuture<FindFacesResponse> findFacesWithCalculatorAsync(final MultipartFile photo, final Integer faceLimit,
+                                                                            final Double thresholdC, final String facePlugins) {
+        if (batcher != null) {
+            final byte[] content;
+            try {
+                content = photo.getBytes();
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(new UncheckedIOException(e));
+            }
+
+            return batcher.submit(
+                    Base64.getEncoder().encodeToString(content),
+                    new CalculatorBatcher.Params(faceLimit, thresholdC, withCalculator(facePlugins))
+            );
+        }
+
+        return findFacesAsync(photo, faceLimit, thresholdC, withCalculator(facePlugins));
+    }
+
+    @Override
+    public CompletableFuture<FindFacesResponse> findFacesBase64WithCalculatorAsync(final String imageAsBase64, final Integer faceLimit,
+                                                                                  final Double thresholdC, final String facePlugins) {
+        if (batcher != null) {
+            return batcher.submit(imageAsBase64, new CalculatorBatcher.Params(faceLimit, thresholdC, withCalculator(facePlugins)));
+        }
+
+        return findFacesBase64Async(imageAsBase64, faceLimit, thresholdC, withCalculator(facePlugins));
+    }
+
+    @Override
+    @Cacheable(value = "status", unless = "#result==null")
+    public FacesStatusResponse getStatus() {
+        return join(exchange(
+                url -> HttpRequest.newBuilder(URI.create(url + "/status"))
+                                  .timeout(readTimeout)
+                                  .GET()
+                                  .build(),
+                FacesStatusResponse.class,
+                false
+        ));
+    }
+
+    private CompletableFuture<FindFacesResponse> findFacesAsync(final MultipartFile photo, final Integer faceLimit,
+                                                                final Double thresholdC, final String facePlugins) {
+        final byte[] content;
+        try {
+            content = photo.getBytes();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException(e));
+        }
+
+        val boundary = UUID.randomUUID().toString();
+        val body = new ByteArrayOutputStream(content.length + 1024);
+        params(faceLimit, thresholdC, facePlugins).forEach((name, value) -> body.writeBytes((
+                "--" + boundary + "\r\n"
+                        + "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n"
+                        + value + "\r\n"
+        ).getBytes(UTF_8)));
+        body.writeBytes((
+                "--" + boundary + "\r\n"
+                        + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName(photo) + "\"\r\n"
+                        + "Content-Type: " + contentType(photo) + "\r\n\r\n"
+        ).getBytes(UTF_8));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(UTF_8));
+
+        val bytes = body.toByteArray();
+
+        return exchange(
+                url -> HttpRequest.newBuilder(URI.create(url + "/find_faces"))
+                                  .timeout(readTimeout)
+                                  .header(HttpHeaders.CONTENT_TYPE, MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=" + boundary)
+                                  .POST(BodyPublishers.ofByteArray(bytes))
+                                  .build(),
+                FindFacesResponse.class,
+                true
+        );
+    }
+
+    private CompletableFuture<FindFacesResponse> findFacesBase64Async(final String imageAsBase64, final Integer faceLimit,
+                                                                      final Double thresholdC, final String facePlugins) {
+        final byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(new FindFacesRequest(imageAsBase64));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException(e));
+        }
+
+        val path = "/find_faces_base64" + query(faceLimit, thresholdC, facePlugins);
+
+        return exchange(
+                url -> HttpRequest.newBuilder(URI.create(url + path))
+                                  .timeout(readTimeout)
+                                  .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                                  .POST(BodyPublishers.ofByteArray(body))
+                                  .build(),
+                FindFacesResponse.class,
+                true
+        );
+    }
+
+    private CompletableFuture<FindFacesBatchResponse> findFacesBase64BatchAsync(final CalculatorBatcher.Params params,
+                                                                                final List<String> imagesAsBase64) {
+        final byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(new FindFacesBatchRequest(imagesAsBase64));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException(e));
+        }
+
+        val path = "/find_faces_base64_batch" + query(params.getFaceLimit(), params.getThresholdC(), params.getFacePlugins());
+
+        return exchange(
+                url -> HttpRequest.newBuilder(URI.create(url + path))
+                                  .timeout(readTimeout)
+                                  .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                                  .POST(BodyPublishers.ofByteArray(body))
+                                  .build(),
+                FindFacesBatchResponse.class,
+                true
+        );
+    }
+
+    private static String query(final Integer faceLimit, final Double thresholdC, final String facePlugins) {
+        val query = params(faceLimit, thresholdC, facePlugins)
+                .entrySet()
+                .stream()
+                .map(param -> param.getKey() + "=" + URLEncoder.encode(param.getValue(), UTF_8))
+                .collect(Collectors.joining("&"));
+
+        return query.isEmpty() ? "" : "?" + query;
+    }
+
+    /**
+     * @return parameters of /find_faces, which are set, as Feign skips the others
+     */
+    private static Map<String, String> params(final Integer faceLimit, final Double thresholdC, final String facePlugins) {
+        val params = new LinkedHashMap<String, String>();
+        if (faceLimit != null) {
+            params.put("limit", faceLimit.toString());
+        }
+        if (thresholdC != null) {
+            params.put("det_prob_threshold", thresholdC.toString());
+        }
+        if (facePlugins != null) {
+            params.put("face_plugins", facePlugins);
+        }
+
+        return params;
+    }
+
+    private static String fileName(final MultipartFile photo) {
+        val fileName = photo.getOriginalFilename() == null ? photo.getName() : photo.getOriginalFilename();
+        return fileName.replace("\"", "%22").replace("\r", "").replace("\n", "");
+    }
+
+    private static String contentType(final MultipartFile photo) {
+        return photo.getContentType() == null ? MediaType.APPLICATION_OCTET_STREAM_VALUE : photo.getContentType();
+    }
+
+    /**
+     * Checks {@code /status} of each replica, unhealthy ones are not picked until they pass a check.
+     */
+    void checkHealth() {
+        for (val replica : replicas.all()) {
+            val request = HttpRequest.newBuilder(URI.create(replica.url + "/status"))
+                                     .timeout(properties.getHealthCheckInterval())
+                                     .GET()
+                                     .build();
+            httpClient.sendAsync(request, BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error == null && response.statusCode() >= 200 && response.statusCode() < 300) {
+                    replicas.succeeded(replica);
+                } else {
+                    log.debug("Health check of calculator {} failed", replica.url, error);
+                    replicas.failed(replica);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param requests  request to the given calculator url
+     * @param findFaces whether it is a /find_faces request: bad request means that no faces are found, and it can be
+     *                  hedged, as it does not change anything
+     */
+    private <T> CompletableFuture<T> exchange(final Function<URI, HttpRequest> requests, final Class<T> type,
+                                              final boolean findFaces) {
+        return dispatch(requests, findFaces).thenApply(response -> {
+            val request = response.request();
+            if (properties.isLogBodies() && log.isDebugEnabled()) {
+                log.debug("{} {} -> {}: {}", request.method(), request.uri(), response.statusCode(), new String(response.body(), UTF_8));
+            }
+
+            if (findFaces && response.statusCode() == 400) {
+                throw new NoFacesFoundException();
+            }
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                throw new FacesServiceException(String.format(
+                        "[%d] during [%s] to [%s]: [%s]",
+                        response.statusCode(),
+                        request.method(),
+                        request.uri(),
+                        new String(response.body(), UTF_8)
+                ));
+            }
+
+            try {
+                return objectMapper.readValue(response.body(), type);
+            } catch (IOException e) {
+                throw new FacesServiceException(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Sends the request to a replica, if it is not answered in time, it is sent to another one as well,
+     * see {@link FacesClientProperties.Hedging}.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> dispatch(final Function<URI, HttpRequest> requests,
+                                                             final boolean findFaces) {
+        val primary = replicas.choose(null);
+        val first = send(requests, primary, 1, findFaces);
+        if (!findFaces || !properties.getHedging().isEnabled() || replicas.all().size() < 2) {
+            return first;
+        }
+
+        // the first response wins, a failure is reported once both requests have failed
+        val result = new CompletableFuture<HttpResponse<byte[]>>();
+        val pending = new AtomicInteger(1);
+        final BiConsumer<HttpResponse<byte[]>, Throwable> complete = (response, error) -> {
+            if (error == null) {
+                result.complete(response);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        };
+        first.whenComplete(complete);
+
+        CompletableFuture.delayedExecutor(hedgeDelayMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            val hedge = replicas.choose(primary);
+            if (result.isDone() || hedge == primary || !hedge.isHealthy()) {
+                return;
+            }
+
+            pending.incrementAndGet();
+            log.debug("Request to calculator {} is hedged by {}", primary.url, hedge.url);
+            send(requests, hedge, 1, true).whenComplete(complete);
+        });
+
+        return result;
+    }
+
+    private long hedgeDelayMillis() {
+        val hedging = properties.getHedging();
+        return Math.max(hedging.getMinDelay().toMillis(), latencies.percentile(hedging.getPercentile()));
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> send(final Function<URI, HttpRequest> requests,
+                                                         final CalculatorReplicas.Replica replica,
+                                                         final int attempt,
+                                                         final boolean findFaces) {
+        val request = requests.apply(replica.url);
+        val started = System.nanoTime();
+        replica.outstanding.incrementAndGet();
+
+        return replica.permits
+                .acquire()
+                .thenCompose(permit -> httpClient.sendAsync(request, BodyHandlers.ofByteArray()))
+                .whenComplete((response, error) -> {
+                    replica.permits.release();
+                    replica.outstanding.decrementAndGet();
+                })
+                .handle((response, error) -> {
+                    if (error == null) {
+                        replicas.succeeded(replica);
+                        if (findFaces) {
+                            latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                        }
+                        return CompletableFuture.completedFuture(response);
+                    }
+
+                    val cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (!(cause instanceof IOException)) {
+                        return CompletableFuture.<HttpResponse<byte[]>>failedFuture(cause);
+                    }
+
+                    replicas.failed(replica);
+                    if (attempt >= maxAttempts) {
+                        return CompletableFuture.<HttpResponse<byte[]>>failedFuture(new FacesServiceException(cause.toString()));
+                    }
+
+                    log.debug("{} {} failed, retrying", request.method(), request.uri(), cause);
+                    return CompletableFuture.runAsync(
+                            () -> {
+                            },
+                            CompletableFuture.delayedExecutor(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                    ).thenCompose(ignored -> send(requests, replicas.choose(replica), attempt + 1, findFaces));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -11,12 +11,14 @@ import com.exadel.frs.commonservice.system.global.Constants;
 import feign.FeignException;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
 @AllArgsConstructor
 @Component
+@ConditionalOnProperty(name = "app.faces-client.type", havingValue = "FEIGN", matchIfMissing = true)
 public class FacesRestApiClient implements FacesApiClient {
 
     private static final String COMMA = ",";
@@ -64,16 +66,7 @@ public class FacesRestApiClient implements FacesApiClient {
 
     private FindFacesResponse findWithCalculator(final MultipartFile photo, final String imageAsBase64, Integer faceLimit, Double thresholdC, String facePlugins) {
         try {
-            String finalFacePlugins;
-            if (StringUtils.isNotBlank(facePlugins)) {
-                if (!facePlugins.contains(Constants.CALCULATOR_PLUGIN)) {
-                    finalFacePlugins = Constants.CALCULATOR_PLUGIN + COMMA + facePlugins;
-                } else {
-                    finalFacePlugins = facePlugins;
-                }
-            } else {
-                finalFacePlugins = Constants.CALCULATOR_PLUGIN;
-            }
+            String finalFacePlugins = withCalculator(facePlugins);
 
             if (photo != null) {
                 return feignClient.findFaces(photo, faceLimit, thresholdC, finalFacePlugins);
@@ -92,6 +85,21 @@ public class FacesRestApiClient implements FacesApiClient {
         }
     }
 
+    /**
+     * @return given face plugins with 'calculator' plugin added, if it is not there yet
+     */
+    static String withCalculator(String facePlugins) {
+        if (StringUtils.isNotBlank(facePlugins)) {
+            if (!facePlugins.contains(Constants.CALCULATOR_PLUGIN)) {
+                return Constants.CALCULATOR_PLUGIN + COMMA + facePlugins;
+            } else {
+                return facePlugins;
+            }
+        } else {
+            return Constants.CALCULATOR_PLUGIN;
+        }
+    }
+
     @Override
     @Cacheable(value = "status", unless = "#result==null")
     public FacesStatusResponse getStatus() {
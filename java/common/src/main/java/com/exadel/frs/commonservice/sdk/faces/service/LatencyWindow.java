@@ -0,0 +1,53 @@
+package com.exadel.frs.commonservice.sdk.faces.service;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the recent requests, used to pick the delay of hedged requests.
+ */
+final class LatencyWindow {
+
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final long[] latencies;
+    private final int minSamples;
+    // guarded by 'this'
+    private int next;
+    private int size;
+    private int recordedSinceComputed;
+    private long percentileValue = -1;
+    private double computedPercentile;
+
+    LatencyWindow(final int capacity, final int minSamples) {
+        this.latencies = new long[capacity];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(final long latencyMillis) {
+        latencies[next] = latencyMillis;
+        next = (next + 1) % latencies.length;
+        size = Math.min(size + 1, latencies.length);
+        recordedSinceComputed++;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the percentile of the recent latencies, or -1 if there are too few of them; it is recomputed once
+     * in a while, not on each call
+     */
+    synchronized long percentile(final double percentile) {
+        if (size < minSamples) {
+            return -1;
+        }
+        if (percentileValue < 0 || recordedSinceComputed >= RECOMPUTE_EVERY || computedPercentile != percentile) {
+            final long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            final int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            percentileValue = sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+            computedPercentile = percentile;
+            recordedSinceComputed = 0;
+        }
+
+        return percentileValue;
+    }
+}
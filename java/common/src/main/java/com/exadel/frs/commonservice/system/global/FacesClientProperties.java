@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.exadel.frs.commonservice.system.global;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the embedding calculator client, timeouts and retries are shared with the Feign client,
+ * see {@code app.feign.faces}.
+ */
+@Component
+@ConfigurationProperties(prefix = "app.faces-client")
+@Data
+public class FacesClientProperties {
+
+    private ClientType type = ClientType.FEIGN;
+
+    /**
+     * Maximum number of requests in flight to a single calculator host, the rest are queued without blocking
+     * a thread. Requests are sent over HTTP/1.1, so it is the number of kept-alive connections as well.
+     */
+    private int maxConnectionsPerHost = 16;
+
+    /**
+     * Replicas of the embedding calculator, a replica is picked for each request, see {@link #balancing}.
+     * {@code environment.servers.PYTHON.url} is used if none is set. Feign client uses that url only.
+     */
+    private List<String> urls = new ArrayList<>();
+
+    private Balancing balancing = Balancing.POWER_OF_TWO_CHOICES;
+
+    /**
+     * Replica is not picked after this number of failed requests or {@code /status} checks in a row,
+     * until a check succeeds.
+     */
+    private int ejectAfterFailures = 3;
+
+    /**
+     * Interval of {@code /status} checks of the replicas, there are no checks if there is a single replica.
+     */
+    private Duration healthCheckInterval = Duration.ofSeconds(5);
+
+    private Hedging hedging = new Hedging();
+
+    private Batching batching = new Batching();
+
+    /**
+     * Request and response bodies (base64 images, embeddings) are logged at debug level.
+     */
+    private boolean logBodies = false;
+
+    /**
+     * Calculator request, which is not answered in time, is sent to another replica as well and the first response
+     * wins. Requests are only hedged if there are several healthy replicas.
+     */
+    @Data
+    public static class Hedging {
+
+        private boolean enabled = false;
+
+        /**
+         * Request is hedged if it takes longer than this percentile of the recent requests.
+         */
+        private double percentile = 95;
+
+        /**
+         * Requests are not hedged before this delay, it is the delay until there are enough recent requests as well.
+         */
+        private Duration minDelay = Duration.ofMillis(50);
+    }
+
+    /**
+     * Concurrent requests with the calculator, which have the same parameters, are sent as a single multi-image
+     * request, so that the calculator runs the inference of their faces as one batch. Requires a calculator,
+     * which has {@code /find_faces_base64_batch}.
+     */
+    @Data
+    public static class Batching {
+
+        private boolean enabled = false;
+
+        private int maxSize = 8;
+
+        /**
+         * How long the first request of a batch waits for the others.
+         */
+        private Duration linger = Duration.ofMillis(5);
+    }
+
+    public enum Balancing {
+        /**
+         * Replica with the least requests in flight.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * The less loaded one of two random replicas, close to the least outstanding one, without herding on it.
+         */
+        POWER_OF_TWO_CHOICES
+    }
+
+    public enum ClientType {
+        /**
+         * Blocking Feign client.
+         */
+        FEIGN,
+        /**
+         * Non-blocking client, see {@code FacesHttpApiClient}.
+         */
+        HTTP
+    }
+}